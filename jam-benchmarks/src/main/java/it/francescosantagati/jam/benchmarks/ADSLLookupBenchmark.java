@@ -0,0 +1,117 @@
+package it.francescosantagati.jam.benchmarks;
+
+import it.francescosantagati.jam.ADSLImpl;
+import it.francescosantagati.jam.AgentID;
+import it.francescosantagati.jam.CategoryAgentID;
+import it.francescosantagati.jam.Headless;
+import it.francescosantagati.jam.Message;
+import it.francescosantagati.jam.PersonalAgentID;
+import it.francescosantagati.jam.RemoteMessageBox;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.rmi.RemoteException;
+import java.rmi.server.UnicastRemoteObject;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Lookups of {@link ADSLImpl#getRemoteMessageBox(AgentID)} on a directory holding a number of message boxes,
+ * called in process so that RMI is not measured.
+ * <p>Message boxes belong to {@link #CATEGORIES} categories.</p>
+ *
+ * @author Francesco Santagati
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ADSLLookupBenchmark {
+
+    /**
+     * Categories of the registered message boxes.
+     */
+    public static final int CATEGORIES = 100;
+
+    @Param({"10", "1000", "10000", "100000"})
+    public int boxes;
+
+    private ADSLImpl adsl;
+    private PersonalAgentID personal;
+    private PersonalAgentID absent;
+    private CategoryAgentID category;
+
+    @Setup(Level.Trial)
+    public void setUp() throws RemoteException {
+        System.setProperty(Headless.PROPERTY, "true");
+        adsl = new ADSLImpl();
+        for (int i = 0; i < boxes; i++) {
+            adsl.insertRemoteMessageBox(new Box(new PersonalAgentID("agent-" + i, "category-" + i % CATEGORIES)));
+        }
+
+        int middle = boxes / 2;
+        personal = new PersonalAgentID("agent-" + middle, "category-" + middle % CATEGORIES);
+        absent = new PersonalAgentID("absent", "category-0");
+        category = new CategoryAgentID("category-" + middle % CATEGORIES);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws RemoteException {
+        UnicastRemoteObject.unexportObject(adsl, true);
+    }
+
+    @Benchmark
+    public List<RemoteMessageBox> lookupPersonal() throws RemoteException {
+        return adsl.getRemoteMessageBox(personal);
+    }
+
+    @Benchmark
+    public List<RemoteMessageBox> lookupAbsent() throws RemoteException {
+        return adsl.getRemoteMessageBox(absent);
+    }
+
+    @Benchmark
+    public List<RemoteMessageBox> lookupCategory() throws RemoteException {
+        return adsl.getRemoteMessageBox(category);
+    }
+
+    /**
+     * A message box that is never written: only its owner is needed to register it.
+     */
+    private static final class Box implements RemoteMessageBox {
+
+        private final AgentID owner;
+
+        Box(AgentID owner) {
+            this.owner = owner;
+        }
+
+        @Override
+        public void writeMessage(Message message) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public void writeMessages(List<Message> messages) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public AgentID getOwner() {
+            return owner;
+        }
+    }
+}
@@ -0,0 +1,122 @@
+package it.francescosantagati.jam.benchmarks;
+
+import it.francescosantagati.jam.ConcurrentMessageBox;
+import it.francescosantagati.jam.JAMMessageBoxException;
+import it.francescosantagati.jam.Message;
+import it.francescosantagati.jam.MessageBox;
+import it.francescosantagati.jam.Performative;
+import it.francescosantagati.jam.PersonalAgentID;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.rmi.RemoteException;
+import java.rmi.server.UnicastRemoteObject;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Selective reads and checks on a message box holding a number of messages.
+ * <p>The box holds <code>size - 1</code> messages of other senders and one message of the target sender, the
+ * last one. Every read writes the message back, so the box keeps its size and the target message stays the
+ * last one: selective reads measure the worst case of a box scan.</p>
+ *
+ * @author Francesco Santagati
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class MessageBoxBenchmark {
+
+    @Param({"10", "100", "1000", "10000"})
+    public int size;
+
+    @Param({"MessageBox", "ConcurrentMessageBox"})
+    public String box;
+
+    private MessageBox messageBox;
+    private ConcurrentMessageBox concurrentMessageBox;
+    private PersonalAgentID target;
+    private PersonalAgentID absent;
+
+    @Setup(Level.Trial)
+    public void setUp() throws RemoteException, InterruptedException {
+        PersonalAgentID owner = new PersonalAgentID("owner", "benchmark");
+        target = new PersonalAgentID("target", "benchmark");
+        absent = new PersonalAgentID("absent", "benchmark");
+
+        if ("MessageBox".equals(box)) {
+            messageBox = new MessageBox(owner, size + 1);
+        } else {
+            concurrentMessageBox = new ConcurrentMessageBox(owner, size + 1);
+        }
+        for (int i = 0; i < size - 1; i++) {
+            write(new Message(new PersonalAgentID("sender-" + i, "benchmark"), owner, Performative.INFORM, "noise"));
+        }
+        write(new Message(target, owner, Performative.REQUEST, "target"));
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws RemoteException {
+        UnicastRemoteObject.unexportObject(messageBox != null ? messageBox : concurrentMessageBox, true);
+    }
+
+    @Benchmark
+    public Message readFirst() throws InterruptedException, JAMMessageBoxException {
+        Message message = messageBox != null ? messageBox.readMessage() : concurrentMessageBox.readMessage();
+        write(message);
+        return message;
+    }
+
+    @Benchmark
+    public Message readBySender() throws InterruptedException, JAMMessageBoxException {
+        Message message = messageBox != null
+                ? messageBox.readMessage(target)
+                : concurrentMessageBox.readMessage(target);
+        write(message);
+        return message;
+    }
+
+    @Benchmark
+    public Message readBySenderAndPerformative() throws InterruptedException, JAMMessageBoxException {
+        Message message = messageBox != null
+                ? messageBox.readMessage(target, Performative.REQUEST)
+                : concurrentMessageBox.readMessage(target, Performative.REQUEST);
+        write(message);
+        return message;
+    }
+
+    @Benchmark
+    public boolean isThereMessageHit() {
+        return messageBox != null
+                ? messageBox.isThereMessage(target, Performative.REQUEST)
+                : concurrentMessageBox.isThereMessage(target, Performative.REQUEST);
+    }
+
+    @Benchmark
+    public boolean isThereMessageMiss() {
+        return messageBox != null
+                ? messageBox.isThereMessage(absent)
+                : concurrentMessageBox.isThereMessage(absent);
+    }
+
+    private void write(Message message) throws InterruptedException {
+        if (messageBox != null) {
+            messageBox.writeMessage(message);
+        } else {
+            concurrentMessageBox.writeMessage(message);
+        }
+    }
+}
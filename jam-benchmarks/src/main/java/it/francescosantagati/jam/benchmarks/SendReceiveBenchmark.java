@@ -0,0 +1,135 @@
+package it.francescosantagati.jam.benchmarks;
+
+import it.francescosantagati.jam.ADSLImpl;
+import it.francescosantagati.jam.Headless;
+import it.francescosantagati.jam.JAMADSLException;
+import it.francescosantagati.jam.JAMAgent;
+import it.francescosantagati.jam.JAMBehaviourInterruptedException;
+import it.francescosantagati.jam.LocalDelivery;
+import it.francescosantagati.jam.Message;
+import it.francescosantagati.jam.Performative;
+import it.francescosantagati.jam.PersonalAgentID;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.net.ServerSocket;
+import java.rmi.RemoteException;
+import java.rmi.server.UnicastRemoteObject;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * End-to-end {@link JAMAgent#send(Message)} and {@link JAMAgent#receive()} between two agents of this JVM,
+ * registered to an {@link ADSLImpl} on a loopback RMI registry.
+ * <p>With {@link LocalDelivery#DISABLED} messages go through loopback RMI, otherwise they are written
+ * directly into the message box of the receiver. {@link #roundTrip()} measures the latency of a request
+ * answered by an echo thread, {@link #sendAndReceive()} the throughput of a single thread that sends
+ * a message and reads it back.</p>
+ *
+ * @author Francesco Santagati
+ */
+@State(Scope.Benchmark)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SendReceiveBenchmark {
+
+    private static final String ADSL_NAME = "it.francescosantagati.jam.ADSL";
+    private static final String IP = "127.0.0.1";
+
+    @Param({"BY_REFERENCE", "BY_COPY", "DISABLED"})
+    public LocalDelivery localDelivery;
+
+    private ADSLImpl adsl;
+    private Agent sender;
+    private Agent receiver;
+    private Agent echo;
+    private Thread echoThread;
+    private Message request;
+    private Message inform;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException, JAMADSLException {
+        System.setProperty(Headless.PROPERTY, "true");
+        int port;
+        try (ServerSocket socket = new ServerSocket(0)) {
+            port = socket.getLocalPort();
+        }
+        adsl = new ADSLImpl(IP, port, ADSL_NAME);
+        adsl.startRMIRegistry();
+        adsl.startADSL();
+
+        sender = new Agent(new PersonalAgentID("sender", "benchmark"), port, localDelivery);
+        receiver = new Agent(new PersonalAgentID("receiver", "benchmark"), port, localDelivery);
+        echo = new Agent(new PersonalAgentID("echo", "benchmark"), port, localDelivery);
+        request = new Message(sender.getMyID(), echo.getMyID(), Performative.REQUEST, "ping");
+        inform = new Message(sender.getMyID(), receiver.getMyID(), Performative.INFORM, "ping");
+
+        echoThread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                Message reply = new Message(echo.getMyID(), sender.getMyID(), Performative.INFORM, "pong");
+                try {
+                    while (!Thread.currentThread().isInterrupted()) {
+                        echo.receive();
+                        echo.send(reply);
+                    }
+                } catch (JAMBehaviourInterruptedException | JAMADSLException e) {
+                    // Stopped by tearDown
+                }
+            }
+        }, "jam-benchmark-echo");
+        echoThread.setDaemon(true);
+        echoThread.start();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws InterruptedException, RemoteException, JAMADSLException {
+        echoThread.interrupt();
+        echoThread.join(1000);
+        sender.destroy();
+        receiver.destroy();
+        echo.destroy();
+        adsl.stopADSL();
+        UnicastRemoteObject.unexportObject(adsl, true);
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.SampleTime)
+    @OutputTimeUnit(TimeUnit.MICROSECONDS)
+    public Message roundTrip() throws JAMBehaviourInterruptedException, JAMADSLException {
+        sender.send(request);
+        return sender.receive();
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.Throughput)
+    @OutputTimeUnit(TimeUnit.SECONDS)
+    public Message sendAndReceive() throws JAMBehaviourInterruptedException, JAMADSLException {
+        sender.send(inform);
+        return receiver.receive();
+    }
+
+    /**
+     * An agent without behaviours: benchmark threads send and receive on its behalf.
+     */
+    private static final class Agent extends JAMAgent {
+
+        Agent(PersonalAgentID agentID, int port, LocalDelivery localDelivery) throws JAMADSLException {
+            super(agentID, IP, ADSL_NAME, port);
+            setLocalDelivery(localDelivery);
+            init();
+        }
+    }
+}
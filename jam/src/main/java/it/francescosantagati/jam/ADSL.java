@@ -88,4 +88,20 @@ public interface ADSL extends Remote {
      * @throws RemoteException when fail
      */
     void removeListener(LogListener listener) throws RemoteException;
+
+    /**
+     * Set a remote listener notified whenever a {@link RemoteMessageBox} is inserted or removed.
+     *
+     * @param listener Listener to add
+     * @throws RemoteException when fail
+     */
+    void addDirectoryListener(DirectoryListener listener) throws RemoteException;
+
+    /**
+     * Unset a remote directory listener.
+     *
+     * @param listener A DirectoryListener instance.
+     * @throws RemoteException when fail
+     */
+    void removeDirectoryListener(DirectoryListener listener) throws RemoteException;
 }
\ No newline at end of file
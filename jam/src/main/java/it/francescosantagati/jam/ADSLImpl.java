@@ -6,11 +6,12 @@ import java.rmi.NotBoundException;
 import java.rmi.RemoteException;
 import java.rmi.registry.LocateRegistry;
 import java.rmi.server.UnicastRemoteObject;
-import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
 
 /**
  * Concrete class that allows agents who have registered to communicate.
+ * An {@link ADSLMonitor} is shown, unless {@link Headless} mode is enabled.
  *
  * @author Francesco Santagati
  */
@@ -22,8 +23,10 @@ public class ADSLImpl extends UnicastRemoteObject implements ADSL {
     public int PORT;
     private String IP;
     private String NAME;
-    private List<LogListener> listener;
-    private List<RemoteMessageBox> messageBoxes;
+    private final List<LogListener> listener;
+    private final DirectoryNotifier directoryListeners;
+    private final MessageBoxDirectory messageBoxes;
+    private final ADSLMetrics metrics;
 
     /**
      * Construct an it.francescosantagati.jam.ADSL with default params.
@@ -47,45 +50,57 @@ public class ADSLImpl extends UnicastRemoteObject implements ADSL {
         PORT = port;
         NAME = name;
 
-        messageBoxes = new ArrayList<>();
+        messageBoxes = new MessageBoxDirectory();
+        listener = new CopyOnWriteArrayList<>();
+        directoryListeners = new DirectoryNotifier();
+        metrics = new ADSLMetrics(this);
+        if (!Headless.isEnabled()) {
+            showMonitor();
+        }
+    }
+
+    /**
+     * Kept apart from the constructor so that {@link ADSLMonitor} is not loaded in headless mode.
+     */
+    private void showMonitor() {
         new ADSLMonitor(this).showFrame();
-        listener = new ArrayList<>();
     }
 
     /**
      * {@inheritDoc}
+     * <p>Lookups do not lock, not even while a message box is inserted or removed.</p>
      */
     @Override
-    public synchronized List<RemoteMessageBox> getRemoteMessageBox(AgentID agentID) throws RemoteException {
+    public List<RemoteMessageBox> getRemoteMessageBox(AgentID agentID) throws RemoteException {
+        long start = System.nanoTime();
 
         String message = "Richiesto box (" + agentID + ")";
 //        it.francescosantagati.jam.Log.d(this, message);
         notifyListener(message);
 
-        List<RemoteMessageBox> listMatch = new ArrayList<>(messageBoxes.size());
-        for (RemoteMessageBox remoteMessageBox : messageBoxes) {
-            if (remoteMessageBox.getOwner().equals(agentID)) {
-                listMatch.add(remoteMessageBox);
-            }
-        }
-        return listMatch;
+        List<RemoteMessageBox> boxes = messageBoxes.lookup(agentID);
+        metrics.lookedUp(start);
+        return boxes;
     }
 
     /**
      * {@inheritDoc}
      */
     @Override
-    public synchronized void insertRemoteMessageBox(RemoteMessageBox remoteMessageBox) throws RemoteException {
-        if (messageBoxes.contains(remoteMessageBox)) {
-            Log.e(this, "it.francescosantagati.jam.Message box " + remoteMessageBox.getOwner() + " already exists");
-            throw new IllegalArgumentException();
-        }
-
+    public void insertRemoteMessageBox(RemoteMessageBox remoteMessageBox) throws RemoteException {
         try {
-            String message = "Iscrizione nuovo box per " + remoteMessageBox.getOwner();
-            messageBoxes.add(remoteMessageBox);
+            // Owner is asked once: lookups never call back the message box
+            AgentID owner = remoteMessageBox.getOwner();
+            if (!messageBoxes.insert(remoteMessageBox, owner)) {
+                Log.e(this, "it.francescosantagati.jam.Message box {} already exists", owner);
+                throw new IllegalArgumentException();
+            }
+            metrics.inserted();
+
+            String message = "Iscrizione nuovo box per " + owner;
 //            it.francescosantagati.jam.Log.d(this, message);
             notifyListener(message);
+            directoryListeners.inserted(owner);
         } catch (RemoteException e) {
             notifyListener("Errore: " + e.getMessage());
         }
@@ -95,22 +110,17 @@ public class ADSLImpl extends UnicastRemoteObject implements ADSL {
      * {@inheritDoc}
      */
     @Override
-    public synchronized void removeRemoteMessageBox(AgentID agentID) throws RemoteException {
-        for (RemoteMessageBox remoteMessageBox : messageBoxes) {
-            try {
-                if (remoteMessageBox.getOwner().equals(agentID)) {
-                    messageBoxes.remove(remoteMessageBox);
-                    String message = "Cancellato box " + remoteMessageBox.getOwner();
-//                    it.francescosantagati.jam.Log.d(this, message);
-                    notifyListener(message);
-                    return;
-                }
-            } catch (RemoteException e) {
-                notifyListener("Errore: " + e.getMessage());
-            }
+    public void removeRemoteMessageBox(AgentID agentID) throws RemoteException {
+        AgentID owner = messageBoxes.remove(agentID);
+        if (owner == null) {
+            throw new IllegalArgumentException("Agent not found");
         }
+        metrics.removed();
 
-        throw new IllegalArgumentException("Agent not found");
+        String message = "Cancellato box " + owner;
+//        it.francescosantagati.jam.Log.d(this, message);
+        notifyListener(message);
+        directoryListeners.removed(owner);
     }
 
     /**
@@ -128,6 +138,7 @@ public class ADSLImpl extends UnicastRemoteObject implements ADSL {
     public void startADSL() throws RemoteException {
         try {
             Naming.rebind(getConnectionString(), this);
+            Metrics.get().register(metrics);
             notifyListener("Rebind it.francescosantagati.jam.ADSL on port " + PORT);
         } catch (MalformedURLException e) {
             notifyListener("Errore: " + e.getMessage());
@@ -140,6 +151,7 @@ public class ADSLImpl extends UnicastRemoteObject implements ADSL {
     @Override
     public void stopADSL() throws RemoteException {
         try {
+            Metrics.get().unregister(metrics);
             Naming.unbind(getConnectionString());
             notifyListener("Unbind it.francescosantagati.jam.ADSL on port " + PORT);
         } catch (NotBoundException | MalformedURLException e) {
@@ -150,17 +162,31 @@ public class ADSLImpl extends UnicastRemoteObject implements ADSL {
     /**
      * {@inheritDoc}
      */
-    public synchronized void addListener(LogListener listener) {
+    public void addListener(LogListener listener) {
         this.listener.add(listener);
     }
 
     /**
      * {@inheritDoc}
      */
-    public synchronized void removeListener(LogListener listener) {
+    public void removeListener(LogListener listener) {
         this.listener.remove(listener);
     }
 
+    /**
+     * {@inheritDoc}
+     */
+    public void addDirectoryListener(DirectoryListener listener) {
+        directoryListeners.add(listener);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public void removeDirectoryListener(DirectoryListener listener) {
+        directoryListeners.remove(listener);
+    }
+
     private void notifyListener(String message) {
         for(LogListener listener : this.listener) {
             listener.onLogMessage(message);
@@ -170,4 +196,15 @@ public class ADSLImpl extends UnicastRemoteObject implements ADSL {
     public String getConnectionString() {
         return RMIUtil.renderConnectionString(IP, PORT, NAME);
     }
+
+    /**
+     * @return runtime metrics of this ADSL, published by {@link Metrics} while the ADSL is started
+     */
+    public ADSLMetrics getMetrics() {
+        return metrics;
+    }
+
+    int getRegisteredBoxes() {
+        return messageBoxes.size();
+    }
 }
\ No newline at end of file
@@ -0,0 +1,99 @@
+package it.francescosantagati.jam;
+
+/**
+ * Runtime metrics of an {@link ADSLImpl}: registered message boxes, lookups, insertions and removals.
+ *
+ * @author Francesco Santagati
+ */
+public final class ADSLMetrics extends MetricSet implements ADSLMetricsMBean {
+
+    private final ADSLImpl adsl;
+    private final Meter inserts;
+    private final Meter removes;
+    private final Histogram lookupLatency;
+    private final Meter lookups;
+
+    /**
+     * @param adsl Measured ADSL
+     */
+    ADSLMetrics(ADSLImpl adsl) {
+        super("ADSL", adsl.getConnectionString());
+        this.adsl = adsl;
+        inserts = new Meter();
+        removes = new Meter();
+        lookups = new Meter();
+        lookupLatency = new Histogram();
+    }
+
+    /**
+     * Record a lookup.
+     *
+     * @param startNanos {@link System#nanoTime()} when the lookup started
+     */
+    void lookedUp(long startNanos) {
+        lookupLatency.record(System.nanoTime() - startNanos);
+        lookups.mark();
+    }
+
+    void inserted() {
+        inserts.mark();
+    }
+
+    void removed() {
+        removes.mark();
+    }
+
+    @Override
+    public int getRegisteredBoxes() {
+        return adsl.getRegisteredBoxes();
+    }
+
+    @Override
+    public long getLookupCount() {
+        return lookups.getCount();
+    }
+
+    @Override
+    public double getLookupRate() {
+        return lookups.getOneMinuteRate();
+    }
+
+    @Override
+    public long getLookupLatency50thPercentile() {
+        return lookupLatency.getValueAtPercentile(50);
+    }
+
+    @Override
+    public long getLookupLatency99thPercentile() {
+        return lookupLatency.getValueAtPercentile(99);
+    }
+
+    @Override
+    public long getInsertCount() {
+        return inserts.getCount();
+    }
+
+    @Override
+    public double getInsertRate() {
+        return inserts.getOneMinuteRate();
+    }
+
+    @Override
+    public long getRemoveCount() {
+        return removes.getCount();
+    }
+
+    @Override
+    public double getRemoveRate() {
+        return removes.getOneMinuteRate();
+    }
+
+    @Override
+    void render(StringBuilder out) {
+        gauge(out, "registered_boxes", getRegisteredBoxes());
+        meter(out, "lookups", lookups);
+        histogram(out, "lookup_latency_nanoseconds", lookupLatency);
+        meter(out, "inserts", inserts);
+        meter(out, "removes", removes);
+    }
+}
@@ -0,0 +1,54 @@
+package it.francescosantagati.jam;
+
+/**
+ * Management interface of {@link ADSLMetrics}. Durations are in nanoseconds, rates are per second.
+ *
+ * @author Francesco Santagati
+ */
+public interface ADSLMetricsMBean {
+
+    /**
+     * @return number of registered message boxes
+     */
+    int getRegisteredBoxes();
+
+    /**
+     * @return number of lookups
+     */
+    long getLookupCount();
+
+    /**
+     * @return lookups per second over the last minute
+     */
+    double getLookupRate();
+
+    /**
+     * @return median duration of a lookup
+     */
+    long getLookupLatency50thPercentile();
+
+    /**
+     * @return 99th percentile of the duration of a lookup
+     */
+    long getLookupLatency99thPercentile();
+
+    /**
+     * @return number of message boxes inserted
+     */
+    long getInsertCount();
+
+    /**
+     * @return message boxes inserted per second over the last minute
+     */
+    double getInsertRate();
+
+    /**
+     * @return number of message boxes removed
+     */
+    long getRemoveCount();
+
+    /**
+     * @return message boxes removed per second over the last minute
+     */
+    double getRemoveRate();
+}
@@ -0,0 +1,123 @@
+package it.francescosantagati.jam;
+
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Queue of the send and receive events of an agent, reported to its observers by a daemon thread.
+ * <p>The thread that sends or receives only appends the event to a lock-free queue: the text of the event
+ * is built and {@link java.util.Observer#update} is called later by the thread shared by all agents, in the
+ * order events happened. So the latency of messaging does not depend on the observers, e.g. a
+ * {@link JAMAgentMonitor} rendering its console.</p>
+ *
+ * @author Francesco Santagati
+ */
+final class AgentEvents {
+
+    /**
+     * Events reported by a drain before it releases the thread to other agents.
+     */
+    private static final int BATCH = 256;
+
+    private final JAMAgent agent;
+    private final ConcurrentLinkedQueue<Event> queue;
+    private final AtomicBoolean scheduled;
+    private final Runnable drain;
+
+    /**
+     * @param agent Agent whose observers are notified
+     */
+    AgentEvents(JAMAgent agent) {
+        this.agent = agent;
+        queue = new ConcurrentLinkedQueue<>();
+        scheduled = new AtomicBoolean();
+        drain = new Runnable() {
+            @Override
+            public void run() {
+                drain();
+            }
+        };
+    }
+
+    /**
+     * Queue a sent message. Performative and receiver are read now: the message may change later.
+     *
+     * @param message it.francescosantagati.jam.Message
+     */
+    void sent(Message message) {
+        publish(new Event("SEND", message));
+    }
+
+    /**
+     * Queue a received message.
+     *
+     * @param message it.francescosantagati.jam.Message
+     */
+    void received(Message message) {
+        publish(new Event("RECEIVE", message));
+    }
+
+    private void publish(Event event) {
+        queue.offer(event);
+        schedule();
+    }
+
+    private void schedule() {
+        if (scheduled.compareAndSet(false, true)) {
+            Holder.EXECUTOR.execute(drain);
+        }
+    }
+
+    /**
+     * Run on the events thread, never by two threads at once.
+     */
+    private void drain() {
+        Event event;
+        for (int i = 0; i < BATCH && (event = queue.poll()) != null; i++) {
+            try {
+                agent.notifyEvent(event.toString());
+            } catch (RuntimeException e) {
+                Log.e(this, e.getMessage());
+            }
+        }
+        scheduled.set(false);
+        // An event queued after the last poll found the drain still scheduled
+        if (!queue.isEmpty()) {
+            schedule();
+        }
+    }
+
+    private static final class Event {
+        private final String kind;
+        private final Performative performative;
+        private final AgentID receiver;
+
+        Event(String kind, Message message) {
+            this.kind = kind;
+            performative = message.getPerformative();
+            receiver = message.getReceiver();
+        }
+
+        @Override
+        public String toString() {
+            return kind + " message " + performative + " to " + receiver;
+        }
+    }
+
+    /**
+     * Lazily created on first use.
+     */
+    private static final class Holder {
+        private static final Executor EXECUTOR = Executors.newSingleThreadExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable, "jam-events");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+    }
+}
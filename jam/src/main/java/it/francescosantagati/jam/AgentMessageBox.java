@@ -0,0 +1,141 @@
+package it.francescosantagati.jam;
+
+import java.util.Collection;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Interface definition for the local side of a message box, used by the owner agent to read its messages.
+ * Implementations are also {@link RemoteMessageBox} so that other agents can write into them.
+ *
+ * @author Francesco Santagati
+ */
+public interface AgentMessageBox {
+
+    /**
+     * Retrieve and delete from message box the first message, waiting until one is available.
+     *
+     * @return message
+     * @throws InterruptedException   if thread is interrupted while waiting
+     * @throws JAMMessageBoxException if read message fail
+     */
+    Message readMessage() throws InterruptedException, JAMMessageBoxException;
+
+    /**
+     * Retrieve and delete from message box the first message sent by agent provided,
+     * waiting until one is available.
+     *
+     * @param agentID it.francescosantagati.jam.AgentID
+     * @return message
+     * @throws InterruptedException   if thread is interrupted while waiting
+     * @throws JAMMessageBoxException if read message fail
+     */
+    Message readMessage(AgentID agentID) throws InterruptedException, JAMMessageBoxException;
+
+    /**
+     * Retrieve and delete from message box the first message with performative provided,
+     * waiting until one is available.
+     *
+     * @param performative it.francescosantagati.jam.Performative
+     * @return message
+     * @throws InterruptedException   if thread is interrupted while waiting
+     * @throws JAMMessageBoxException if read message fail
+     */
+    Message readMessage(Performative performative) throws InterruptedException, JAMMessageBoxException;
+
+    /**
+     * Retrieve and delete from message box the first message sent by agent and with performative provided,
+     * waiting until one is available.
+     *
+     * @param agentID      it.francescosantagati.jam.AgentID
+     * @param performative it.francescosantagati.jam.Performative
+     * @return message
+     * @throws InterruptedException   if thread is interrupted while waiting
+     * @throws JAMMessageBoxException if read message fail
+     */
+    Message readMessage(AgentID agentID, Performative performative) throws InterruptedException, JAMMessageBoxException;
+
+    /**
+     * Retrieve and delete from message box the first message sent by agent and with performative provided,
+     * waiting up to the timeout provided.
+     *
+     * @param agentID      it.francescosantagati.jam.AgentID, null matches every sender
+     * @param performative it.francescosantagati.jam.Performative, null matches every performative
+     * @param timeout      Max time to wait, zero to return immediately
+     * @param unit         Time unit of timeout
+     * @return message or null if timeout expired
+     * @throws InterruptedException if thread is interrupted while waiting
+     */
+    Message readMessage(AgentID agentID, Performative performative, long timeout, TimeUnit unit) throws InterruptedException;
+
+    /**
+     * Retrieve and delete from message box, without waiting, up to max messages sent by agent and with
+     * performative provided, adding them to the collection in arrival order.
+     *
+     * @param agentID      it.francescosantagati.jam.AgentID, null matches every sender
+     * @param performative it.francescosantagati.jam.Performative, null matches every performative
+     * @param messages     Collection where messages are added
+     * @param max          Max number of messages to retrieve
+     * @return number of messages added
+     */
+    int drainTo(AgentID agentID, Performative performative, Collection<? super Message> messages, int max);
+
+    /**
+     * Register a listener notified of every message that becomes readable.
+     *
+     * @param listener A {@link MessageBoxListener} instance
+     */
+    void addMessageBoxListener(MessageBoxListener listener);
+
+    /**
+     * Unregister a listener.
+     *
+     * @param listener A {@link MessageBoxListener} instance
+     */
+    void removeMessageBoxListener(MessageBoxListener listener);
+
+    /**
+     * Check if a message is in the message box.
+     *
+     * @return True if message found, false otherwise
+     */
+    boolean isThereMessage();
+
+    /**
+     * Check if a message sent by provided agent in the message box.
+     *
+     * @param agentID it.francescosantagati.jam.AgentID
+     * @return True if message found, false otherwise
+     */
+    boolean isThereMessage(AgentID agentID);
+
+    /**
+     * Check if a message with provided performative is in the message box.
+     *
+     * @param performative it.francescosantagati.jam.Performative
+     * @return True if message found, false otherwise
+     */
+    boolean isThereMessage(Performative performative);
+
+    /**
+     * Check if a message sent by agent and with provided performative is in the message box.
+     *
+     * @param agentID      it.francescosantagati.jam.AgentID
+     * @param performative it.francescosantagati.jam.Performative
+     * @return True if message found, false otherwise
+     */
+    boolean isThereMessage(AgentID agentID, Performative performative);
+
+    /**
+     * Check if box is empty.
+     *
+     * @return True if is empty, False otherwise
+     */
+    boolean isBoxEmpty();
+
+    /**
+     * Check if box is full
+     *
+     * @return True if is full. False otherwise
+     */
+    boolean isBoxFull();
+}
@@ -0,0 +1,80 @@
+package it.francescosantagati.jam;
+
+/**
+ * Runtime metrics of an agent: messages sent, failures and duration of {@link JAMAgent#send(Message)}.
+ *
+ * @author Francesco Santagati
+ */
+public final class AgentMetrics extends MetricSet implements AgentMetricsMBean {
+
+    private final Meter sent;
+    private final Meter failures;
+    private final Histogram sendLatency;
+
+    /**
+     * @param agentID Measured agent
+     */
+    AgentMetrics(AgentID agentID) {
+        super("Agent", MessageBoxMetrics.name(agentID));
+        sent = new Meter();
+        failures = new Meter();
+        sendLatency = new Histogram();
+    }
+
+    /**
+     * Record a completed send.
+     *
+     * @param messages   Number of messages sent
+     * @param startNanos {@link System#nanoTime()} when the send started
+     */
+    void sent(int messages, long startNanos) {
+        sendLatency.record(System.nanoTime() - startNanos);
+        sent.mark(messages);
+    }
+
+    void failed() {
+        failures.mark();
+    }
+
+    @Override
+    public long getSentCount() {
+        return sent.getCount();
+    }
+
+    @Override
+    public double getSendRate() {
+        return sent.getOneMinuteRate();
+    }
+
+    @Override
+    public long getSendFailureCount() {
+        return failures.getCount();
+    }
+
+    @Override
+    public double getSendLatencyMean() {
+        return sendLatency.getMean();
+    }
+
+    @Override
+    public long getSendLatency50thPercentile() {
+        return sendLatency.getValueAtPercentile(50);
+    }
+
+    @Override
+    public long getSendLatency99thPercentile() {
+        return sendLatency.getValueAtPercentile(99);
+    }
+
+    @Override
+    public long getSendLatencyMax() {
+        return sendLatency.getMax();
+    }
+
+    @Override
+    void render(StringBuilder out) {
+        meter(out, "sent", sent);
+        meter(out, "send_failures", failures);
+        histogram(out, "send_latency_nanoseconds", sendLatency);
+    }
+}
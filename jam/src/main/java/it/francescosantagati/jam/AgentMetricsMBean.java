@@ -0,0 +1,44 @@
+package it.francescosantagati.jam;
+
+/**
+ * Management interface of {@link AgentMetrics}. Durations are in nanoseconds, rates are per second.
+ *
+ * @author Francesco Santagati
+ */
+public interface AgentMetricsMBean {
+
+    /**
+     * @return number of messages sent
+     */
+    long getSentCount();
+
+    /**
+     * @return messages sent per second over the last minute
+     */
+    double getSendRate();
+
+    /**
+     * @return number of sends that failed
+     */
+    long getSendFailureCount();
+
+    /**
+     * @return mean duration of a send
+     */
+    double getSendLatencyMean();
+
+    /**
+     * @return median duration of a send
+     */
+    long getSendLatency50thPercentile();
+
+    /**
+     * @return 99th percentile of the duration of a send
+     */
+    long getSendLatency99thPercentile();
+
+    /**
+     * @return longest duration of a send
+     */
+    long getSendLatencyMax();
+}
@@ -0,0 +1,198 @@
+package it.francescosantagati.jam;
+
+import java.io.IOException;
+import java.rmi.RemoteException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A send started by {@link JAMAgent#sendAsync(Message, long, TimeUnit)}.
+ * <p>The lookup runs on the send executor, then the message is written into every message box of the receiver
+ * concurrently, each write on its own task. A write that does not end within the timeout is reported as timed out:
+ * the message may still reach that message box later.</p>
+ *
+ * @author Francesco Santagati
+ */
+final class AsyncSend implements Runnable {
+
+    private final Executor executor;
+    private final MessageBoxCache messageBoxCache;
+    private final ADSL adsl;
+    private final Message message;
+    private final long timeoutNanos;
+    private final DeliveryFuture future;
+    private final List<Exception> failures;
+    private final AtomicInteger delivered;
+    private AtomicInteger remaining;
+    private int boxes;
+
+    AsyncSend(Executor executor, MessageBoxCache messageBoxCache, ADSL adsl, Message message,
+              long timeoutNanos, DeliveryFuture future) {
+        this.executor = executor;
+        this.messageBoxCache = messageBoxCache;
+        this.adsl = adsl;
+        this.message = message;
+        this.timeoutNanos = timeoutNanos;
+        this.future = future;
+        this.failures = new ArrayList<>();
+        this.delivered = new AtomicInteger();
+    }
+
+    /**
+     * Provide the executor shared by agents that do not set their own, created on first use.
+     * Threads are created on demand, since writes may block for a long time.
+     *
+     * @return An {@link Executor} instance
+     */
+    static Executor sharedExecutor() {
+        return Shared.INSTANCE;
+    }
+
+    /**
+     * Submit the send to the executor.
+     */
+    void start() {
+        try {
+            executor.execute(this);
+        } catch (RejectedExecutionException e) {
+            future.complete(new DeliveryReport(message, 0, 0, failure(e)));
+        }
+    }
+
+    /**
+     * Look up message boxes and start a write for each of them.
+     */
+    @Override
+    public void run() {
+        List<RemoteMessageBox> boxList;
+        try {
+            boxList = messageBoxCache.lookup(adsl, message.getReceiver());
+        } catch (RemoteException e) {
+            messageBoxCache.invalidate(message.getReceiver());
+            future.complete(new DeliveryReport(message, 0, 0, failure(e)));
+            return;
+        }
+
+        boxes = boxList.size();
+        if (boxes == 0) {
+            future.complete(new DeliveryReport(message, 0, 0, new ArrayList<Exception>()));
+            return;
+        }
+
+        if (boxes > 1) {
+            try {
+                message.encodeOnce();
+            } catch (IOException e) {
+                future.complete(new DeliveryReport(message, boxes, 0, failure(e)));
+                return;
+            }
+        }
+        remaining = new AtomicInteger(boxes);
+        for (RemoteMessageBox box : boxList) {
+            final Write write = new Write(box);
+            write.timeout = TimingWheel.shared().schedule(new Runnable() {
+                @Override
+                public void run() {
+                    finish(write, new TimeoutException("No answer from " + write.box));
+                }
+            }, timeoutNanos, TimeUnit.NANOSECONDS);
+            try {
+                executor.execute(write);
+            } catch (RejectedExecutionException e) {
+                finish(write, e);
+            }
+        }
+    }
+
+    /**
+     * Account the end of a write. Only the first call for each write has effect.
+     */
+    private void finish(Write write, Exception failure) {
+        if (!write.finished.compareAndSet(false, true)) {
+            return;
+        }
+        TimingWheel.Timeout timeout = write.timeout;
+        if (timeout != null) {
+            timeout.cancel();
+        }
+
+        if (failure == null) {
+            delivered.incrementAndGet();
+        } else {
+            if (failure instanceof RemoteException) {
+                // A cached message box may belong to a dead agent: ask the ADSL next time
+                messageBoxCache.invalidate(message.getReceiver());
+            }
+            synchronized (failures) {
+                failures.add(failure);
+            }
+        }
+
+        if (remaining.decrementAndGet() == 0) {
+            message.clearEncoded();
+            List<Exception> report;
+            synchronized (failures) {
+                report = new ArrayList<>(failures);
+            }
+            future.complete(new DeliveryReport(message, boxes, delivered.get(), report));
+        }
+    }
+
+    private static List<Exception> failure(Exception e) {
+        List<Exception> failures = new ArrayList<>(1);
+        failures.add(e);
+        return failures;
+    }
+
+    /**
+     * Write the message into a single message box.
+     */
+    private final class Write implements Runnable {
+        private final RemoteMessageBox box;
+        private final AtomicBoolean finished;
+        private volatile TimingWheel.Timeout timeout;
+
+        private Write(RemoteMessageBox box) {
+            this.box = box;
+            this.finished = new AtomicBoolean();
+        }
+
+        @Override
+        public void run() {
+            if (finished.get()) {
+                return;
+            }
+            try {
+                box.writeMessage(message);
+                finish(this, null);
+            } catch (RemoteException | InterruptedException | RuntimeException e) {
+                finish(this, e);
+            }
+        }
+    }
+
+    /**
+     * Lazily created on first use.
+     */
+    private static final class Shared {
+        private static final ExecutorService INSTANCE = Executors.newCachedThreadPool(new ThreadFactory() {
+            private final AtomicInteger count = new AtomicInteger();
+
+            @Override
+            public Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable, "jam-send-" + count.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+    }
+}
@@ -0,0 +1,24 @@
+package it.francescosantagati.jam;
+
+/**
+ * Interface definition for the strategy used by {@link JAMAgent#start()} to run behaviours.
+ * <p>A task runs a whole behaviour and may block for a long time, e.g. in
+ * {@link JAMAgent#receive()} or {@link JAMBehaviour#sleep(long)}.
+ * An executor can be shared by many agents.</p>
+ *
+ * @author Francesco Santagati
+ */
+public interface BehaviourExecutor {
+
+    /**
+     * Run a behaviour task asynchronously.
+     *
+     * @param task Task that runs a {@link JAMBehaviour}
+     */
+    void execute(Runnable task);
+
+    /**
+     * Stop accepting new tasks. Tasks already submitted are not interrupted.
+     */
+    void shutdown();
+}
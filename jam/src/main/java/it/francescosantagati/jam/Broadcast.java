@@ -0,0 +1,135 @@
+package it.francescosantagati.jam;
+
+import java.io.IOException;
+import java.rmi.MarshalException;
+import java.rmi.RemoteException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Write of a message into many message boxes, e.g. of a {@link CategoryAgentID} or a {@link GenericAgentID}.
+ * <p>The message is encoded once for all message boxes, then written into them concurrently: the caller
+ * writes into the first one and a bounded executor into the others. The time of a broadcast is close to
+ * the time of the slowest message box, as long as the executor has a thread for every message box.</p>
+ *
+ * @author Francesco Santagati
+ */
+final class Broadcast {
+
+    /**
+     * Threads of the executor shared by agents that do not set their own.
+     */
+    static final int THREADS = 64;
+
+    private Broadcast() {
+    }
+
+    /**
+     * Provide the executor shared by agents that do not set their own, created on first use.
+     *
+     * @return An {@link Executor} instance
+     */
+    static Executor sharedExecutor() {
+        return Shared.INSTANCE;
+    }
+
+    /**
+     * Write a message into every message box, waiting for all writes.
+     *
+     * @param executor Executor of the writes
+     * @param boxes    Message boxes
+     * @param message  it.francescosantagati.jam.Message
+     * @throws RemoteException      when a write fails. Other failures are suppressed by the first one.
+     * @throws InterruptedException when thread is interrupted while waiting. Writes go on.
+     */
+    static void write(Executor executor, List<RemoteMessageBox> boxes, final Message message)
+            throws RemoteException, InterruptedException {
+        try {
+            message.encodeOnce();
+        } catch (IOException e) {
+            throw new MarshalException(e.getMessage(), e);
+        }
+
+        final AtomicInteger remaining = new AtomicInteger(boxes.size());
+        final CountDownLatch done = new CountDownLatch(boxes.size());
+        final List<Exception> failures = new ArrayList<>();
+        for (int i = boxes.size() - 1; i >= 0; i--) {
+            final RemoteMessageBox box = boxes.get(i);
+            Runnable write = new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        box.writeMessage(message);
+                    } catch (RemoteException | InterruptedException | RuntimeException e) {
+                        synchronized (failures) {
+                            failures.add(e);
+                        }
+                    } finally {
+                        if (remaining.decrementAndGet() == 0) {
+                            message.clearEncoded();
+                        }
+                        done.countDown();
+                    }
+                }
+            };
+
+            if (i == 0) {
+                write.run();
+            } else {
+                try {
+                    executor.execute(write);
+                } catch (RejectedExecutionException e) {
+                    write.run();
+                }
+            }
+        }
+        done.await();
+
+        synchronized (failures) {
+            if (failures.isEmpty()) {
+                return;
+            }
+            Exception first = failures.get(0);
+            for (Exception failure : failures.subList(1, failures.size())) {
+                first.addSuppressed(failure);
+            }
+            if (first instanceof RemoteException) {
+                throw (RemoteException) first;
+            } else if (first instanceof InterruptedException) {
+                throw new RemoteException(first.toString(), first);
+            }
+            throw (RuntimeException) first;
+        }
+    }
+
+    /**
+     * Lazily created on first use.
+     */
+    private static final class Shared {
+        private static final Executor INSTANCE;
+
+        static {
+            ThreadPoolExecutor pool = new ThreadPoolExecutor(THREADS, THREADS, 60L, TimeUnit.SECONDS,
+                    new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+                private final AtomicInteger count = new AtomicInteger();
+
+                @Override
+                public Thread newThread(Runnable runnable) {
+                    Thread thread = new Thread(runnable, "jam-broadcast-" + count.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+            pool.allowCoreThreadTimeOut(true);
+            INSTANCE = pool;
+        }
+    }
+}
@@ -0,0 +1,516 @@
+package it.francescosantagati.jam;
+
+import java.io.IOException;
+import java.rmi.RemoteException;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * A mailbox remotely accessible and belonging to a particular agent, tuned for many concurrent senders.
+ * <p>Writers append to a lock-free queue and never contend with each other nor with readers,
+ * unless a reader is blocked waiting for a message or a {@link MessageBoxListener} is registered.
+ * Readers move pending messages into the index
+ * under a lock shared only among readers, then perform the selective read.</p>
+ * <p>Reads have the same blocking semantics of {@link MessageBox}. When the box is full writers
+ * take the reader lock and apply the {@link OverflowPolicy} provided.</p>
+ *
+ * @author Francesco Santagati
+ */
+public class ConcurrentMessageBox extends MessageBoxNoSync<Message> implements RemoteMessageBox, AgentMessageBox {
+
+    private static final long serialVersionUID = 1L;
+
+    private final ConcurrentLinkedQueue<Pending> inbox = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger size = new AtomicInteger();
+    private final ReentrantLock lock = new ReentrantLock();
+    private final MessageWaiters waiters = new MessageWaiters(lock, box, spill);
+    private final Condition notFull = lock.newCondition();
+
+    /**
+     * Construct a concurrent message box with a max message limit.
+     *
+     * @param owner      Agent ID
+     * @param maxMessage Max message number
+     * @throws RemoteException when fail to connect
+     */
+    public ConcurrentMessageBox(AgentID owner, int maxMessage) throws RemoteException {
+        this(owner, maxMessage, OverflowPolicy.dropNewest());
+    }
+
+    /**
+     * Construct a concurrent message box with a max message limit and the policy to apply when it is full.
+     *
+     * @param owner          Agent ID
+     * @param maxMessage     Max message number
+     * @param overflowPolicy Policy applied when box is full
+     * @throws RemoteException when fail to connect
+     */
+    public ConcurrentMessageBox(AgentID owner, int maxMessage, OverflowPolicy overflowPolicy) throws RemoteException {
+        super(owner, maxMessage, overflowPolicy);
+
+        if (owner == null) {
+            throw new IllegalArgumentException("Wrong parameters");
+        }
+        if (maxMessages <= 0) {
+            throw new IllegalArgumentException("Max messages MUST be a positive number");
+        }
+    }
+
+    /**
+     * Construct a concurrent message box.
+     *
+     * @param owner Agent ID
+     * @throws RemoteException when fail to connect
+     */
+    public ConcurrentMessageBox(AgentID owner) throws RemoteException {
+        super(owner);
+
+        if (owner == null) {
+            throw new IllegalArgumentException("Wrong parameters");
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public AgentID getOwner() {
+        return this.owner;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public boolean isBoxEmpty() {
+        return size.get() == 0;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public boolean isBoxFull() {
+        return size.get() >= maxMessages;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    protected int depth() {
+        return size.get() + (spill == null ? 0 : spill.size());
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void closeSpill() {
+        lock.lock();
+        try {
+            super.closeSpill();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    protected void replay(Message element, long journalSequence) {
+        box.add(element, journalSequence);
+        size.incrementAndGet();
+    }
+
+    /**
+     * Insert a message in to message box without blocking other writers.
+     * If box is full the overflow policy is applied: the sender may wait for free space.
+     *
+     * @param message it.francescosantagati.jam.Message
+     * @throws InterruptedException if write fail
+     */
+    @Override
+    public void writeMessage(Message message) throws InterruptedException {
+        if (message == null) {
+            throw new IllegalArgumentException("Tutti i parametri sono obbligatori e devono essere diversi da null.");
+        }
+
+        if (!offer(message)) {
+            write(message);
+        }
+        wakeReaders();
+        syncJournal();
+    }
+
+    /**
+     * Insert a list of messages in to message box, waking blocked readers once.
+     *
+     * @param messages it.francescosantagati.jam.Message list
+     * @throws InterruptedException if write fail
+     */
+    @Override
+    public void writeMessages(List<Message> messages) throws InterruptedException {
+        if (messages == null || messages.contains(null)) {
+            throw new IllegalArgumentException("Tutti i parametri sono obbligatori e devono essere diversi da null.");
+        }
+
+        for (Message message : messages) {
+            if (!offer(message)) {
+                write(message);
+            }
+        }
+        wakeReaders();
+        syncJournal();
+    }
+
+    /**
+     * Append a message to the lock-free queue if there is room.
+     *
+     * @return True if queued, or dropped because it can not be journaled. False if box is full or spilling
+     */
+    private boolean offer(Message message) {
+        if (!isSpilling() && reserve()) {
+            try {
+                inbox.offer(new Pending(message, enqueued(message)));
+            } catch (IOException e) {
+                size.decrementAndGet();
+                unjournaled(message, e);
+            }
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * A reader registers itself before its last look at the inbox, so either it sees
+     * queued messages or we see it waiting. Listeners are notified the same way.
+     */
+    private void wakeReaders() {
+        if (!waiters.isEmpty()) {
+            lock.lock();
+            try {
+                drain();
+            } finally {
+                lock.unlock();
+            }
+        }
+    }
+
+    /**
+     * Insert a message when box is full, applying the overflow policy under the lock.
+     */
+    private void write(Message message) throws InterruptedException {
+        lock.lock();
+        try {
+            long nanos = overflowPolicy.getTimeoutNanos();
+            while (true) {
+                drain();
+                if (!isSpilling() && reserve()) {
+                    if (insert(message)) {
+                        waiters.signal(message);
+                    } else {
+                        size.decrementAndGet();
+                    }
+                    return;
+                }
+                if (overflowPolicy.getType() == OverflowPolicy.Type.DROP_OLDEST && box.isEmpty()) {
+                    // Every slot is reserved by a writer that has not queued its message yet
+                    Thread.yield();
+                    continue;
+                }
+                try {
+                    int before = box.size();
+                    boolean readable = overflow(message);
+                    // Only a growing box takes a slot without reserving it: a dropped message leaves its slot to
+                    // the new one, a spilled message takes none
+                    size.addAndGet(box.size() - before);
+                    if (readable) {
+                        waiters.signal(message);
+                    }
+                    return;
+                } catch (JAMMessageBoxException full) {
+                    if (overflowPolicy.getType() != OverflowPolicy.Type.BLOCK || nanos <= 0L) {
+                        dropped(message);
+                        return;
+                    }
+                    nanos = notFull.awaitNanos(nanos);
+                }
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Reserve room for a message.
+     *
+     * @return True if reserved, False if box is full
+     */
+    private boolean reserve() {
+        int current;
+        do {
+            current = size.get();
+            if (current >= maxMessages) {
+                return false;
+            }
+        } while (!size.compareAndSet(current, current + 1));
+        return true;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public Message readMessage() throws InterruptedException, JAMMessageBoxException {
+        return awaitMessage(null, null, -1L);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public Message readMessage(AgentID agentID) throws InterruptedException, JAMMessageBoxException {
+        if (agentID == null) {
+            throw new IllegalArgumentException("Wrong parameters");
+        }
+
+        return awaitMessage(agentID, null, -1L);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public Message readMessage(Performative performative) throws InterruptedException, JAMMessageBoxException {
+        if (performative == null) {
+            throw new IllegalArgumentException("Wrong parameters");
+        }
+
+        return awaitMessage(null, performative, -1L);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public Message readMessage(AgentID agentID, Performative performative) throws InterruptedException, JAMMessageBoxException {
+        if (agentID == null || performative == null) {
+            throw new IllegalArgumentException("Wrong parameters");
+        }
+
+        return awaitMessage(agentID, performative, -1L);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public Message readMessage(AgentID agentID, Performative performative, long timeout, TimeUnit unit) throws InterruptedException {
+        if (timeout < 0 || unit == null) {
+            throw new IllegalArgumentException("Wrong parameters");
+        }
+
+        return awaitMessage(agentID, performative, unit.toNanos(timeout));
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public int drainTo(AgentID agentID, Performative performative, Collection<? super Message> messages, int max) {
+        if (messages == null) {
+            throw new IllegalArgumentException("Wrong parameters");
+        }
+
+        lock.lock();
+        try {
+            int count = 0;
+            Message message;
+            while (count < max && (message = poll(agentID, performative)) != null) {
+                messages.add(message);
+                count++;
+            }
+            return count;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void addMessageBoxListener(MessageBoxListener listener) {
+        if (listener == null) {
+            throw new IllegalArgumentException("Wrong parameters");
+        }
+
+        lock.lock();
+        try {
+            waiters.addListener(listener);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void removeMessageBoxListener(MessageBoxListener listener) {
+        lock.lock();
+        try {
+            waiters.removeListener(listener);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public boolean isThereMessage() {
+        return !isBoxEmpty();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public boolean isThereMessage(AgentID agentID) {
+        if (agentID == null) {
+            throw new IllegalArgumentException("Wrong parameters");
+        }
+
+        return contains(agentID, null);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public boolean isThereMessage(Performative performative) {
+        if (performative == null) {
+            throw new IllegalArgumentException("Wrong parameters");
+        }
+
+        return contains(null, performative);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public boolean isThereMessage(AgentID agentID, Performative performative) {
+        if (agentID == null || performative == null) {
+            throw new IllegalArgumentException("Wrong parameters");
+        }
+
+        return contains(agentID, performative);
+    }
+
+    private boolean contains(AgentID agentID, Performative performative) {
+        lock.lock();
+        try {
+            drain();
+            return box.contains(agentID, performative) || isSpilled(agentID, performative);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Block until a message matching the filter is available, then retrieve and delete it.
+     *
+     * @param agentID      Sender filter, null matches every sender
+     * @param performative it.francescosantagati.jam.Performative filter, null matches every performative
+     * @param nanos        Max time to wait in nanoseconds, negative to wait forever
+     * @return message or null if timeout expired
+     * @throws InterruptedException if thread is interrupted while waiting
+     */
+    private Message awaitMessage(AgentID agentID, Performative performative, long nanos) throws InterruptedException {
+        long start = System.nanoTime();
+        lock.lock();
+        try {
+            Message message = poll(agentID, performative);
+            if (message != null) {
+                metrics.received(start);
+            }
+            if (message != null || nanos == 0L) {
+                return message;
+            }
+
+            MessageWaiters.Waiter waiter = waiters.register(agentID, performative);
+            try {
+                message = poll(agentID, performative);
+                while (message == null && nanos != 0L) {
+                    if (nanos < 0L) {
+                        waiter.await();
+                    } else {
+                        nanos = Math.max(0L, waiter.awaitNanos(nanos));
+                    }
+                    message = poll(agentID, performative);
+                }
+                if (message != null) {
+                    metrics.received(start);
+                }
+                return message;
+            } finally {
+                waiters.unregister(waiter, message);
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Spilled messages are read when the box has no match, and have already been signalled when they
+     * were written. Must be called holding the lock.
+     */
+    private Message poll(AgentID agentID, Performative performative) {
+        drain();
+        Message message = box.poll(agentID, performative);
+        if (message == null) {
+            return pollSpilled(agentID, performative);
+        }
+        dequeued(message);
+        // The slot is handed over to the oldest spilled message, so a lock-free writer can not take it meanwhile
+        if (!isSpilling() || unspill() == null) {
+            size.decrementAndGet();
+        }
+        notFull.signal();
+        return message;
+    }
+
+    /**
+     * Move pending messages into the index. Must be called holding the lock.
+     */
+    private void drain() {
+        Pending pending;
+        while ((pending = inbox.poll()) != null) {
+            box.add(pending.message, pending.journalSequence);
+            waiters.signal(pending.message);
+        }
+    }
+
+    /**
+     * A message in the lock-free queue, with the sequence of its journal record.
+     */
+    private static final class Pending {
+        private final Message message;
+        private final long journalSequence;
+
+        private Pending(Message message, long journalSequence) {
+            this.message = message;
+            this.journalSequence = journalSequence;
+        }
+    }
+}
@@ -0,0 +1,137 @@
+package it.francescosantagati.jam;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Scheduler that steps all the behaviours of an agent round-robin on a single thread, as JADE does.
+ * <p>Behaviours never run concurrently, so they can share agent state without locking. A behaviour
+ * that calls {@link JAMBehaviour#block()} is skipped until a message arrives in the agent message box
+ * or {@link JAMBehaviour#restart()} is called. When every behaviour is blocked the thread waits.
+ * The scheduler task ends when no behaviour is left.</p>
+ *
+ * @author Francesco Santagati
+ */
+final class CooperativeScheduler implements Runnable, MessageBoxListener {
+
+    private final List<Steppable> behaviours;
+    private int next;
+    private long arrivals;
+    private boolean running;
+
+    CooperativeScheduler() {
+        behaviours = new ArrayList<>();
+    }
+
+    /**
+     * Add a behaviour to be stepped.
+     *
+     * @param behaviour A {@link Steppable} behaviour
+     * @return True if the scheduler task is not running and must be executed. False otherwise.
+     */
+    synchronized boolean add(Steppable behaviour) {
+        behaviours.add(behaviour);
+        notifyAll();
+        if (running) {
+            return false;
+        }
+        running = true;
+        return true;
+    }
+
+    /**
+     * Wake the scheduler thread, e.g. because a behaviour was restarted or is done.
+     */
+    synchronized void wakeUp() {
+        notifyAll();
+    }
+
+    /**
+     * Restart every blocked behaviour.
+     *
+     * @param message it.francescosantagati.jam.Message
+     */
+    @Override
+    public synchronized void onMessageArrived(Message message) {
+        arrivals++;
+        for (Steppable behaviour : behaviours) {
+            behaviour.restart();
+        }
+    }
+
+    /**
+     * Step behaviours until none is left.
+     * <p>If the thread is interrupted while waiting, every behaviour is terminated and stepped once more,
+     * so that it is disposed, then the task ends with the interrupt status set.</p>
+     */
+    @Override
+    public void run() {
+        boolean interrupted = false;
+        while (true) {
+            Steppable behaviour = null;
+            long arrivalsBefore;
+            synchronized (this) {
+                try {
+                    while (!behaviours.isEmpty()) {
+                        behaviour = nextRunnable();
+                        if (behaviour != null) {
+                            break;
+                        }
+                        wait();
+                    }
+                } catch (InterruptedException e) {
+                    Log.e(this, "Interrupted, terminating {} behaviours", behaviours.size());
+                    interrupted = true;
+                    for (Steppable blocked : new ArrayList<>(behaviours)) {
+                        blocked.done();
+                    }
+                    // Done behaviours are always stepped
+                    continue;
+                }
+                if (behaviour == null) {
+                    running = false;
+                    if (interrupted) {
+                        Thread.currentThread().interrupt();
+                    }
+                    return;
+                }
+                arrivalsBefore = arrivals;
+            }
+
+            boolean ended;
+            try {
+                ended = behaviour.step();
+            } catch (RuntimeException e) {
+                Log.e(behaviour, e.getMessage());
+                behaviour.done();
+                ended = true;
+            }
+
+            synchronized (this) {
+                if (ended) {
+                    behaviours.remove(behaviour);
+                } else if (behaviour.isBlocked() && arrivals != arrivalsBefore) {
+                    // A message arrived during the step, before the behaviour blocked itself
+                    behaviour.restart();
+                }
+            }
+        }
+    }
+
+    /**
+     * Find the next behaviour to step, starting after the last one stepped.
+     * A done behaviour is always stepped, so that it can be disposed.
+     */
+    private Steppable nextRunnable() {
+        int size = behaviours.size();
+        for (int i = 0; i < size; i++) {
+            int index = (next + i) % size;
+            Steppable behaviour = behaviours.get(index);
+            if (!behaviour.isBlocked() || behaviour.isDone()) {
+                next = index + 1;
+                return behaviour;
+            }
+        }
+        return null;
+    }
+}
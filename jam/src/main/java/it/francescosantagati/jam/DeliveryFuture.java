@@ -0,0 +1,106 @@
+package it.francescosantagati.jam;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * Result of {@link JAMAgent#sendAsync(Message)}. It is never cancelled and never fails:
+ * failures are reported by the {@link DeliveryReport}.
+ *
+ * @author Francesco Santagati
+ */
+public final class DeliveryFuture implements Future<DeliveryReport> {
+
+    private final CountDownLatch completed;
+    private List<DeliveryListener> listeners;
+    private volatile DeliveryReport report;
+
+    DeliveryFuture() {
+        completed = new CountDownLatch(1);
+        listeners = new ArrayList<>();
+    }
+
+    /**
+     * Register a listener invoked when the send is complete, immediately if it is already complete.
+     *
+     * @param listener A {@link DeliveryListener} instance
+     */
+    public void addListener(DeliveryListener listener) {
+        if (listener == null) {
+            throw new IllegalArgumentException("Wrong parameters");
+        }
+        synchronized (this) {
+            if (report == null) {
+                listeners.add(listener);
+                return;
+            }
+        }
+        notifyListener(listener, report);
+    }
+
+    /**
+     * A send can not be cancelled: messages may already be in some message box.
+     *
+     * @return False
+     */
+    @Override
+    public boolean cancel(boolean mayInterruptIfRunning) {
+        return false;
+    }
+
+    @Override
+    public boolean isCancelled() {
+        return false;
+    }
+
+    @Override
+    public boolean isDone() {
+        return report != null;
+    }
+
+    @Override
+    public DeliveryReport get() throws InterruptedException, ExecutionException {
+        completed.await();
+        return report;
+    }
+
+    @Override
+    public DeliveryReport get(long timeout, TimeUnit unit) throws InterruptedException, ExecutionException, TimeoutException {
+        if (!completed.await(timeout, unit)) {
+            throw new TimeoutException();
+        }
+        return report;
+    }
+
+    /**
+     * Complete the send. Only the first call has effect.
+     */
+    void complete(DeliveryReport report) {
+        List<DeliveryListener> toNotify;
+        synchronized (this) {
+            if (this.report != null) {
+                return;
+            }
+            this.report = report;
+            toNotify = listeners;
+            listeners = null;
+        }
+        completed.countDown();
+        for (DeliveryListener listener : toNotify) {
+            notifyListener(listener, report);
+        }
+    }
+
+    private void notifyListener(DeliveryListener listener, DeliveryReport report) {
+        try {
+            listener.onDeliveryComplete(report);
+        } catch (RuntimeException e) {
+            Log.e(this, e.getMessage());
+        }
+    }
+}
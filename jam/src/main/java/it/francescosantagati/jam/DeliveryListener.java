@@ -0,0 +1,17 @@
+package it.francescosantagati.jam;
+
+/**
+ * Interface definition for a callback to be invoked when an asynchronous send is complete.
+ * <p>The callback is invoked by a thread of the send executor: it should return quickly.</p>
+ *
+ * @author Francesco Santagati
+ */
+public interface DeliveryListener {
+
+    /**
+     * Called once, when every message box of the receiver received the message, failed or timed out.
+     *
+     * @param report it.francescosantagati.jam.DeliveryReport
+     */
+    void onDeliveryComplete(DeliveryReport report);
+}
@@ -0,0 +1,69 @@
+package it.francescosantagati.jam;
+
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Outcome of {@link JAMAgent#sendAsync(Message)}: how many message boxes of the receiver were found
+ * and how many of them received the message.
+ *
+ * @author Francesco Santagati
+ */
+public final class DeliveryReport {
+
+    private final Message message;
+    private final int boxes;
+    private final int delivered;
+    private final List<Exception> failures;
+
+    DeliveryReport(Message message, int boxes, int delivered, List<Exception> failures) {
+        this.message = message;
+        this.boxes = boxes;
+        this.delivered = delivered;
+        this.failures = Collections.unmodifiableList(failures);
+    }
+
+    /**
+     * @return message sent
+     */
+    public Message getMessage() {
+        return message;
+    }
+
+    /**
+     * @return number of message boxes of the receiver found in the {@link ADSL}
+     */
+    public int getBoxCount() {
+        return boxes;
+    }
+
+    /**
+     * @return number of message boxes that received the message
+     */
+    public int getDeliveredCount() {
+        return delivered;
+    }
+
+    /**
+     * Provide the failures: a {@link java.rmi.RemoteException} for a message box or for the {@link ADSL} lookup,
+     * a {@link java.util.concurrent.TimeoutException} for a message box that did not answer in time.
+     *
+     * @return failures, empty if none
+     */
+    public List<Exception> getFailures() {
+        return failures;
+    }
+
+    /**
+     * @return True if every message box found received the message. False otherwise.
+     */
+    public boolean isDelivered() {
+        return failures.isEmpty() && delivered == boxes;
+    }
+
+    @Override
+    public String toString() {
+        return "DeliveryReport[" + delivered + "/" + boxes + " to " + message.getReceiver()
+                + ", " + failures.size() + " failures]";
+    }
+}
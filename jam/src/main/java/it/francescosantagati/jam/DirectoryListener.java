@@ -0,0 +1,24 @@
+package it.francescosantagati.jam;
+
+import java.rmi.Remote;
+import java.rmi.RemoteException;
+import java.util.List;
+
+/**
+ * Interface definition for a remote callback to be invoked when the {@link ADSL} directory changes.
+ * <p>Changes are reported asynchronously and in batches: the owners inserted or removed since the previous
+ * call, each one reported once.</p>
+ *
+ * @author Francesco Santagati
+ */
+public interface DirectoryListener extends Remote {
+
+    /**
+     * Called when message boxes are inserted into or removed from the directory.
+     *
+     * @param inserted Owners of the message boxes inserted
+     * @param removed  Owners of the message boxes removed
+     * @throws RemoteException when fail to connect
+     */
+    void onMessageBoxesChanged(List<AgentID> inserted, List<AgentID> removed) throws RemoteException;
+}
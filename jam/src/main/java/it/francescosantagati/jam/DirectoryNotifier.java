@@ -0,0 +1,186 @@
+package it.francescosantagati.jam;
+
+import java.rmi.RemoteException;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Reports the changes of an {@link ADSLImpl} directory to its {@link DirectoryListener} instances.
+ * <p>An insert or a remove only queues the owner for every listener: the remote calls are made later by a
+ * bounded executor shared by all ADSLs. Every listener has at most one call in progress, and the changes
+ * queued meanwhile are sent together by the next call, an owner queued twice only once. So registering many
+ * agents costs a few calls for each listener, and a slow or dead listener only delays itself.
+ * A listener whose call fails is dropped.</p>
+ *
+ * @author Francesco Santagati
+ */
+final class DirectoryNotifier {
+
+    /**
+     * Threads of the executor shared by all ADSLs.
+     */
+    static final int THREADS = 8;
+
+    /**
+     * Max number of owners reported by a single call.
+     */
+    static final int BATCH = 1024;
+
+    private final ConcurrentMap<DirectoryListener, Pending> listeners;
+
+    DirectoryNotifier() {
+        listeners = new ConcurrentHashMap<>();
+    }
+
+    /**
+     * @param listener Listener to add
+     */
+    void add(DirectoryListener listener) {
+        listeners.putIfAbsent(listener, new Pending(listener));
+    }
+
+    /**
+     * @param listener Listener to remove, changes still queued are not reported
+     */
+    void remove(DirectoryListener listener) {
+        listeners.remove(listener);
+    }
+
+    /**
+     * Queue an inserted owner for every listener.
+     *
+     * @param owner Owner of the message box
+     */
+    void inserted(AgentID owner) {
+        for (Pending pending : listeners.values()) {
+            pending.queue(owner, true);
+        }
+    }
+
+    /**
+     * Queue a removed owner for every listener.
+     *
+     * @param owner Owner of the message box
+     */
+    void removed(AgentID owner) {
+        for (Pending pending : listeners.values()) {
+            pending.queue(owner, false);
+        }
+    }
+
+    /**
+     * {@link AgentID} implementations do not define hashCode, so the key is built from type, name and category.
+     */
+    private static String key(AgentID agentID) {
+        return agentID.getClass().getName() + "|" + agentID.getName() + "|" + agentID.getCategory();
+    }
+
+    /**
+     * Changes not yet reported to a listener.
+     */
+    private final class Pending implements Runnable {
+        private final DirectoryListener listener;
+        private final Map<String, AgentID> inserted;
+        private final Map<String, AgentID> removed;
+        private boolean scheduled;
+
+        private Pending(DirectoryListener listener) {
+            this.listener = listener;
+            this.inserted = new LinkedHashMap<>();
+            this.removed = new LinkedHashMap<>();
+        }
+
+        private void queue(AgentID owner, boolean insert) {
+            synchronized (this) {
+                (insert ? inserted : removed).put(key(owner), owner);
+                if (scheduled) {
+                    return;
+                }
+                scheduled = true;
+            }
+            Shared.INSTANCE.execute(this);
+        }
+
+        /**
+         * Run on the shared executor, never by two threads at once for the same listener.
+         */
+        @Override
+        public void run() {
+            while (true) {
+                List<AgentID> insertedBatch;
+                List<AgentID> removedBatch;
+                synchronized (this) {
+                    if (listeners.get(listener) != this) {
+                        // Removed meanwhile
+                        inserted.clear();
+                        removed.clear();
+                    }
+                    if (inserted.isEmpty() && removed.isEmpty()) {
+                        scheduled = false;
+                        return;
+                    }
+                    insertedBatch = take(inserted, BATCH);
+                    removedBatch = take(removed, BATCH - insertedBatch.size());
+                }
+
+                try {
+                    listener.onMessageBoxesChanged(insertedBatch, removedBatch);
+                } catch (RemoteException | RuntimeException e) {
+                    // Listener is no more reachable
+                    Log.e(this, "Directory listener dropped: {}", e.getMessage());
+                    listeners.remove(listener, this);
+                    synchronized (this) {
+                        inserted.clear();
+                        removed.clear();
+                        scheduled = false;
+                    }
+                    return;
+                }
+            }
+        }
+
+        private List<AgentID> take(Map<String, AgentID> owners, int max) {
+            List<AgentID> batch = new ArrayList<>(Math.min(owners.size(), max));
+            Iterator<AgentID> iterator = owners.values().iterator();
+            while (batch.size() < max && iterator.hasNext()) {
+                batch.add(iterator.next());
+                iterator.remove();
+            }
+            return batch;
+        }
+    }
+
+    /**
+     * Lazily created on first use.
+     */
+    private static final class Shared {
+        private static final Executor INSTANCE;
+
+        static {
+            ThreadPoolExecutor pool = new ThreadPoolExecutor(THREADS, THREADS, 60L, TimeUnit.SECONDS,
+                    new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+                private final AtomicInteger count = new AtomicInteger();
+
+                @Override
+                public Thread newThread(Runnable runnable) {
+                    Thread thread = new Thread(runnable, "jam-directory-" + count.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+            pool.allowCoreThreadTimeOut(true);
+            INSTANCE = pool;
+        }
+    }
+}
@@ -0,0 +1,33 @@
+package it.francescosantagati.jam;
+
+import java.io.IOException;
+import java.io.ObjectInput;
+import java.io.ObjectOutput;
+
+/**
+ * Interface definition for the encoding of {@link Message#getExtraArgument()} when a message is serialized.
+ * <p>The same codec must be set by {@link Message#setExtraArgumentCodec(ExtraArgumentCodec)} on every JAM node.</p>
+ *
+ * @author Francesco Santagati
+ */
+public interface ExtraArgumentCodec {
+
+    /**
+     * Write an extra argument.
+     *
+     * @param out           Stream of the message
+     * @param extraArgument Extra argument, may be null
+     * @throws IOException when fail to write
+     */
+    void write(ObjectOutput out, Object extraArgument) throws IOException;
+
+    /**
+     * Read an extra argument written by {@link #write(ObjectOutput, Object)}.
+     *
+     * @param in Stream of the message
+     * @return Extra argument, may be null
+     * @throws IOException            when fail to read
+     * @throws ClassNotFoundException when the class of the extra argument is not found
+     */
+    Object read(ObjectInput in) throws IOException, ClassNotFoundException;
+}
@@ -1,7 +1,13 @@
 package it.francescosantagati.jam;
 
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+
 /**
  * Identify an agent by name and category.
+ * <p>The fields of this class are serialized as name and category, without field descriptors.
+ * Fields added by a subclass are serialized as usual.</p>
  *
  * @author Francesco Santagati
  */
@@ -10,12 +16,12 @@ public class GenericAgentID implements AgentID {
     /**
      * Agent Name
      */
-    protected String name;
+    protected transient String name;
 
     /**
      * Agent Category
      */
-    protected String category;
+    protected transient String category;
 
     public GenericAgentID() {
         name = GENERIC_VALUE;
@@ -38,6 +44,16 @@ public class GenericAgentID implements AgentID {
         return category;
     }
 
+    private void writeObject(ObjectOutputStream out) throws IOException {
+        WireFormat.writeString(out, name);
+        WireFormat.writeString(out, category);
+    }
+
+    private void readObject(ObjectInputStream in) throws IOException {
+        name = WireFormat.readString(in);
+        category = WireFormat.readString(in);
+    }
+
     /**
      * Compare two agents.
      */
@@ -0,0 +1,28 @@
+package it.francescosantagati.jam;
+
+/**
+ * Helper class to check if JAM runs without graphic interface.
+ * <p>Headless mode is enabled by the system property <code>jam.headless=true</code>, or by the standard
+ * <code>java.awt.headless=true</code>. In headless mode {@link JAMAgent} and {@link ADSLImpl} do not open their
+ * monitors, so no AWT class is loaded. The actions of monitor buttons must be performed by code, e.g.
+ * {@link ADSL#startRMIRegistry()}, {@link ADSL#startADSL()}, {@link JAMAgent#init()} and {@link JAMAgent#start()}.</p>
+ *
+ * @author Francesco Santagati
+ */
+public class Headless {
+
+    /**
+     * System property that enables headless mode.
+     */
+    public static final String PROPERTY = "jam.headless";
+
+    /**
+     * Check if headless mode is enabled.
+     *
+     * @return True if monitors must not be shown. False otherwise.
+     */
+    public static boolean isEnabled() {
+        // Read the property instead of asking GraphicsEnvironment, that would load AWT
+        return Boolean.getBoolean(PROPERTY) || Boolean.getBoolean("java.awt.headless");
+    }
+}
@@ -1,12 +1,20 @@
 package it.francescosantagati.jam;
 
-import java.net.MalformedURLException;
+import java.io.File;
+import java.io.IOException;
 import java.rmi.Naming;
 import java.rmi.NotBoundException;
 import java.rmi.RemoteException;
+import java.rmi.server.RemoteObject;
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Observable;
+import java.util.Observer;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
 
 /**
  * An intelligent object that can have multiple behaviours.
@@ -18,13 +26,30 @@ import java.util.Observable;
  * <li><code>start()</code>: start behaviours associated to agent and not currently in execution.
  * <li><code>destroy()</code>: remove agent association from it.francescosantagati.jam.ADSL and stop execution of all behaviours,
  * </ol>
+ * A {@link JAMAgentMonitor} is shown for every agent, unless {@link Headless} mode is enabled.
  *
  * @author Francesco Santagati
  */
 public abstract class JAMAgent extends Observable {
 
+    /**
+     * Default timeout of every message box write of {@link #sendAsync(Message)}, in seconds.
+     */
+    public static final long SEND_TIMEOUT_SECONDS = 30;
+
     private List<JAMBehaviour> myBehaviours;
-    private MessageBox myMessageBox;
+    private AgentMessageBox myMessageBox;
+    private MessageBoxCache messageBoxCache;
+    private BehaviourExecutor behaviourExecutor;
+    private CooperativeScheduler scheduler;
+    private Transport transport;
+    private File journalDirectory;
+    private Executor sendExecutor;
+    private Executor broadcastExecutor;
+    private final AgentMetrics metrics;
+    private final AgentEvents events;
+    private volatile boolean observed;
+    private RemoteMessageBox publishedMessageBox;
     private PersonalAgentID myID;
     private ADSL adsl;
     private String name;
@@ -56,22 +81,75 @@ public abstract class JAMAgent extends Observable {
      * @throws JAMADSLException when fail to connect
      */
     public JAMAgent(PersonalAgentID agentID, String ip, String name, int port) throws JAMADSLException {
+        this(agentID, ip, name, port, createMessageBox(agentID));
+    }
+
+    /**
+     * Construct a it.francescosantagati.jam.JAMAgent with default params and the message box provided.
+     *
+     * @param agentID    Agent id
+     * @param messageBox Message box owned by agentID, e.g. a {@link ConcurrentMessageBox}
+     * @throws JAMADSLException when fail to connect
+     */
+    public JAMAgent(PersonalAgentID agentID, AgentMessageBox messageBox) throws JAMADSLException {
+        this(agentID, "127.0.0.1", "it.francescosantagati.jam.ADSL", 1099, messageBox);
+    }
+
+    /**
+     * Construct a it.francescosantagati.jam.JAMAgent with params and message box specified.
+     *
+     * @param agentID    Agent id
+     * @param ip         Ip address
+     * @param name       Name
+     * @param port       Port
+     * @param messageBox Message box owned by agentID. It MUST be a {@link RemoteMessageBox} too.
+     * @throws JAMADSLException when fail to connect
+     */
+    public JAMAgent(PersonalAgentID agentID, String ip, String name, int port, AgentMessageBox messageBox) throws JAMADSLException {
+        if (!(messageBox instanceof RemoteMessageBox)) {
+            throw new IllegalArgumentException("Message box MUST be a RemoteMessageBox");
+        }
+
         myID = agentID;
         this.ip = ip;
         this.name = name;
         this.port = port;
 
         myBehaviours = new ArrayList<>();
+        myMessageBox = messageBox;
+        behaviourExecutor = new ThreadBehaviourExecutor();
+        transport = Transport.rmi();
+        sendExecutor = AsyncSend.sharedExecutor();
+        broadcastExecutor = Broadcast.sharedExecutor();
+        metrics = new AgentMetrics(agentID);
+        events = new AgentEvents(this);
 
         try {
-            myMessageBox = new MessageBox(agentID);
+            messageBoxCache = new MessageBoxCache();
         } catch (RemoteException e) {
-            throw new JAMADSLException();
+            throw new JAMADSLException(e);
+        }
+
+        if (!Headless.isEnabled()) {
+            showMonitor();
         }
+    }
 
+    /**
+     * Kept apart from the constructor so that {@link JAMAgentMonitor} is not loaded in headless mode.
+     */
+    private void showMonitor() {
         new JAMAgentMonitor(this).showFrame();
     }
 
+    private static MessageBox createMessageBox(PersonalAgentID agentID) throws JAMADSLException {
+        try {
+            return new MessageBox(agentID);
+        } catch (RemoteException e) {
+            throw new JAMADSLException();
+        }
+    }
+
     /**
      * Add a new behaviour to agent.
      *
@@ -81,6 +159,121 @@ public abstract class JAMAgent extends Observable {
         myBehaviours.add(behaviour);
     }
 
+    /**
+     * Replace the cache of message boxes used by send methods, e.g. to change its size or time to live.
+     * Must be called before {@link #init()}.
+     *
+     * @param messageBoxCache A {@link MessageBoxCache} instance
+     */
+    public void setMessageBoxCache(MessageBoxCache messageBoxCache) {
+        if (messageBoxCache == null) {
+            throw new IllegalArgumentException("Wrong parameters");
+        }
+        this.messageBoxCache = messageBoxCache;
+    }
+
+    /**
+     * Replace the executor that runs behaviours on {@link #start()}, e.g. a {@link PooledBehaviourExecutor}
+     * or a {@link VirtualThreadBehaviourExecutor} shared by many agents.
+     * By default every behaviour runs on a new thread.
+     *
+     * @param behaviourExecutor A {@link BehaviourExecutor} instance
+     */
+    public void setBehaviourExecutor(BehaviourExecutor behaviourExecutor) {
+        if (behaviourExecutor == null) {
+            throw new IllegalArgumentException("Wrong parameters");
+        }
+        this.behaviourExecutor = behaviourExecutor;
+    }
+
+    /**
+     * Enable or disable cooperative mode. Must be called before {@link #start()}.
+     * <p>In cooperative mode {@link JAMSimpleBehaviour}, {@link JAMWhileBehaviour}, {@link JAMReactiveBehaviour},
+     * {@link JAMWakerBehaviour} and {@link JAMTickerBehaviour} instances are stepped round-robin by a single
+     * scheduler task, run by the {@link BehaviourExecutor}: every step executes {@link JAMBehaviour#action()} once,
+     * so actions must not block. An action that finds no message calls {@link JAMBehaviour#block()} and is restarted when a message arrives.
+     * Behaviours of other types still run on their own.</p>
+     *
+     * @param cooperative True to enable cooperative mode. False otherwise.
+     */
+    public void setCooperative(boolean cooperative) {
+        if (cooperative && scheduler == null) {
+            scheduler = new CooperativeScheduler();
+            myMessageBox.addMessageBoxListener(scheduler);
+        } else if (!cooperative && scheduler != null) {
+            myMessageBox.removeMessageBoxListener(scheduler);
+            scheduler = null;
+        }
+    }
+
+    /**
+     * Replace the transport that other agents use to deliver messages to this agent. Must be called before {@link #init()}.
+     * By default messages are delivered by RMI calls.
+     *
+     * @param transport A {@link Transport} instance, e.g. {@link Transport#nio(String, int)}
+     */
+    public void setTransport(Transport transport) {
+        if (transport == null) {
+            throw new IllegalArgumentException("Wrong parameters");
+        }
+        this.transport = transport;
+    }
+
+    /**
+     * Journal the messages accepted by the agent message box into a file of the directory provided, so that
+     * messages not yet received when the JVM dies are recovered by the next {@link #init()} of an agent
+     * with the same id. Must be called before {@link #init()}. By default there is no journal.
+     * <p>A write into the message box returns once the message is on disk, but concurrent writes share
+     * a single fsync. Recovered messages may have been received already: delivery is at least once.</p>
+     *
+     * @param directory Directory of the journal files, may be shared by many agents
+     */
+    public void setJournal(File directory) {
+        if (directory == null) {
+            throw new IllegalArgumentException("Wrong parameters");
+        }
+        if (!(myMessageBox instanceof MessageBoxNoSync)) {
+            throw new IllegalStateException("Message box MUST be a MessageBoxNoSync to have a journal");
+        }
+        journalDirectory = directory;
+    }
+
+    /**
+     * Replace the executor that runs lookups and writes of {@link #sendAsync(Message)}.
+     * By default a pool of daemon threads, created on demand, is shared by all agents.
+     *
+     * @param sendExecutor An {@link Executor} instance
+     */
+    public void setSendExecutor(Executor sendExecutor) {
+        if (sendExecutor == null) {
+            throw new IllegalArgumentException("Wrong parameters");
+        }
+        this.sendExecutor = sendExecutor;
+    }
+
+    /**
+     * Replace the executor that writes a message into the message boxes of a receiver that has more than one,
+     * e.g. a {@link CategoryAgentID}. By default a pool of 64 daemon threads is shared by all agents.
+     *
+     * @param broadcastExecutor An {@link Executor} instance, bounded to limit the concurrent writes
+     */
+    public void setBroadcastExecutor(Executor broadcastExecutor) {
+        if (broadcastExecutor == null) {
+            throw new IllegalArgumentException("Wrong parameters");
+        }
+        this.broadcastExecutor = broadcastExecutor;
+    }
+
+    /**
+     * Set how messages are delivered to agents of this JVM, see {@link LocalDelivery}.
+     * By default the message object is written directly into their message box.
+     *
+     * @param localDelivery it.francescosantagati.jam.LocalDelivery
+     */
+    public void setLocalDelivery(LocalDelivery localDelivery) {
+        messageBoxCache.setLocalDelivery(localDelivery);
+    }
+
     /**
      * Provide agent id.
      *
@@ -90,11 +283,22 @@ public abstract class JAMAgent extends Observable {
         return myID;
     }
 
+    /**
+     * Provide agent metrics, published by {@link Metrics} between {@link #init()} and {@link #destroy()}.
+     *
+     * @return Agent metrics
+     */
+    public AgentMetrics getMetrics() {
+        return metrics;
+    }
+
     /**
      * Initialize agent.
      * <ul>
      * <li>Tries to connect to an it.francescosantagati.jam.ADSL instance in the RMI registry;
-     * <li>Subscribe agent message box to it.francescosantagati.jam.ADSL;
+     * <li>Recover messages from the journal of the message box, if set;
+     * <li>Subscribe agent message box to it.francescosantagati.jam.ADSL, exported by the {@link Transport} of the agent;
+     * <li>Register agent and message box metrics to {@link Metrics};
      * </ul>
      *
      * @throws JAMADSLException when fail
@@ -103,24 +307,58 @@ public abstract class JAMAgent extends Observable {
         String url = RMIUtil.renderConnectionString(ip, port, name);
         try {
             adsl = (ADSL) Naming.lookup(url);
-            adsl.insertRemoteMessageBox(myMessageBox);
+            if (journalDirectory != null) {
+                int recovered = ((MessageBoxNoSync<?>) myMessageBox).openJournal(journalDirectory);
+                if (recovered > 0) {
+                    Log.d(this, "Recovered {} messages from the journal of {}", recovered, myID);
+                }
+            }
+            adsl.addDirectoryListener(messageBoxCache);
+            publishedMessageBox = exportMessageBox();
+            LocalMessageBoxes.register(publishedMessageBox, (RemoteMessageBox) myMessageBox);
+            adsl.insertRemoteMessageBox(publishedMessageBox);
+            Metrics.get().register(metrics);
+            if (myMessageBox instanceof MessageBoxNoSync) {
+                Metrics.get().register(((MessageBoxNoSync<?>) myMessageBox).getMetrics());
+            }
 
-        } catch (RemoteException | NotBoundException | MalformedURLException e) {
+        } catch (IOException | NotBoundException e) {
             throw new JAMADSLException(e);
         }
     }
 
+    private RemoteMessageBox exportMessageBox() throws IOException {
+        RemoteMessageBox box = (RemoteMessageBox) myMessageBox;
+        switch (transport.getType()) {
+            case NIO:
+                return NioTransport.get().export(box, transport.getHost(), transport.getPort());
+            case SHARED_MEMORY:
+                RemoteMessageBox stub = (RemoteMessageBox) RemoteObject.toStub(box);
+                return SharedMemoryTransport.get().export(box, transport.getDirectory(), stub);
+            default:
+                return box;
+        }
+    }
+
     /**
-     * Start every beharious that is not currently in execution in a separate thread.
+     * Start every beharious that is not currently in execution, using the {@link BehaviourExecutor} of the agent.
      */
     public void start() {
+        boolean startScheduler = false;
         for (JAMBehaviour behaviour : myBehaviours) {
             if (behaviour.hasNeverBeenStarted()) {
-                Thread thread = new Thread(behaviour);
-                behaviour.setMyThread(thread);
-                thread.start();
+                behaviour.markStarted();
+                if (scheduler != null && behaviour instanceof Steppable) {
+                    behaviour.scheduler = scheduler;
+                    startScheduler |= scheduler.add((Steppable) behaviour);
+                } else {
+                    behaviourExecutor.execute(behaviour.task());
+                }
             }
         }
+        if (startScheduler) {
+            behaviourExecutor.execute(scheduler);
+        }
     }
 
     /**
@@ -135,6 +373,20 @@ public abstract class JAMAgent extends Observable {
     public void destroy() throws JAMADSLException {
         try {
             adsl.removeRemoteMessageBox(myID);
+            adsl.removeDirectoryListener(messageBoxCache);
+            messageBoxCache.clear();
+            LocalMessageBoxes.unregister(publishedMessageBox);
+            Metrics.get().unregister(metrics);
+            if (myMessageBox instanceof MessageBoxNoSync) {
+                Metrics.get().unregister(((MessageBoxNoSync<?>) myMessageBox).getMetrics());
+                ((MessageBoxNoSync<?>) myMessageBox).closeJournal();
+                ((MessageBoxNoSync<?>) myMessageBox).closeSpill();
+            }
+            if (publishedMessageBox instanceof SocketMessageBox) {
+                NioTransport.get().unexport((SocketMessageBox) publishedMessageBox);
+            } else if (publishedMessageBox instanceof SharedMemoryMessageBox) {
+                SharedMemoryTransport.get().unexport((SharedMemoryMessageBox) publishedMessageBox);
+            }
 
             for (JAMBehaviour behaviour : myBehaviours) {
                 if (!behaviour.isDone()) {
@@ -142,7 +394,7 @@ public abstract class JAMAgent extends Observable {
                 }
             }
 
-        } catch (RemoteException | IllegalArgumentException e) {
+        } catch (IOException | IllegalArgumentException e) {
             throw new JAMADSLException(e);
         }
     }
@@ -160,27 +412,156 @@ public abstract class JAMAgent extends Observable {
 
     /**
      * Send a message to message recipients.
+     * A message for many message boxes is encoded once and written into them concurrently by the broadcast executor.
      *
      * @param message it.francescosantagati.jam.Message to send
      * @throws JAMADSLException se il collegamento con l'it.francescosantagati.jam.ADSL non � andato a buon fine
      * @throws JAMBehaviourInterruptedException when send fail
      */
     public void send(Message message) throws JAMBehaviourInterruptedException, JAMADSLException {
+        long start = System.nanoTime();
         try {
-            List<RemoteMessageBox> boxList = adsl.getRemoteMessageBox(message.getReceiver());
-            for (RemoteMessageBox box : boxList) {
-                box.writeMessage(message);
+            List<RemoteMessageBox> boxList = messageBoxCache.lookup(adsl, message.getReceiver());
+            if (boxList.size() > 1) {
+                Broadcast.write(broadcastExecutor, boxList, message);
+            } else {
+                for (RemoteMessageBox box : boxList) {
+                    box.writeMessage(message);
+                }
             }
 
         } catch (RemoteException e) {
+            metrics.failed();
+            // A cached message box may belong to a dead agent: ask the ADSL next time
+            messageBoxCache.invalidate(message.getReceiver());
             throw new JAMADSLException(e);
         } catch (InterruptedException e) {
+            metrics.failed();
             throw new JAMBehaviourInterruptedException();
         }
+        metrics.sent(1, start);
 
-        String logMessage = "SEND message " + message.getPerformative() + " to " + message.getReceiver();
-        setChanged();
-        notifyObservers(logMessage);
+        if (observed) {
+            events.sent(message);
+        }
+    }
+
+    /**
+     * Send a message without waiting: lookup and writes run on the send executor, and the message is written
+     * into every message box of the receiver concurrently, so a slow receiver does not delay the others.
+     * Every write has a timeout of {@link #SEND_TIMEOUT_SECONDS} seconds.
+     *
+     * @param message it.francescosantagati.jam.Message to send
+     * @return A {@link DeliveryFuture} completed with the {@link DeliveryReport} of the send
+     */
+    public DeliveryFuture sendAsync(Message message) {
+        return sendAsync(message, SEND_TIMEOUT_SECONDS, TimeUnit.SECONDS);
+    }
+
+    /**
+     * Send a message without waiting, with the timeout provided for every message box write.
+     * The send is reported to observers when every message box received the message.
+     *
+     * @param message it.francescosantagati.jam.Message to send
+     * @param timeout Max time to wait for each message box
+     * @param unit    Time unit of timeout
+     * @return A {@link DeliveryFuture} completed with the {@link DeliveryReport} of the send
+     */
+    public DeliveryFuture sendAsync(Message message, long timeout, TimeUnit unit) {
+        if (message == null || timeout < 0 || unit == null) {
+            throw new IllegalArgumentException("Wrong parameters");
+        }
+
+        final long start = System.nanoTime();
+        DeliveryFuture future = new DeliveryFuture();
+        future.addListener(new DeliveryListener() {
+            @Override
+            public void onDeliveryComplete(DeliveryReport report) {
+                if (!report.isDelivered()) {
+                    metrics.failed();
+                } else {
+                    metrics.sent(1, start);
+                    if (observed) {
+                        events.sent(report.getMessage());
+                    }
+                }
+            }
+        });
+        new AsyncSend(sendExecutor, messageBoxCache, adsl, message, unit.toNanos(timeout), future).start();
+        return future;
+    }
+
+    /**
+     * Send a collection of messages, writing all messages addressed to the same message box
+     * with a single remote call. Messages for the same box keep their order.
+     *
+     * @param messages it.francescosantagati.jam.Message collection to send
+     * @throws JAMADSLException when connection with it.francescosantagati.jam.ADSL fail
+     * @throws JAMBehaviourInterruptedException when send fail
+     */
+    public void send(Collection<Message> messages) throws JAMBehaviourInterruptedException, JAMADSLException {
+        if (messages == null || messages.contains(null)) {
+            throw new IllegalArgumentException("Wrong parameters");
+        }
+
+        long start = System.nanoTime();
+        try {
+            Map<RemoteMessageBox, List<Message>> batches = new LinkedHashMap<>();
+            for (Message message : messages) {
+                List<RemoteMessageBox> boxList = messageBoxCache.lookup(adsl, message.getReceiver());
+                for (RemoteMessageBox box : boxList) {
+                    List<Message> batch = batches.get(box);
+                    if (batch == null) {
+                        batch = new ArrayList<>();
+                        batches.put(box, batch);
+                    }
+                    batch.add(message);
+                }
+            }
+
+            for (Map.Entry<RemoteMessageBox, List<Message>> batch : batches.entrySet()) {
+                batch.getKey().writeMessages(batch.getValue());
+            }
+
+        } catch (RemoteException e) {
+            metrics.failed();
+            messageBoxCache.clear();
+            throw new JAMADSLException(e);
+        } catch (InterruptedException e) {
+            metrics.failed();
+            throw new JAMBehaviourInterruptedException();
+        }
+        metrics.sent(messages.size(), start);
+
+        if (observed) {
+            for (Message message : messages) {
+                events.sent(message);
+            }
+        }
+    }
+
+    /**
+     * Retrieve and delete from message box, without waiting, up to max messages sent by agent and with
+     * performative provided, holding the message box lock once.
+     *
+     * @param agentID      it.francescosantagati.jam.AgentID, null matches every sender
+     * @param performative it.francescosantagati.jam.Performative, null matches every performative
+     * @param messages     Collection where messages are added in arrival order
+     * @param max          Max number of messages to retrieve
+     * @return number of messages retrieved
+     */
+    public int drainTo(AgentID agentID, Performative performative, Collection<? super Message> messages, int max) {
+        if (messages == null) {
+            throw new IllegalArgumentException("Wrong parameters");
+        }
+
+        List<Message> drained = new ArrayList<>();
+        int count = myMessageBox.drainTo(agentID, performative, drained, max);
+        for (Message message : drained) {
+            notifyReceive(message);
+        }
+        messages.addAll(drained);
+        return count;
     }
 
     /**
@@ -199,9 +580,7 @@ public abstract class JAMAgent extends Observable {
         } catch (InterruptedException | JAMMessageBoxException e) {
             throw new JAMBehaviourInterruptedException();
         }
-        String logMessage = "RECEIVE message " + message.getPerformative() + " to " + message.getReceiver();
-        setChanged();
-        notifyObservers(logMessage);
+        notifyReceive(message);
         return message;
     }
 
@@ -220,9 +599,7 @@ public abstract class JAMAgent extends Observable {
         } catch (InterruptedException | JAMMessageBoxException e) {
             throw new JAMBehaviourInterruptedException();
         }
-        String logMessage = "RECEIVE message " + message.getPerformative() + " to " + message.getReceiver();
-        setChanged();
-        notifyObservers(logMessage);
+        notifyReceive(message);
         return message;
     }
 
@@ -241,9 +618,7 @@ public abstract class JAMAgent extends Observable {
         } catch (InterruptedException | JAMMessageBoxException e) {
             throw new JAMBehaviourInterruptedException();
         }
-        String logMessage = "RECEIVE message " + message.getPerformative() + " to " + message.getReceiver();
-        setChanged();
-        notifyObservers(logMessage);
+        notifyReceive(message);
         return message;
     }
 
@@ -261,10 +636,217 @@ public abstract class JAMAgent extends Observable {
         } catch (InterruptedException | JAMMessageBoxException e) {
             throw new JAMBehaviourInterruptedException();
         }
-        String logMessage = "RECEIVE message " + message.getPerformative() + " to " + message.getReceiver();
+        notifyReceive(message);
+        return message;
+    }
+
+    /**
+     * Retrieve and delete the first message from message box sent by agent and with performative provided,
+     * waiting up to the timeout provided.
+     *
+     * @param agentID      Agent ID
+     * @param performative it.francescosantagati.jam.Performative
+     * @param timeout      Max time to wait
+     * @param unit         Time unit of timeout
+     * @return message or null if timeout expired
+     * @throws JAMBehaviourInterruptedException when interrupted while waiting
+     */
+    public Message receive(AgentID agentID, Performative performative, long timeout, TimeUnit unit) throws JAMBehaviourInterruptedException {
+        if (agentID == null || performative == null) {
+            throw new IllegalArgumentException("Wrong parameters");
+        }
+        return receiveMessage(agentID, performative, timeout, unit);
+    }
+
+    /**
+     * Retrieve and delete the first message from message box sent by agent provided,
+     * waiting up to the timeout provided.
+     *
+     * @param agentID it.francescosantagati.jam.AgentID
+     * @param timeout Max time to wait
+     * @param unit    Time unit of timeout
+     * @return message or null if timeout expired
+     * @throws JAMBehaviourInterruptedException when interrupted while waiting
+     */
+    public Message receive(AgentID agentID, long timeout, TimeUnit unit) throws JAMBehaviourInterruptedException {
+        if (agentID == null) {
+            throw new IllegalArgumentException("Wrong parameters");
+        }
+        return receiveMessage(agentID, null, timeout, unit);
+    }
+
+    /**
+     * Retrieve and delete the first message from message box with performative provided,
+     * waiting up to the timeout provided.
+     *
+     * @param performative it.francescosantagati.jam.Performative
+     * @param timeout      Max time to wait
+     * @param unit         Time unit of timeout
+     * @return message or null if timeout expired
+     * @throws JAMBehaviourInterruptedException when interrupted while waiting
+     */
+    public Message receive(Performative performative, long timeout, TimeUnit unit) throws JAMBehaviourInterruptedException {
+        if (performative == null) {
+            throw new IllegalArgumentException("Wrong parameters");
+        }
+        return receiveMessage(null, performative, timeout, unit);
+    }
+
+    /**
+     * Retrieve and delete the first message from message box, waiting up to the timeout provided.
+     *
+     * @param timeout Max time to wait
+     * @param unit    Time unit of timeout
+     * @return message or null if timeout expired
+     * @throws JAMBehaviourInterruptedException when interrupted while waiting
+     */
+    public Message receive(long timeout, TimeUnit unit) throws JAMBehaviourInterruptedException {
+        return receiveMessage(null, null, timeout, unit);
+    }
+
+    /**
+     * Retrieve and delete the first message from message box sent by agent and with performative provided,
+     * without waiting.
+     *
+     * @param agentID      Agent ID
+     * @param performative it.francescosantagati.jam.Performative
+     * @return message or null if no message found
+     */
+    public Message tryReceive(AgentID agentID, Performative performative) {
+        if (agentID == null || performative == null) {
+            throw new IllegalArgumentException("Wrong parameters");
+        }
+        return tryReceiveMessage(agentID, performative);
+    }
+
+    /**
+     * Retrieve and delete the first message from message box sent by agent provided, without waiting.
+     *
+     * @param agentID it.francescosantagati.jam.AgentID
+     * @return message or null if no message found
+     */
+    public Message tryReceive(AgentID agentID) {
+        if (agentID == null) {
+            throw new IllegalArgumentException("Wrong parameters");
+        }
+        return tryReceiveMessage(agentID, null);
+    }
+
+    /**
+     * Retrieve and delete the first message from message box with performative provided, without waiting.
+     *
+     * @param performative it.francescosantagati.jam.Performative
+     * @return message or null if no message found
+     */
+    public Message tryReceive(Performative performative) {
+        if (performative == null) {
+            throw new IllegalArgumentException("Wrong parameters");
+        }
+        return tryReceiveMessage(null, performative);
+    }
+
+    /**
+     * Retrieve and delete the first message from message box, without waiting.
+     *
+     * @return message or null if no message found
+     */
+    public Message tryReceive() {
+        return tryReceiveMessage(null, null);
+    }
+
+    private Message receiveMessage(AgentID agentID, Performative performative, long timeout, TimeUnit unit) throws JAMBehaviourInterruptedException {
+        Message message;
+        try {
+            message = myMessageBox.readMessage(agentID, performative, timeout, unit);
+        } catch (InterruptedException e) {
+            throw new JAMBehaviourInterruptedException();
+        }
+        if (message != null) {
+            notifyReceive(message);
+        }
+        return message;
+    }
+
+    /**
+     * Retrieve and delete the first message matching the filter, without waiting.
+     *
+     * @param agentID      Sender filter, null matches every sender
+     * @param performative it.francescosantagati.jam.Performative filter, null matches every performative
+     * @return message or null if no message found
+     */
+    Message tryReceiveMessage(AgentID agentID, Performative performative) {
+        try {
+            return receiveMessage(agentID, performative, 0L, TimeUnit.NANOSECONDS);
+        } catch (JAMBehaviourInterruptedException e) {
+            // a zero timeout never waits, restore the flag for the caller
+            Thread.currentThread().interrupt();
+            return null;
+        }
+    }
+
+    /**
+     * Register a listener on the agent message box.
+     *
+     * @param listener A {@link MessageBoxListener} instance
+     */
+    void addMessageBoxListener(MessageBoxListener listener) {
+        myMessageBox.addMessageBoxListener(listener);
+    }
+
+    /**
+     * Unregister a listener from the agent message box.
+     *
+     * @param listener A {@link MessageBoxListener} instance
+     */
+    void removeMessageBoxListener(MessageBoxListener listener) {
+        myMessageBox.removeMessageBoxListener(listener);
+    }
+
+    private void notifyReceive(Message message) {
+        if (observed) {
+            events.received(message);
+        }
+    }
+
+    /**
+     * Notify observers of a send or receive event. Called by {@link AgentEvents} on its own thread.
+     *
+     * @param logMessage Text of the event
+     */
+    void notifyEvent(String logMessage) {
         setChanged();
         notifyObservers(logMessage);
-        return message;
+    }
+
+    /**
+     * {@inheritDoc}
+     * <p>Send and receive events are reported to observers asynchronously, in order, by a thread shared by
+     * all agents. Without observers they are not reported at all.</p>
+     */
+    @Override
+    @SuppressWarnings("deprecation")
+    public synchronized void addObserver(Observer o) {
+        super.addObserver(o);
+        observed = countObservers() > 0;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    @SuppressWarnings("deprecation")
+    public synchronized void deleteObserver(Observer o) {
+        super.deleteObserver(o);
+        observed = countObservers() > 0;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public synchronized void deleteObservers() {
+        super.deleteObservers();
+        observed = false;
     }
 
     /**
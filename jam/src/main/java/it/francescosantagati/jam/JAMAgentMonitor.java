@@ -33,6 +33,8 @@ public class JAMAgentMonitor extends JPanel implements ActionListener, Observer
     private JScrollPane scrollConsolePane;
 
     private JAMAgent agent;
+    private final StringBuilder pendingLines = new StringBuilder();
+    private boolean flushScheduled;
 
     /**
      * Construct a JAM GUI
@@ -92,14 +94,37 @@ public class JAMAgentMonitor extends JPanel implements ActionListener, Observer
 
     /**
      * Display a message on console area.
+     * Messages that arrive while the console is being updated are appended together, in a single
+     * update on the event dispatch thread.
      *
      * @param o          it.francescosantagati.jam.JAMAgent instance
      * @param logMessage it.francescosantagati.jam.Message to display
      */
     @Override
     public void update(Observable o, Object logMessage) {
-        consoleArea.append(logMessage.toString() + "\n");
-        consoleArea.repaint();
+        synchronized (pendingLines) {
+            pendingLines.append(logMessage).append('\n');
+            if (flushScheduled) {
+                return;
+            }
+            flushScheduled = true;
+        }
+        SwingUtilities.invokeLater(new Runnable() {
+            @Override
+            public void run() {
+                flushPendingLines();
+            }
+        });
+    }
+
+    private void flushPendingLines() {
+        String lines;
+        synchronized (pendingLines) {
+            lines = pendingLines.toString();
+            pendingLines.setLength(0);
+            flushScheduled = false;
+        }
+        consoleArea.append(lines);
     }
 
     /**
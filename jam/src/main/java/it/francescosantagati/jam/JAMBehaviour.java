@@ -9,8 +9,12 @@ package it.francescosantagati.jam;
  */
 public abstract class JAMBehaviour implements Runnable {
 
-    private boolean done;
+    private volatile boolean done;
     private Thread myThread;
+    private boolean started;
+    private volatile boolean blocked;
+    private boolean setUp;
+    volatile CooperativeScheduler scheduler;
     public JAMAgent myAgent;
 
     public JAMBehaviour(JAMAgent agent) {
@@ -22,9 +26,15 @@ public abstract class JAMBehaviour implements Runnable {
     /**
      * Terminate this behaviour.
      */
-    public void done() {
+    public synchronized void done() {
         done = true;
-        myThread.interrupt();
+        if (myThread != null) {
+            myThread.interrupt();
+        }
+        CooperativeScheduler scheduler = this.scheduler;
+        if (scheduler != null) {
+            scheduler.wakeUp();
+        }
     }
 
     /**
@@ -36,13 +46,46 @@ public abstract class JAMBehaviour implements Runnable {
         return done;
     }
 
+    /**
+     * Block this behaviour until a message arrives in the agent message box or {@link #restart()} is called.
+     * Meaningful only in cooperative mode, see {@link JAMAgent#setCooperative(boolean)}: the scheduler does not
+     * step a blocked behaviour. Usually called by {@link #action()} when no message is found.
+     */
+    public void block() {
+        blocked = true;
+    }
+
+    /**
+     * Restart a blocked behaviour.
+     */
+    public void restart() {
+        blocked = false;
+        CooperativeScheduler scheduler = this.scheduler;
+        if (scheduler != null) {
+            scheduler.wakeUp();
+        }
+    }
+
+    /**
+     * Check if this behaviour is blocked.
+     *
+     * @return True if is blocked. False otherwise.
+     */
+    public boolean isBlocked() {
+        return blocked;
+    }
+
     /**
      * Set a new {@link Thread} to run this behaviour..
+     * A null thread means that the behaviour is not running on any thread, e.g. waiting for a pooled thread.
      *
      * @param myThread A {@link Thread} instance.
      */
-    public void setMyThread(Thread myThread) {
+    public synchronized void setMyThread(Thread myThread) {
         this.myThread = myThread;
+        if (myThread != null) {
+            started = true;
+        }
     }
 
     /**
@@ -58,8 +101,64 @@ public abstract class JAMBehaviour implements Runnable {
         }
     }
 
-    public boolean hasNeverBeenStarted() {
-        return myThread == null;
+    public synchronized boolean hasNeverBeenStarted() {
+        return !started;
+    }
+
+    /**
+     * Mark this behaviour as started when it is handed to a {@link BehaviourExecutor}.
+     */
+    synchronized void markStarted() {
+        started = true;
+    }
+
+    /**
+     * Provide a task that runs this behaviour on the thread of the executor.
+     * The thread is bound to the behaviour only while the task runs, so that {@link #done()}
+     * never interrupts a pooled thread that is running something else.
+     *
+     * @return A {@link Runnable} instance.
+     */
+    Runnable task() {
+        return new Runnable() {
+            @Override
+            public void run() {
+                setMyThread(Thread.currentThread());
+                try {
+                    if (!isDone()) {
+                        JAMBehaviour.this.run();
+                    }
+                } finally {
+                    synchronized (JAMBehaviour.this) {
+                        myThread = null;
+                        // Clear an interrupt sent by done() before handing the thread back
+                        Thread.interrupted();
+                    }
+                }
+            }
+        };
+    }
+
+    /**
+     * @return True only the first time it is called
+     */
+    boolean firstStep() {
+        if (setUp) {
+            return false;
+        }
+        setUp = true;
+        return true;
+    }
+
+    /**
+     * Call {@link #dispose()}, logging failures.
+     */
+    void disposeQuietly() {
+        try {
+            dispose();
+        } catch (JAMBehaviourInterruptedException e) {
+            Log.e(this, e.getMessage());
+        }
     }
 
     /**
@@ -0,0 +1,226 @@
+package it.francescosantagati.jam;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A behaviour that runs only when a message matching its filter arrives in the agent message box.
+ * <p>On {@link JAMAgent#start()} the behaviour is set up and registered on the message box, then it releases
+ * its thread. Every matching message is retrieved and handed to {@link #onMessage(Message)} by a worker
+ * of a dispatcher shared by all reactive behaviours, so no thread is parked waiting for messages.
+ * Messages of a behaviour are handled one at a time, in arrival order.</p>
+ * <p>{@link #onMessage(Message)} should not block for long: it holds a worker of the dispatcher.</p>
+ *
+ * @author Francesco Santagati
+ */
+public abstract class JAMReactiveBehaviour extends JAMBehaviour implements MessageBoxListener, Steppable {
+
+    private final AgentID agentID;
+    private final Performative performative;
+    private final AtomicInteger pending;
+    private final AtomicBoolean disposed;
+    private final Runnable dispatch;
+    private BehaviourExecutor dispatcher;
+
+    /**
+     * Construct a behaviour that reacts to every message.
+     *
+     * @param myAgent it.francescosantagati.jam.JAMAgent
+     */
+    public JAMReactiveBehaviour(JAMAgent myAgent) {
+        this(myAgent, null, null);
+    }
+
+    /**
+     * Construct a behaviour that reacts to messages sent by agent and with performative provided.
+     *
+     * @param myAgent      it.francescosantagati.jam.JAMAgent
+     * @param agentID      it.francescosantagati.jam.AgentID, null matches every sender
+     * @param performative it.francescosantagati.jam.Performative, null matches every performative
+     */
+    public JAMReactiveBehaviour(JAMAgent myAgent, AgentID agentID, Performative performative) {
+        super(myAgent);
+        this.agentID = agentID;
+        this.performative = performative;
+        this.pending = new AtomicInteger();
+        this.disposed = new AtomicBoolean();
+        this.dispatch = new Runnable() {
+            @Override
+            public void run() {
+                dispatch();
+            }
+        };
+        this.dispatcher = SharedDispatcher.get();
+    }
+
+    /**
+     * Replace the executor that runs {@link #onMessage(Message)}. Must be called before {@link JAMAgent#start()}.
+     * By default a pool of daemon threads, one for each processor, is shared by all reactive behaviours.
+     *
+     * @param dispatcher A {@link BehaviourExecutor} instance
+     */
+    public void setDispatcher(BehaviourExecutor dispatcher) {
+        if (dispatcher == null) {
+            throw new IllegalArgumentException("Wrong parameters");
+        }
+        this.dispatcher = dispatcher;
+    }
+
+    /**
+     * Called for every message matching the filter.
+     *
+     * @param message it.francescosantagati.jam.Message
+     * @throws JAMBehaviourInterruptedException when is interrupted
+     */
+    public abstract void onMessage(Message message) throws JAMBehaviourInterruptedException;
+
+    /**
+     * A reactive behaviour have three steps:
+     * <ul>
+     * <li>setup: initialization
+     * <li>onMessage: executed for every matching message until {@link JAMBehaviour#done()} is called
+     * <li>dispose: last operation before behaviour end
+     * </ul>
+     */
+    public void run() {
+        try {
+            setup();
+        } catch (JAMBehaviourInterruptedException e) {
+            Log.e(this, e.getMessage());
+            done();
+            return;
+        }
+
+        myAgent.addMessageBoxListener(this);
+        // Messages already in the message box
+        schedule();
+    }
+
+    /**
+     * Handle every matching message currently in the message box.
+     *
+     * @throws JAMBehaviourInterruptedException when is interrupted
+     */
+    @Override
+    public final void action() throws JAMBehaviourInterruptedException {
+        Message message;
+        while (!isDone() && (message = myAgent.tryReceiveMessage(agentID, performative)) != null) {
+            onMessage(message);
+        }
+    }
+
+    /**
+     * Terminate this behaviour: it is unregistered from the message box and disposed.
+     * <p>{@link #dispose()} never runs together with {@link #onMessage(Message)}: it is executed by the
+     * dispatcher once the message being handled, if any, is done, or by the last step in cooperative mode.</p>
+     */
+    @Override
+    public void done() {
+        super.done();
+        myAgent.removeMessageBoxListener(this);
+        if (scheduler != null) {
+            // Disposed by the last step
+            return;
+        }
+        if (pending.getAndIncrement() != 0) {
+            // Disposed by the running dispatch
+            return;
+        }
+
+        try {
+            dispatcher.execute(dispatch);
+        } catch (RuntimeException e) {
+            // No dispatch is running
+            pending.set(0);
+            Log.e(this, e.getMessage());
+            disposeOnce();
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void onMessageArrived(Message message) {
+        if ((performative == null || performative == message.getPerformative())
+                && (agentID == null || agentID.equals(message.getSender()))) {
+            schedule();
+        }
+    }
+
+    /**
+     * In cooperative mode messages are handled on the scheduler thread: every step handles the messages
+     * currently in the message box, then blocks the behaviour until a new message arrives.
+     */
+    @Override
+    public boolean step() {
+        boolean first = firstStep();
+        if (first && isDone()) {
+            disposeOnce();
+            return true;
+        }
+
+        try {
+            if (first) {
+                setup();
+            }
+            action();
+        } catch (JAMBehaviourInterruptedException e) {
+            if (!isDone()) {
+                Log.e(this, e.getMessage());
+                done();
+            }
+            disposeOnce();
+            return true;
+        }
+
+        if (isDone()) {
+            disposeOnce();
+            return true;
+        }
+        block();
+        return false;
+    }
+
+    /**
+     * Every call is counted: a running dispatch loops until it has seen all of them,
+     * so a message arrived while it was finishing is never missed. {@link #done()} is counted as well.
+     */
+    private void schedule() {
+        if (isDone() || pending.getAndIncrement() != 0) {
+            return;
+        }
+
+        try {
+            dispatcher.execute(dispatch);
+        } catch (RuntimeException e) {
+            pending.set(0);
+            Log.e(this, e.getMessage());
+        }
+    }
+
+    /**
+     * Only one dispatch runs at a time, so disposing here never overlaps {@link #onMessage(Message)}.
+     */
+    private void dispatch() {
+        int count = pending.get();
+        do {
+            try {
+                action();
+            } catch (JAMBehaviourInterruptedException e) {
+                if (!isDone()) {
+                    Log.e(this, e.getMessage());
+                }
+            }
+            if (isDone()) {
+                disposeOnce();
+            }
+        } while ((count = pending.addAndGet(-count)) != 0);
+    }
+
+    private void disposeOnce() {
+        if (disposed.compareAndSet(false, true)) {
+            disposeQuietly();
+        }
+    }
+}
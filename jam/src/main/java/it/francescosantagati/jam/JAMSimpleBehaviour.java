@@ -5,7 +5,7 @@ package it.francescosantagati.jam;
  *
  * @author Francesco Santagati
  */
-public abstract class JAMSimpleBehaviour extends JAMBehaviour {
+public abstract class JAMSimpleBehaviour extends JAMBehaviour implements Steppable {
 
     public JAMSimpleBehaviour(JAMAgent myAgent) {
         super(myAgent);
@@ -37,4 +37,15 @@ public abstract class JAMSimpleBehaviour extends JAMBehaviour {
             done();
         }
     }
+
+    /**
+     * The whole behaviour is executed in a single step.
+     */
+    @Override
+    public boolean step() {
+        if (firstStep() && !isDone()) {
+            run();
+        }
+        return true;
+    }
 }
@@ -0,0 +1,73 @@
+package it.francescosantagati.jam;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A behaviour that is executed periodically until {@link JAMBehaviour#done()} method is called.
+ * <p>Ticks are scheduled on a timing wheel shared by the whole JVM, with a resolution of 10 milliseconds,
+ * so waiting between ticks costs no thread. Use it instead of {@link JAMBehaviour#sleep(long)}
+ * in a {@link JAMWhileBehaviour}. Ticks keep a fixed rate: a tick that runs late skips the periods it missed.</p>
+ * <p>{@link #onTick()} should not block for long: it holds a worker of the dispatcher.</p>
+ *
+ * @author Francesco Santagati
+ */
+public abstract class JAMTickerBehaviour extends TimedBehaviour {
+
+    private volatile long tickCount;
+
+    /**
+     * Construct a behaviour that ticks with the period provided. The first tick is after a period.
+     *
+     * @param myAgent it.francescosantagati.jam.JAMAgent
+     * @param ms      Period in milliseconds
+     */
+    public JAMTickerBehaviour(JAMAgent myAgent, long ms) {
+        this(myAgent, ms, ms, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Construct a behaviour that ticks with the period provided.
+     *
+     * @param myAgent it.francescosantagati.jam.JAMAgent
+     * @param delay   Delay of the first tick from {@link JAMAgent#start()}
+     * @param period  Period of ticks, greater than 0
+     * @param unit    Time unit of delay and period
+     */
+    public JAMTickerBehaviour(JAMAgent myAgent, long delay, long period, TimeUnit unit) {
+        super(myAgent, delay, checkPeriod(period), unit);
+    }
+
+    /**
+     * Called on every tick.
+     *
+     * @throws JAMBehaviourInterruptedException when is interrupted
+     */
+    public abstract void onTick() throws JAMBehaviourInterruptedException;
+
+    /**
+     * Provide the number of ticks executed.
+     *
+     * @return Number of ticks
+     */
+    public long getTickCount() {
+        return tickCount;
+    }
+
+    /**
+     * Call {@link #onTick()}. Ticks never run concurrently.
+     *
+     * @throws JAMBehaviourInterruptedException when is interrupted
+     */
+    @Override
+    public final void action() throws JAMBehaviourInterruptedException {
+        tickCount++;
+        onTick();
+    }
+
+    private static long checkPeriod(long period) {
+        if (period <= 0) {
+            throw new IllegalArgumentException("Wrong parameters");
+        }
+        return period;
+    }
+}
@@ -0,0 +1,52 @@
+package it.francescosantagati.jam;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A behaviour that is executed just once, after a delay.
+ * <p>The delay is measured by a timing wheel shared by the whole JVM, with a resolution of 10 milliseconds,
+ * so waiting costs no thread. Use it instead of {@link JAMBehaviour#sleep(long)} in a {@link JAMSimpleBehaviour}.</p>
+ * <p>{@link #onWake()} should not block for long: it holds a worker of the dispatcher.</p>
+ *
+ * @author Francesco Santagati
+ */
+public abstract class JAMWakerBehaviour extends TimedBehaviour {
+
+    /**
+     * Construct a behaviour that wakes up after the delay provided.
+     *
+     * @param myAgent it.francescosantagati.jam.JAMAgent
+     * @param ms      Delay in milliseconds
+     */
+    public JAMWakerBehaviour(JAMAgent myAgent, long ms) {
+        this(myAgent, ms, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Construct a behaviour that wakes up after the delay provided.
+     *
+     * @param myAgent it.francescosantagati.jam.JAMAgent
+     * @param delay   Delay from {@link JAMAgent#start()}
+     * @param unit    Time unit of delay
+     */
+    public JAMWakerBehaviour(JAMAgent myAgent, long delay, TimeUnit unit) {
+        super(myAgent, delay, 0, unit);
+    }
+
+    /**
+     * Called once when the delay is elapsed, then the behaviour is terminated.
+     *
+     * @throws JAMBehaviourInterruptedException when is interrupted
+     */
+    public abstract void onWake() throws JAMBehaviourInterruptedException;
+
+    /**
+     * Call {@link #onWake()}.
+     *
+     * @throws JAMBehaviourInterruptedException when is interrupted
+     */
+    @Override
+    public final void action() throws JAMBehaviourInterruptedException {
+        onWake();
+    }
+}
@@ -5,7 +5,7 @@ package it.francescosantagati.jam;
  *
  * @author Francesco Santagati
  */
-public abstract class JAMWhileBehaviour extends JAMBehaviour {
+public abstract class JAMWhileBehaviour extends JAMBehaviour implements Steppable {
 
     public JAMWhileBehaviour(JAMAgent myAgent) {
         super(myAgent);
@@ -37,4 +37,36 @@ public abstract class JAMWhileBehaviour extends JAMBehaviour {
             }
         }
     }
+
+    /**
+     * Every step executes action once.
+     */
+    @Override
+    public boolean step() {
+        boolean first = firstStep();
+        if (first && isDone()) {
+            return true;
+        }
+
+        try {
+            if (first) {
+                setup();
+            }
+            if (!isDone()) {
+                action();
+            }
+        } catch (JAMBehaviourInterruptedException e) {
+            if (!isDone()) {
+                Log.e(this, e.getMessage());
+            }
+            disposeQuietly();
+            return true;
+        }
+
+        if (isDone()) {
+            disposeQuietly();
+            return true;
+        }
+        return false;
+    }
 }
@@ -0,0 +1,27 @@
+package it.francescosantagati.jam;
+
+/**
+ * How a message is delivered to a message box that lives in the same JVM of the sender,
+ * set by {@link JAMAgent#setLocalDelivery(LocalDelivery)}.
+ *
+ * @author Francesco Santagati
+ */
+public enum LocalDelivery {
+
+    /**
+     * The message object is written into the message box, without serialization (default).
+     * The sender must not modify it after sending, and receivers of the same message share it.
+     */
+    BY_REFERENCE,
+
+    /**
+     * A serialized copy of the message is written into the message box, as a remote delivery does,
+     * but without any remote call.
+     */
+    BY_COPY,
+
+    /**
+     * Local message boxes are reached through the {@link Transport} of their owner, as remote ones.
+     */
+    DISABLED
+}
@@ -0,0 +1,153 @@
+package it.francescosantagati.jam;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.rmi.NoSuchObjectException;
+import java.rmi.RemoteException;
+import java.rmi.server.RemoteObject;
+import java.rmi.server.RemoteServer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Registry of the message boxes published to an {@link ADSL} by the agents of this JVM.
+ * <p>References returned by {@link ADSL#getRemoteMessageBox(AgentID)}, RMI stubs or {@link SocketMessageBox}
+ * instances, are resolved to the local message box they point to, so that a local send is a direct call.</p>
+ *
+ * @author Francesco Santagati
+ */
+final class LocalMessageBoxes {
+
+    private static final ConcurrentMap<RemoteMessageBox, RemoteMessageBox> BOXES = new ConcurrentHashMap<>();
+
+    private LocalMessageBoxes() {
+    }
+
+    /**
+     * Register a local message box.
+     *
+     * @param published Reference inserted into the {@link ADSL}: the message box itself or a {@link SocketMessageBox}
+     * @param box       Local message box
+     */
+    static void register(RemoteMessageBox published, RemoteMessageBox box) {
+        RemoteMessageBox key = key(published);
+        if (key != null) {
+            BOXES.put(key, box);
+        }
+    }
+
+    /**
+     * Unregister a local message box.
+     *
+     * @param published Reference passed to {@link #register(RemoteMessageBox, RemoteMessageBox)}
+     */
+    static void unregister(RemoteMessageBox published) {
+        RemoteMessageBox key = key(published);
+        if (key != null) {
+            BOXES.remove(key);
+        }
+    }
+
+    /**
+     * Replace every reference to a local message box with the message box, or with a copying wrapper.
+     *
+     * @param boxes    References returned by the {@link ADSL}
+     * @param delivery it.francescosantagati.jam.LocalDelivery
+     * @return A new list if some reference is replaced, boxes otherwise
+     */
+    static List<RemoteMessageBox> resolve(List<RemoteMessageBox> boxes, LocalDelivery delivery) {
+        if (delivery == LocalDelivery.DISABLED || BOXES.isEmpty()) {
+            return boxes;
+        }
+
+        List<RemoteMessageBox> resolved = null;
+        for (int i = 0; i < boxes.size(); i++) {
+            RemoteMessageBox box = BOXES.get(boxes.get(i));
+            if (box == null) {
+                continue;
+            }
+            if (resolved == null) {
+                resolved = new ArrayList<>(boxes);
+            }
+            resolved.set(i, delivery == LocalDelivery.BY_COPY ? new CopyingMessageBox(box) : box);
+        }
+        return resolved != null ? resolved : boxes;
+    }
+
+    /**
+     * A message box exported by RMI is known by others through its stub, that is equal to every copy of it.
+     */
+    private static RemoteMessageBox key(RemoteMessageBox published) {
+        if (!(published instanceof RemoteServer)) {
+            return published;
+        }
+        try {
+            return (RemoteMessageBox) RemoteObject.toStub(published);
+        } catch (NoSuchObjectException e) {
+            // Not exported: nobody can reach it through the ADSL
+            return null;
+        }
+    }
+
+    /**
+     * Write serialized copies of messages into a local message box.
+     */
+    private static final class CopyingMessageBox implements RemoteMessageBox {
+        private final RemoteMessageBox box;
+
+        private CopyingMessageBox(RemoteMessageBox box) {
+            this.box = box;
+        }
+
+        @Override
+        public void writeMessage(Message message) throws RemoteException, InterruptedException {
+            box.writeMessage(copy(message));
+        }
+
+        @Override
+        public void writeMessages(List<Message> messages) throws RemoteException, InterruptedException {
+            List<Message> copies = new ArrayList<>(messages.size());
+            for (Message message : messages) {
+                copies.add(copy(message));
+            }
+            box.writeMessages(copies);
+        }
+
+        @Override
+        public AgentID getOwner() throws RemoteException {
+            return box.getOwner();
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            return o instanceof CopyingMessageBox && box.equals(((CopyingMessageBox) o).box);
+        }
+
+        @Override
+        public int hashCode() {
+            return box.hashCode();
+        }
+
+        private static Message copy(Message message) throws RemoteException {
+            if (message == null) {
+                throw new IllegalArgumentException("Wrong parameters");
+            }
+            try {
+                ByteArrayOutputStream bytes = new ByteArrayOutputStream(256);
+                try (ObjectOutputStream out = new ObjectOutputStream(bytes)) {
+                    out.writeObject(message);
+                }
+                try (ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(bytes.toByteArray()))) {
+                    return (Message) in.readObject();
+                }
+            } catch (IOException | ClassNotFoundException e) {
+                throw new RemoteException(e.getMessage(), e);
+            }
+        }
+    }
+}
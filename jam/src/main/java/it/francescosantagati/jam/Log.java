@@ -1,12 +1,94 @@
 package it.francescosantagati.jam;
 
+import java.util.concurrent.TimeUnit;
+
 /**
  * Helper class to print console log
+ * <p>Logging does not block: messages are queued in a bounded ring buffer and written by a single thread to
+ * the console and to the {@link LogListener}s added. Messages below the level set are discarded before any
+ * formatting. A message can be a template with a <code>{}</code> placeholder for each argument, e.g.
+ * <code>Log.d(this, "Sent {} to {}", message, receiver)</code>: arguments are turned into strings by the writer
+ * thread, and only if the message is written.</p>
  *
  * @author Francesco Santagati
  */
 public class Log {
 
+    /**
+     * Log levels, from the most verbose.
+     */
+    public enum Level {
+        DEBUG,
+        ERROR,
+        OFF
+    }
+
+    private static volatile Level level = Level.DEBUG;
+
+    /**
+     * Set the least severe level written. Default is {@link Level#DEBUG}.
+     *
+     * @param level Level, {@link Level#OFF} discards every message
+     */
+    public static void setLevel(Level level) {
+        if (level == null) {
+            throw new IllegalArgumentException("Wrong parameters");
+        }
+        Log.level = level;
+    }
+
+    /**
+     * @return least severe level written
+     */
+    public static Level getLevel() {
+        return level;
+    }
+
+    /**
+     * Check if messages of a level are written, e.g. before building an expensive argument.
+     *
+     * @param level Level
+     * @return True if written. False otherwise.
+     */
+    public static boolean isEnabled(Level level) {
+        return level != Level.OFF && level.compareTo(Log.level) >= 0;
+    }
+
+    /**
+     * Add a listener that receives every written message.
+     *
+     * @param listener A {@link LogListener} instance
+     */
+    public static void addListener(LogListener listener) {
+        if (listener == null) {
+            throw new IllegalArgumentException("Wrong parameters");
+        }
+        LogRing.get().addListener(listener);
+    }
+
+    /**
+     * @param listener A {@link LogListener} previously added
+     */
+    public static void removeListener(LogListener listener) {
+        LogRing.get().removeListener(listener);
+    }
+
+    /**
+     * Enable or disable the console, enabled by default. Listeners still receive messages.
+     *
+     * @param enabled True to print messages on standard output
+     */
+    public static void setConsoleEnabled(boolean enabled) {
+        LogRing.get().setConsole(enabled);
+    }
+
+    /**
+     * Wait until messages logged before this call are written, up to 5 seconds.
+     */
+    public static void flush() {
+        LogRing.get().flush(TimeUnit.SECONDS.toNanos(5));
+    }
+
     /**
      * Debug log
      *
@@ -14,7 +96,49 @@ public class Log {
      * @param message it.francescosantagati.jam.Log message
      */
     public static void d(Object caller, String message) {
-        print("DEBUG - " + caller.getClass().getSimpleName() + ": " + message);
+        if (isEnabled(Level.DEBUG)) {
+            LogRing.get().publish(Level.DEBUG, caller.getClass(), null, null, message, 0, null, null, null);
+        }
+    }
+
+    /**
+     * Debug log
+     *
+     * @param caller   Object that generate the log
+     * @param template Message with a {} placeholder for the argument
+     * @param arg      Argument
+     */
+    public static void d(Object caller, String template, Object arg) {
+        if (isEnabled(Level.DEBUG)) {
+            LogRing.get().publish(Level.DEBUG, caller.getClass(), null, null, template, 1, arg, null, null);
+        }
+    }
+
+    /**
+     * Debug log
+     *
+     * @param caller   Object that generate the log
+     * @param template Message with a {} placeholder for each argument
+     * @param first    First argument
+     * @param second   Second argument
+     */
+    public static void d(Object caller, String template, Object first, Object second) {
+        if (isEnabled(Level.DEBUG)) {
+            LogRing.get().publish(Level.DEBUG, caller.getClass(), null, null, template, 2, first, second, null);
+        }
+    }
+
+    /**
+     * Debug log
+     *
+     * @param caller   Object that generate the log
+     * @param template Message with a {} placeholder for each argument
+     * @param args     Arguments
+     */
+    public static void d(Object caller, String template, Object... args) {
+        if (isEnabled(Level.DEBUG)) {
+            LogRing.get().publish(Level.DEBUG, caller.getClass(), null, null, template, args.length, null, null, args);
+        }
     }
 
     /**
@@ -24,7 +148,53 @@ public class Log {
      * @param message it.francescosantagati.jam.Log message
      */
     public static void agent(JAMAgent agent, String message) {
-        print("DEBUG - " + agent.getMyID().getName().toUpperCase() + ", " + agent.getMyID().getCategory() + ": " + message);
+        if (isEnabled(Level.DEBUG)) {
+            PersonalAgentID id = agent.getMyID();
+            LogRing.get().publish(Level.DEBUG, null, id.getName(), id.getCategory(), message, 0, null, null, null);
+        }
+    }
+
+    /**
+     * Debug log
+     *
+     * @param agent    it.francescosantagati.jam.JAMAgent that generate the log
+     * @param template Message with a {} placeholder for the argument
+     * @param arg      Argument
+     */
+    public static void agent(JAMAgent agent, String template, Object arg) {
+        if (isEnabled(Level.DEBUG)) {
+            PersonalAgentID id = agent.getMyID();
+            LogRing.get().publish(Level.DEBUG, null, id.getName(), id.getCategory(), template, 1, arg, null, null);
+        }
+    }
+
+    /**
+     * Debug log
+     *
+     * @param agent    it.francescosantagati.jam.JAMAgent that generate the log
+     * @param template Message with a {} placeholder for each argument
+     * @param first    First argument
+     * @param second   Second argument
+     */
+    public static void agent(JAMAgent agent, String template, Object first, Object second) {
+        if (isEnabled(Level.DEBUG)) {
+            PersonalAgentID id = agent.getMyID();
+            LogRing.get().publish(Level.DEBUG, null, id.getName(), id.getCategory(), template, 2, first, second, null);
+        }
+    }
+
+    /**
+     * Debug log
+     *
+     * @param agent    it.francescosantagati.jam.JAMAgent that generate the log
+     * @param template Message with a {} placeholder for each argument
+     * @param args     Arguments
+     */
+    public static void agent(JAMAgent agent, String template, Object... args) {
+        if (isEnabled(Level.DEBUG)) {
+            PersonalAgentID id = agent.getMyID();
+            LogRing.get().publish(Level.DEBUG, null, id.getName(), id.getCategory(), template, args.length, null, null, args);
+        }
     }
 
     /**
@@ -34,10 +204,48 @@ public class Log {
      * @param message Error message
      */
     public static void e(Object caller, String message) {
-        print("ERROR - " + caller.getClass().getSimpleName() + ": " + message);
+        if (isEnabled(Level.ERROR)) {
+            LogRing.get().publish(Level.ERROR, caller.getClass(), null, null, message, 0, null, null, null);
+        }
+    }
+
+    /**
+     * Error log
+     *
+     * @param caller   Object that generate the log
+     * @param template Error message with a {} placeholder for the argument
+     * @param arg      Argument
+     */
+    public static void e(Object caller, String template, Object arg) {
+        if (isEnabled(Level.ERROR)) {
+            LogRing.get().publish(Level.ERROR, caller.getClass(), null, null, template, 1, arg, null, null);
+        }
     }
 
-    private static void print(String message) {
-        System.out.println(message);
+    /**
+     * Error log
+     *
+     * @param caller   Object that generate the log
+     * @param template Error message with a {} placeholder for each argument
+     * @param first    First argument
+     * @param second   Second argument
+     */
+    public static void e(Object caller, String template, Object first, Object second) {
+        if (isEnabled(Level.ERROR)) {
+            LogRing.get().publish(Level.ERROR, caller.getClass(), null, null, template, 2, first, second, null);
+        }
+    }
+
+    /**
+     * Error log
+     *
+     * @param caller   Object that generate the log
+     * @param template Error message with a {} placeholder for each argument
+     * @param args     Arguments
+     */
+    public static void e(Object caller, String template, Object... args) {
+        if (isEnabled(Level.ERROR)) {
+            LogRing.get().publish(Level.ERROR, caller.getClass(), null, null, template, args.length, null, null, args);
+        }
     }
-}
\ No newline at end of file
+}
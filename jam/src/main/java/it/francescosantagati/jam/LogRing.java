@@ -0,0 +1,256 @@
+package it.francescosantagati.jam;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Bounded ring buffer of log events, written to the {@link LogListener}s by a single daemon thread.
+ * <p>Threads that log claim a preallocated slot and fill it with the template and its arguments: they
+ * never format, allocate or lock. When the ring is full the event is dropped and counted, the writer
+ * reports how many events were dropped once it catches up. The writer formats each event, hands it to
+ * the console and to the listeners, and parks when the ring is empty.</p>
+ *
+ * @author Francesco Santagati
+ */
+final class LogRing {
+
+    /**
+     * Slots of the ring, a power of two.
+     */
+    static final int CAPACITY = 8192;
+
+    private static final int MASK = CAPACITY - 1;
+    private static final long PARK_NANOS = TimeUnit.MILLISECONDS.toNanos(100);
+
+    private final Event[] events;
+    private final AtomicLong claimed;
+    private final AtomicLong dropped;
+    private final List<LogListener> listeners;
+    private final StringBuilder line;
+    private final Thread writer;
+    private volatile long consumed;
+    private volatile boolean parked;
+    private volatile boolean console;
+
+    private LogRing() {
+        events = new Event[CAPACITY];
+        for (int i = 0; i < CAPACITY; i++) {
+            events[i] = new Event(i - CAPACITY);
+        }
+        claimed = new AtomicLong();
+        dropped = new AtomicLong();
+        listeners = new CopyOnWriteArrayList<>();
+        line = new StringBuilder(256);
+        console = true;
+
+        writer = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                write();
+            }
+        }, "jam-log");
+        writer.setDaemon(true);
+        writer.start();
+
+        Runtime.getRuntime().addShutdownHook(new Thread(new Runnable() {
+            @Override
+            public void run() {
+                flush(TimeUnit.SECONDS.toNanos(1));
+            }
+        }, "jam-log-flush"));
+    }
+
+    /**
+     * Provide the ring of this JVM, created with its writer on first use.
+     *
+     * @return LogRing instance
+     */
+    static LogRing get() {
+        return Holder.INSTANCE;
+    }
+
+    void addListener(LogListener listener) {
+        listeners.add(listener);
+    }
+
+    void removeListener(LogListener listener) {
+        listeners.remove(listener);
+    }
+
+    void setConsole(boolean console) {
+        this.console = console;
+    }
+
+    /**
+     * Queue an event. Caller and agent are alternative: the one not provided is null.
+     *
+     * @param level    Level
+     * @param caller   Class of the object that generated the event
+     * @param name     Name of the agent that generated the event
+     * @param category Category of the agent that generated the event
+     * @param template Message, with a {} placeholder for each argument
+     * @param count    Number of arguments: 0, 1, 2 or args.length
+     * @param first    First argument
+     * @param second   Second argument
+     * @param args     Arguments, when there are more than two
+     */
+    void publish(Log.Level level, Class<?> caller, String name, String category, String template,
+                 int count, Object first, Object second, Object[] args) {
+        long sequence;
+        do {
+            sequence = claimed.get();
+            if (sequence - consumed >= CAPACITY) {
+                dropped.incrementAndGet();
+                return;
+            }
+        } while (!claimed.compareAndSet(sequence, sequence + 1));
+
+        Event event = events[(int) sequence & MASK];
+        event.level = level;
+        event.caller = caller;
+        event.name = name;
+        event.category = category;
+        event.template = template;
+        event.count = count;
+        event.first = first;
+        event.second = second;
+        event.args = args;
+        event.sequence = sequence;
+
+        if (parked) {
+            LockSupport.unpark(writer);
+        }
+    }
+
+    /**
+     * Wait until the events queued before this call are written, up to a timeout.
+     *
+     * @param nanos Max time to wait in nanoseconds
+     */
+    void flush(long nanos) {
+        long target = claimed.get();
+        long deadline = System.nanoTime() + nanos;
+        while (consumed < target && deadline - System.nanoTime() > 0) {
+            LockSupport.unpark(writer);
+            LockSupport.parkNanos(this, TimeUnit.MILLISECONDS.toNanos(1));
+        }
+    }
+
+    /**
+     * Run on the writer thread.
+     */
+    private void write() {
+        long next = 0;
+        while (true) {
+            Event event = events[(int) next & MASK];
+            if (event.sequence != next) {
+                long lost = dropped.getAndSet(0);
+                if (lost > 0) {
+                    deliver("ERROR - " + Log.class.getSimpleName() + ": " + lost + " log messages dropped, log buffer is full");
+                }
+                parked = true;
+                if (event.sequence != next) {
+                    LockSupport.parkNanos(this, PARK_NANOS);
+                }
+                parked = false;
+                continue;
+            }
+
+            String text = format(event);
+            event.clear();
+            consumed = ++next;
+            deliver(text);
+        }
+    }
+
+    private String format(Event event) {
+        line.setLength(0);
+        line.append(event.level).append(" - ");
+        if (event.caller != null) {
+            line.append(event.caller.getSimpleName());
+        } else {
+            line.append(event.name.toUpperCase()).append(", ").append(event.category);
+        }
+        line.append(": ");
+
+        String template = event.template;
+        if (event.count == 0) {
+            line.append(template);
+            return line.toString();
+        }
+
+        int start = 0;
+        for (int i = 0; i < event.count; i++) {
+            int placeholder = template.indexOf("{}", start);
+            if (placeholder < 0) {
+                break;
+            }
+            line.append(template, start, placeholder).append(event.argument(i));
+            start = placeholder + 2;
+        }
+        line.append(template, start, template.length());
+        return line.toString();
+    }
+
+    private void deliver(String text) {
+        if (console) {
+            System.out.println(text);
+        }
+        for (LogListener listener : listeners) {
+            try {
+                listener.onLogMessage(text);
+            } catch (RuntimeException e) {
+                // Logging it would loop if the listener fails again
+                System.err.println("Log listener " + listener + " failed: " + e);
+            }
+        }
+    }
+
+    /**
+     * A slot of the ring. Fields are written by a producer before it publishes the sequence,
+     * and read by the writer after it sees the sequence.
+     */
+    private static final class Event {
+        volatile long sequence;
+        Log.Level level;
+        Class<?> caller;
+        String name;
+        String category;
+        String template;
+        int count;
+        Object first;
+        Object second;
+        Object[] args;
+
+        Event(long sequence) {
+            this.sequence = sequence;
+        }
+
+        Object argument(int index) {
+            if (args != null) {
+                return args[index];
+            }
+            return index == 0 ? first : second;
+        }
+
+        /**
+         * Release references, so that arguments can be collected.
+         */
+        void clear() {
+            caller = null;
+            name = null;
+            category = null;
+            template = null;
+            first = null;
+            second = null;
+            args = null;
+        }
+    }
+
+    private static final class Holder {
+        private static final LogRing INSTANCE = new LogRing();
+    }
+}
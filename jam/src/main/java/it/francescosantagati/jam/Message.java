@@ -1,5 +1,13 @@
 package it.francescosantagati.jam;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InvalidObjectException;
+import java.io.ObjectInput;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutput;
+import java.io.ObjectOutputStream;
 import java.io.Serializable;
 
 /**
@@ -12,16 +20,45 @@ import java.io.Serializable;
  * <li>A content: body of the message
  * <li>Extra arguments
  * </ul>
+ * <p>The fields of this class are serialized in a compact binary format: agent ids are written inline, without class descriptors,
+ * the performative as its ordinal and the extra argument by the {@link ExtraArgumentCodec} set by
+ * {@link #setExtraArgumentCodec(ExtraArgumentCodec)}. The header of a message sent to many message boxes is encoded
+ * once. The extra argument is always written by the stream of the call, so that RMI still replaces remote objects
+ * with their stubs and annotates classes with their codebase. Fields added by a subclass are serialized
+ * as usual.</p>
  *
  * @author Francesco Santagati
  */
 public class Message implements Serializable {
 
-    private AgentID sender;
-    private AgentID receiver;
-    private Performative performative;
-    private String content;
-    private Object extraArgument;
+    private static final Performative[] PERFORMATIVES = Performative.values();
+    private static final int INLINE = 0;
+    private static final int ENCODED = 1;
+
+    /**
+     * Writes the extra argument as a serialized object.
+     */
+    private static final ExtraArgumentCodec SERIALIZED_CODEC = new ExtraArgumentCodec() {
+        @Override
+        public void write(ObjectOutput out, Object extraArgument) throws IOException {
+            out.writeObject(extraArgument);
+        }
+
+        @Override
+        public Object read(ObjectInput in) throws IOException, ClassNotFoundException {
+            return in.readObject();
+        }
+    };
+
+    private static volatile ExtraArgumentCodec extraArgumentCodec = SERIALIZED_CODEC;
+
+    // Written by writeObject
+    private transient AgentID sender;
+    private transient AgentID receiver;
+    private transient Performative performative;
+    private transient String content;
+    private transient Object extraArgument;
+    private transient volatile byte[] encoded;
 
     /**
      * Construct a message with extra arguments
@@ -58,6 +95,128 @@ public class Message implements Serializable {
     public Message() {
     }
 
+    /**
+     * Replace the codec of extra arguments, e.g. to avoid the class descriptors of Java serialization.
+     * By default extra arguments are serialized objects.
+     *
+     * @param codec A {@link ExtraArgumentCodec} instance, null to restore the default
+     */
+    public static void setExtraArgumentCodec(ExtraArgumentCodec codec) {
+        extraArgumentCodec = codec != null ? codec : SERIALIZED_CODEC;
+    }
+
+    private void writeObject(ObjectOutputStream out) throws IOException {
+        writeCompact(out);
+    }
+
+    private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+        readCompact(in);
+    }
+
+    /**
+     * Write the fields of this class in the compact format, preceded by a tag: {@link #INLINE} if fields follow,
+     * {@link #ENCODED} if a length-prefixed header prepared by {@link #encodeOnce()} and the extra argument follow.
+     *
+     * @param out Stream
+     * @throws IOException when fail to write
+     */
+    void writeCompact(ObjectOutput out) throws IOException {
+        byte[] bytes = encoded;
+        if (bytes != null) {
+            WireFormat.writeVarint(out, ENCODED);
+            WireFormat.writeVarint(out, bytes.length);
+            out.write(bytes);
+            extraArgumentCodec.write(out, extraArgument);
+        } else {
+            WireFormat.writeVarint(out, INLINE);
+            writeFields(out);
+        }
+    }
+
+    /**
+     * Read the fields written by {@link #writeCompact(ObjectOutput)}.
+     *
+     * @param in Stream
+     * @throws IOException            when fail to read
+     * @throws ClassNotFoundException when the class of an extra argument is not found
+     */
+    void readCompact(ObjectInput in) throws IOException, ClassNotFoundException {
+        int tag = WireFormat.readVarint(in);
+        if (tag == INLINE) {
+            readFields(in);
+        } else if (tag == ENCODED) {
+            byte[] bytes = new byte[WireFormat.readVarint(in)];
+            in.readFully(bytes);
+            try (ObjectInputStream header = new ObjectInputStream(new ByteArrayInputStream(bytes))) {
+                readHeader(header);
+            }
+            extraArgument = extraArgumentCodec.read(in);
+        } else {
+            throw new InvalidObjectException("Unknown message tag " + tag);
+        }
+    }
+
+    /**
+     * Encode the header of the message in a stream of its own, written as it is by every following
+     * {@link #writeCompact(ObjectOutput)} until {@link #clearEncoded()} is called or the message is modified,
+     * e.g. while it is written into many message boxes.
+     * <p>Only headers that contain no object are encoded: agent ids that are not written inline by
+     * {@link WireFormat} are left to the stream of the call, as the extra argument is.</p>
+     *
+     * @throws IOException when fail to encode
+     */
+    void encodeOnce() throws IOException {
+        if (!WireFormat.isInline(sender) || !WireFormat.isInline(receiver)) {
+            encoded = null;
+            return;
+        }
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(128);
+        try (ObjectOutputStream out = new ObjectOutputStream(bytes)) {
+            writeHeader(out);
+        }
+        encoded = bytes.toByteArray();
+    }
+
+    /**
+     * Discard the stream prepared by {@link #encodeOnce()}.
+     */
+    void clearEncoded() {
+        encoded = null;
+    }
+
+    private void writeFields(ObjectOutput out) throws IOException {
+        writeHeader(out);
+        extraArgumentCodec.write(out, extraArgument);
+    }
+
+    /**
+     * The performative is written as its ordinal plus one, 0 for null.
+     */
+    private void writeHeader(ObjectOutput out) throws IOException {
+        WireFormat.StringTable strings = new WireFormat.StringTable();
+        WireFormat.writeVarint(out, performative != null ? performative.ordinal() + 1 : 0);
+        WireFormat.writeAgentID(out, sender, strings);
+        WireFormat.writeAgentID(out, receiver, strings);
+        WireFormat.writeString(out, content);
+    }
+
+    private void readFields(ObjectInput in) throws IOException, ClassNotFoundException {
+        readHeader(in);
+        extraArgument = extraArgumentCodec.read(in);
+    }
+
+    private void readHeader(ObjectInput in) throws IOException, ClassNotFoundException {
+        WireFormat.StringTable strings = new WireFormat.StringTable();
+        int ordinal = WireFormat.readVarint(in);
+        if (ordinal > PERFORMATIVES.length) {
+            throw new InvalidObjectException("Unknown performative " + ordinal);
+        }
+        performative = ordinal != 0 ? PERFORMATIVES[ordinal - 1] : null;
+        sender = WireFormat.readAgentID(in, strings);
+        receiver = WireFormat.readAgentID(in, strings);
+        content = WireFormat.readString(in);
+    }
+
     /**
      * @return Formatted message to be printed.
      * <p>Example:</p>
@@ -98,6 +257,7 @@ public class Message implements Serializable {
      */
     public void setExtraArgument(Object extraArgument) {
         this.extraArgument = extraArgument;
+        encoded = null;
     }
 
     /**
@@ -112,6 +272,7 @@ public class Message implements Serializable {
      */
     public void setContent(String content) {
         this.content = content;
+        encoded = null;
     }
 
     /**
@@ -126,6 +287,7 @@ public class Message implements Serializable {
      */
     public void setPerformative(Performative performative) {
         this.performative = performative;
+        encoded = null;
     }
 
     /**
@@ -140,6 +302,7 @@ public class Message implements Serializable {
      */
     public void setSender(AgentID sender) {
         this.sender = sender;
+        encoded = null;
     }
 
     /**
@@ -154,5 +317,6 @@ public class Message implements Serializable {
      */
     public void setReceiver(AgentID receiver) {
         this.receiver = receiver;
+        encoded = null;
     }
 }
\ No newline at end of file
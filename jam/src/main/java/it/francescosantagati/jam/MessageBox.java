@@ -1,14 +1,26 @@
 package it.francescosantagati.jam;
 
 import java.rmi.RemoteException;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
 
 /**
  * A synchronized mailbox remotely accessible and belonging to a particular agent.
  * Other agents can send message by specifying the recipient.
+ * <p>Blocked readers register their filter and each incoming message wakes only the
+ * oldest reader whose filter matches it.</p>
+ * <p>When the box is full the {@link OverflowPolicy} provided is applied.</p>
  *
  * @author Francesco Santagati
  */
-public class MessageBox extends MessageBoxNoSync implements RemoteMessageBox {
+public class MessageBox extends MessageBoxNoSync<Message> implements RemoteMessageBox, AgentMessageBox {
+
+    protected final ReentrantLock lock = new ReentrantLock();
+    private final MessageWaiters waiters = new MessageWaiters(lock, box, spill);
+    private final Condition notFull = lock.newCondition();
 
     /**
      * Construct a synchronized message box with a max message limit.
@@ -18,7 +30,19 @@ public class MessageBox extends MessageBoxNoSync implements RemoteMessageBox {
      * @throws RemoteException when fail to connect
      */
     public MessageBox(AgentID owner, int maxMessage) throws RemoteException {
-        super(owner, maxMessage);
+        this(owner, maxMessage, OverflowPolicy.dropNewest());
+    }
+
+    /**
+     * Construct a synchronized message box with a max message limit and the policy to apply when it is full.
+     *
+     * @param owner          Agent ID
+     * @param maxMessage     Max message number
+     * @param overflowPolicy Policy applied when box is full
+     * @throws RemoteException when fail to connect
+     */
+    public MessageBox(AgentID owner, int maxMessage, OverflowPolicy overflowPolicy) throws RemoteException {
+        super(owner, maxMessage, overflowPolicy);
 
         if (owner == null) {
             throw new IllegalArgumentException("Wrong parameters");
@@ -45,15 +69,38 @@ public class MessageBox extends MessageBoxNoSync implements RemoteMessageBox {
     /**
      * {@inheritDoc}
      */
-    synchronized public boolean isBoxEmpty() {
-        return super.isBoxEmpty();
+    public boolean isBoxEmpty() {
+        lock.lock();
+        try {
+            return super.isBoxEmpty();
+        } finally {
+            lock.unlock();
+        }
     }
 
     /**
      * {@inheritDoc}
      */
-    synchronized public boolean isBoxFull() {
-        return super.isBoxFull();
+    public boolean isBoxFull() {
+        lock.lock();
+        try {
+            return super.isBoxFull();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void closeSpill() {
+        lock.lock();
+        try {
+            super.closeSpill();
+        } finally {
+            lock.unlock();
+        }
     }
 
     /**
@@ -66,23 +113,69 @@ public class MessageBox extends MessageBoxNoSync implements RemoteMessageBox {
 
     /**
      * Insert a message in to message box.
+     * If box is full the overflow policy is applied: the sender may wait for free space.
      *
      * @param message it.francescosantagati.jam.Message
      * @throws InterruptedException if write fail
      */
     @Override
-    public synchronized void writeMessage(Message message) throws InterruptedException {
+    public void writeMessage(Message message) throws InterruptedException {
 
         if (message == null) {
             throw new IllegalArgumentException("Tutti i parametri sono obbligatori e devono essere diversi da null.");
         }
 
+        lock.lock();
+        try {
+            write(message);
+        } finally {
+            lock.unlock();
+        }
+        syncJournal();
+    }
+
+    /**
+     * Insert a list of messages in to message box holding the lock once.
+     *
+     * @param messages it.francescosantagati.jam.Message list
+     * @throws InterruptedException if write fail
+     */
+    @Override
+    public void writeMessages(List<Message> messages) throws InterruptedException {
+        if (messages == null || messages.contains(null)) {
+            throw new IllegalArgumentException("Tutti i parametri sono obbligatori e devono essere diversi da null.");
+        }
+
+        lock.lock();
         try {
-            super.writeMessage(message);
-//            it.francescosantagati.jam.Log.d(this, "A message writed to " + message.getReceiver().toString());
-            notifyAll();
-        } catch (JAMMessageBoxException ignored) {
-            ignored.printStackTrace();
+            for (Message message : messages) {
+                write(message);
+            }
+        } finally {
+            lock.unlock();
+        }
+        syncJournal();
+    }
+
+    /**
+     * Must be called holding the lock.
+     */
+    private void write(Message message) throws InterruptedException {
+        long nanos = overflowPolicy.getTimeoutNanos();
+        while (true) {
+            try {
+                if (store(message)) {
+//                    it.francescosantagati.jam.Log.d(this, "A message writed to " + message.getReceiver().toString());
+                    waiters.signal(message);
+                }
+                return;
+            } catch (JAMMessageBoxException full) {
+                if (overflowPolicy.getType() != OverflowPolicy.Type.BLOCK || nanos <= 0L) {
+                    dropped(message);
+                    return;
+                }
+                nanos = notFull.awaitNanos(nanos);
+            }
         }
     }
 
@@ -94,7 +187,7 @@ public class MessageBox extends MessageBoxNoSync implements RemoteMessageBox {
      * @throws InterruptedException if read message fail
      */
     @Override
-    public synchronized Message readMessage() throws InterruptedException, JAMMessageBoxException {
+    public Message readMessage() throws InterruptedException, JAMMessageBoxException {
         return readMessage(new GenericAgentID());
     }
 
@@ -107,18 +200,12 @@ public class MessageBox extends MessageBoxNoSync implements RemoteMessageBox {
      * @throws InterruptedException if read message fail
      */
     @Override
-    public synchronized Message readMessage(AgentID agentID) throws InterruptedException, JAMMessageBoxException {
+    public Message readMessage(AgentID agentID) throws InterruptedException, JAMMessageBoxException {
         if (agentID == null) {
             throw new IllegalArgumentException("Wrong parameters");
         }
 
-        while ( ! isThereMessage(agentID)) {
-//            it.francescosantagati.jam.Log.e(this, "Waiting a message from " + agentID.toString());
-            wait();
-        }
-        notifyAll();
-
-        return super.readMessage(agentID);
+        return awaitMessage(agentID, null, -1L);
     }
 
     /**
@@ -130,18 +217,12 @@ public class MessageBox extends MessageBoxNoSync implements RemoteMessageBox {
      * @throws InterruptedException if read message fail
      */
     @Override
-    public synchronized Message readMessage(Performative performative) throws InterruptedException, JAMMessageBoxException {
+    public Message readMessage(Performative performative) throws InterruptedException, JAMMessageBoxException {
         if (performative == null) {
             throw new IllegalArgumentException("Wrong parameters");
         }
 
-        while ( ! isThereMessage(performative)) {
-//            it.francescosantagati.jam.Log.e(this, "Waiting a message with " + performative.toString() + " type");
-            wait();
-        }
-        notifyAll();
-
-        return super.readMessage(performative);
+        return awaitMessage(null, performative, -1L);
     }
 
     /**
@@ -154,49 +235,188 @@ public class MessageBox extends MessageBoxNoSync implements RemoteMessageBox {
      * @throws InterruptedException if read message fail
      */
     @Override
-    public synchronized Message readMessage(AgentID agentID, Performative performative) throws InterruptedException, JAMMessageBoxException {
+    public Message readMessage(AgentID agentID, Performative performative) throws InterruptedException, JAMMessageBoxException {
         if (agentID == null || performative == null) {
             throw new IllegalArgumentException("Wrong parameters");
         }
 
-        while ( ! isThereMessage(agentID, performative)) {
-//            it.francescosantagati.jam.Log.e(this, "Waiting a message from " + agentID.toString() + " and with " + performative.toString() + " type");
-            wait();
+        return awaitMessage(agentID, performative, -1L);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public Message readMessage(AgentID agentID, Performative performative, long timeout, TimeUnit unit) throws InterruptedException {
+        if (timeout < 0 || unit == null) {
+            throw new IllegalArgumentException("Wrong parameters");
         }
-        notifyAll();
 
-        return super.readMessage(agentID, performative);
+        return awaitMessage(agentID, performative, unit.toNanos(timeout));
     }
 
     /**
      * {@inheritDoc}
      */
     @Override
-    public synchronized boolean isThereMessage() {
-        return super.isThereMessage();
+    public int drainTo(AgentID agentID, Performative performative, Collection<? super Message> messages, int max) {
+        if (messages == null) {
+            throw new IllegalArgumentException("Wrong parameters");
+        }
+
+        lock.lock();
+        try {
+            int count = 0;
+            Message message;
+            while (count < max && (message = poll(agentID, performative)) != null) {
+                messages.add(message);
+                count++;
+            }
+            return count;
+        } finally {
+            lock.unlock();
+        }
     }
 
     /**
      * {@inheritDoc}
      */
     @Override
-    public synchronized boolean isThereMessage(AgentID agentID) {
-        return super.isThereMessage(agentID);
+    public void addMessageBoxListener(MessageBoxListener listener) {
+        if (listener == null) {
+            throw new IllegalArgumentException("Wrong parameters");
+        }
+
+        lock.lock();
+        try {
+            waiters.addListener(listener);
+        } finally {
+            lock.unlock();
+        }
     }
 
     /**
      * {@inheritDoc}
      */
     @Override
-    public synchronized boolean isThereMessage(AgentID agentID, Performative performative) {
-        return super.isThereMessage(agentID, performative);
+    public void removeMessageBoxListener(MessageBoxListener listener) {
+        lock.lock();
+        try {
+            waiters.removeListener(listener);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public boolean isThereMessage() {
+        lock.lock();
+        try {
+            return super.isThereMessage();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public boolean isThereMessage(AgentID agentID) {
+        lock.lock();
+        try {
+            return super.isThereMessage(agentID);
+        } finally {
+            lock.unlock();
+        }
     }
 
     /**
      * {@inheritDoc}
      */
     @Override
-    public synchronized boolean isThereMessage(Performative performative) {
-        return super.isThereMessage(performative);
+    public boolean isThereMessage(AgentID agentID, Performative performative) {
+        lock.lock();
+        try {
+            return super.isThereMessage(agentID, performative);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public boolean isThereMessage(Performative performative) {
+        lock.lock();
+        try {
+            return super.isThereMessage(performative);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Block until a message matching the filter is available, then retrieve and delete it.
+     *
+     * @param agentID      Sender filter, null matches every sender
+     * @param performative it.francescosantagati.jam.Performative filter, null matches every performative
+     * @param nanos        Max time to wait in nanoseconds, negative to wait forever
+     * @return message or null if timeout expired
+     * @throws InterruptedException if thread is interrupted while waiting
+     */
+    private Message awaitMessage(AgentID agentID, Performative performative, long nanos) throws InterruptedException {
+        long start = System.nanoTime();
+        lock.lock();
+        try {
+            Message message = poll(agentID, performative);
+            if (message != null) {
+                metrics.received(start);
+            }
+            if (message != null || nanos == 0L) {
+                return message;
+            }
+
+            MessageWaiters.Waiter waiter = waiters.register(agentID, performative);
+            try {
+                while (message == null && nanos != 0L) {
+//                    it.francescosantagati.jam.Log.e(this, "Waiting a message from " + agentID + " and with " + performative + " type");
+                    if (nanos < 0L) {
+                        waiter.await();
+                    } else {
+                        nanos = Math.max(0L, waiter.awaitNanos(nanos));
+                    }
+                    message = poll(agentID, performative);
+                }
+                if (message != null) {
+                    metrics.received(start);
+                }
+                return message;
+            } finally {
+                waiters.unregister(waiter, message);
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Retrieve and delete the oldest message matching the filter, looking at spilled messages too,
+     * then make room for spilled messages and blocked senders. Must be called holding the lock.
+     * Spilled messages have already been signalled when they were written.
+     */
+    private Message poll(AgentID agentID, Performative performative) {
+        Message message = box.poll(agentID, performative);
+        if (message == null) {
+            return pollSpilled(agentID, performative);
+        }
+        dequeued(message);
+        refill();
+        notFull.signal();
+        return message;
     }
 }
@@ -0,0 +1,185 @@
+package it.francescosantagati.jam;
+
+import java.rmi.RemoteException;
+import java.rmi.server.UnicastRemoteObject;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Client side cache of {@link ADSL#getRemoteMessageBox(AgentID)} results, keyed by receiver.
+ * <p>Entries expire after a time to live and the least recently used entry is evicted when the cache is full.
+ * The cache is registered on the {@link ADSL} as a {@link DirectoryListener}: every entry whose receiver
+ * matches an inserted or removed message box owner is invalidated, as soon as the ADSL reports the change.</p>
+ * <p>Message boxes that live in this JVM are cached as local objects, according to {@link LocalDelivery}.</p>
+ *
+ * @author Francesco Santagati
+ */
+public class MessageBoxCache extends UnicastRemoteObject implements DirectoryListener {
+
+    private static final long serialVersionUID = 1L;
+
+    /**
+     * Default max number of entries.
+     */
+    public static final int MAX_ENTRIES = 1024;
+
+    /**
+     * Default time to live of an entry, in seconds.
+     */
+    public static final long TTL_SECONDS = 60;
+
+    private final int maxEntries;
+    private final long ttlNanos;
+    private final Map<String, CacheEntry> entries;
+    private long version;
+    private volatile LocalDelivery localDelivery;
+
+    /**
+     * Construct a cache with default params.
+     *
+     * @throws RemoteException when fail to export the listener
+     */
+    public MessageBoxCache() throws RemoteException {
+        this(MAX_ENTRIES, TTL_SECONDS, TimeUnit.SECONDS);
+    }
+
+    /**
+     * Construct a cache with params specified.
+     *
+     * @param maxEntries Max number of entries
+     * @param ttl        Time to live of an entry
+     * @param unit       Time unit of ttl
+     * @throws RemoteException when fail to export the listener
+     */
+    public MessageBoxCache(int maxEntries, long ttl, TimeUnit unit) throws RemoteException {
+        if (maxEntries <= 0 || ttl < 0 || unit == null) {
+            throw new IllegalArgumentException("Wrong parameters");
+        }
+        this.maxEntries = maxEntries;
+        this.ttlNanos = unit.toNanos(ttl);
+        this.localDelivery = LocalDelivery.BY_REFERENCE;
+        this.entries = new LinkedHashMap<String, CacheEntry>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, CacheEntry> eldest) {
+                return size() > MessageBoxCache.this.maxEntries;
+            }
+        };
+    }
+
+    /**
+     * Set how message boxes of this JVM are delivered to. Every entry is removed.
+     *
+     * @param localDelivery it.francescosantagati.jam.LocalDelivery
+     */
+    public void setLocalDelivery(LocalDelivery localDelivery) {
+        if (localDelivery == null) {
+            throw new IllegalArgumentException("Wrong parameters");
+        }
+        this.localDelivery = localDelivery;
+        clear();
+    }
+
+    /**
+     * Provide message boxes of receiver, asking them to the {@link ADSL} only if not cached.
+     *
+     * @param adsl     it.francescosantagati.jam.ADSL to ask on cache miss
+     * @param receiver Receiver of a message
+     * @return A {@link RemoteMessageBox} list.
+     * @throws RemoteException when fail to connect
+     */
+    public List<RemoteMessageBox> lookup(ADSL adsl, AgentID receiver) throws RemoteException {
+        String key = key(receiver);
+        long lookupVersion;
+        synchronized (this) {
+            CacheEntry entry = entries.get(key);
+            if (entry != null) {
+                if (System.nanoTime() - entry.created < ttlNanos) {
+                    return entry.boxes;
+                }
+                entries.remove(key);
+            }
+            lookupVersion = version;
+        }
+
+        // The lock is not held while asking the ADSL, that may call us back
+        List<RemoteMessageBox> boxes = Collections.unmodifiableList(
+                LocalMessageBoxes.resolve(adsl.getRemoteMessageBox(receiver), localDelivery));
+
+        synchronized (this) {
+            // Do not cache a result that may miss a directory change happened meanwhile
+            if (lookupVersion == version) {
+                entries.put(key, new CacheEntry(receiver, boxes));
+            }
+        }
+        return boxes;
+    }
+
+    /**
+     * Remove the entry of receiver, e.g. because one of its message boxes is no more reachable.
+     *
+     * @param receiver Receiver of a message
+     */
+    public synchronized void invalidate(AgentID receiver) {
+        entries.remove(key(receiver));
+        version++;
+    }
+
+    /**
+     * Remove every entry.
+     */
+    public synchronized void clear() {
+        entries.clear();
+        version++;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void onMessageBoxesChanged(List<AgentID> inserted, List<AgentID> removed) {
+        invalidateMatching(inserted, removed);
+    }
+
+    private synchronized void invalidateMatching(List<AgentID> inserted, List<AgentID> removed) {
+        Iterator<CacheEntry> it = entries.values().iterator();
+        while (it.hasNext()) {
+            AgentID receiver = it.next().receiver;
+            if (matches(receiver, inserted) || matches(receiver, removed)) {
+                it.remove();
+            }
+        }
+        version++;
+    }
+
+    private static boolean matches(AgentID receiver, List<AgentID> owners) {
+        for (AgentID owner : owners) {
+            if (receiver.equals(owner)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * {@link AgentID} implementations do not define hashCode, so the key is built from type, name and category.
+     */
+    private static String key(AgentID agentID) {
+        return agentID.getClass().getName() + "|" + agentID.getName() + "|" + agentID.getCategory();
+    }
+
+    private static final class CacheEntry {
+        private final AgentID receiver;
+        private final List<RemoteMessageBox> boxes;
+        private final long created;
+
+        private CacheEntry(AgentID receiver, List<RemoteMessageBox> boxes) {
+            this.receiver = receiver;
+            this.boxes = boxes;
+            this.created = System.nanoTime();
+        }
+    }
+}
@@ -0,0 +1,228 @@
+package it.francescosantagati.jam;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ConcurrentNavigableMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+
+/**
+ * Directory of the message boxes registered on an {@link ADSLImpl}.
+ * <p>The owner of a message box is read once, when it is inserted, and kept next to the stub.
+ * Owners that are {@link PersonalAgentID} are indexed by name and category, by category and by name,
+ * so a lookup only walks the boxes it returns. Any other owner type may define its own matching rule:
+ * those few owners are checked one by one, still without calling the remote message box.</p>
+ * <p>Lookups return boxes in insertion order and never lock. Every index is a concurrent map whose buckets are
+ * immutable arrays: a write replaces only the buckets of the owner it inserts or removes, so it costs as much
+ * as the size of those buckets, not of the whole directory. Writes are serialized among themselves.</p>
+ *
+ * @author Francesco Santagati
+ */
+final class MessageBoxDirectory {
+
+    private static final Entry[] EMPTY = new Entry[0];
+
+    private static final Comparator<Entry> INSERTION_ORDER = new Comparator<Entry>() {
+        @Override
+        public int compare(Entry e1, Entry e2) {
+            return e1.sequence < e2.sequence ? -1 : (e1.sequence == e2.sequence ? 0 : 1);
+        }
+    };
+
+    private final ConcurrentMap<RemoteMessageBox, Entry> entries;
+    private final ConcurrentMap<List<String>, Entry[]> byNameCategory;
+    private final ConcurrentMap<String, Entry[]> byCategory;
+    private final ConcurrentMap<String, Entry[]> byName;
+    private final ConcurrentNavigableMap<Long, Entry> personal;
+    private final ConcurrentNavigableMap<Long, Entry> others;
+    private long sequence;
+
+    /**
+     * Construct an empty directory.
+     */
+    MessageBoxDirectory() {
+        entries = new ConcurrentHashMap<>();
+        byNameCategory = new ConcurrentHashMap<>();
+        byCategory = new ConcurrentHashMap<>();
+        byName = new ConcurrentHashMap<>();
+        personal = new ConcurrentSkipListMap<>();
+        others = new ConcurrentSkipListMap<>();
+    }
+
+    /**
+     * @return number of message boxes
+     */
+    int size() {
+        return entries.size();
+    }
+
+    /**
+     * Insert a message box, unless it is already in the directory.
+     *
+     * @param box   Message box stub
+     * @param owner Owner of the message box
+     * @return True if inserted. False if box is already in the directory.
+     */
+    synchronized boolean insert(RemoteMessageBox box, AgentID owner) {
+        if (entries.containsKey(box)) {
+            return false;
+        }
+
+        Entry entry = new Entry(box, owner, sequence++);
+        if (isIndexed(owner)) {
+            add(byNameCategory, Arrays.asList(owner.getName(), owner.getCategory()), entry);
+            add(byCategory, owner.getCategory(), entry);
+            add(byName, owner.getName(), entry);
+            personal.put(entry.sequence, entry);
+        } else {
+            others.put(entry.sequence, entry);
+        }
+        entries.put(box, entry);
+        return true;
+    }
+
+    /**
+     * Provide message boxes whose owner matches agentID, with the semantics of {@link AgentID#equals(AgentID)}.
+     *
+     * @param agentID it.francescosantagati.jam.AgentID to look for
+     * @return A {@link RemoteMessageBox} list.
+     */
+    List<RemoteMessageBox> lookup(AgentID agentID) {
+        List<Entry> matches = match(agentID);
+        List<RemoteMessageBox> boxes = new ArrayList<>(matches.size());
+        for (Entry entry : matches) {
+            boxes.add(entry.box);
+        }
+        return boxes;
+    }
+
+    /**
+     * Remove the oldest message box whose owner matches agentID.
+     *
+     * @param agentID it.francescosantagati.jam.AgentID to look for
+     * @return owner of the message box removed, null if not found
+     */
+    synchronized AgentID remove(AgentID agentID) {
+        List<Entry> matches = match(agentID);
+        if (matches.isEmpty()) {
+            return null;
+        }
+
+        Entry entry = matches.get(0);
+        entries.remove(entry.box);
+        AgentID owner = entry.owner;
+        if (isIndexed(owner)) {
+            remove(byNameCategory, Arrays.asList(owner.getName(), owner.getCategory()), entry);
+            remove(byCategory, owner.getCategory(), entry);
+            remove(byName, owner.getName(), entry);
+            personal.remove(entry.sequence);
+        } else {
+            others.remove(entry.sequence);
+        }
+        return owner;
+    }
+
+    private List<Entry> match(AgentID agentID) {
+        String name = agentID.getName();
+        String category = agentID.getCategory();
+        if (name == null || category == null) {
+            List<Entry> matches = scan(agentID, entries.values());
+            Collections.sort(matches, INSERTION_ORDER);
+            return matches;
+        }
+
+        List<Entry> candidates;
+        if (!name.equals(AgentID.GENERIC_VALUE) && !category.equals(AgentID.GENERIC_VALUE)) {
+            candidates = get(byNameCategory, Arrays.asList(name, category));
+        } else if (!category.equals(AgentID.GENERIC_VALUE)) {
+            candidates = get(byCategory, category);
+        } else if (!name.equals(AgentID.GENERIC_VALUE)) {
+            candidates = get(byName, name);
+        } else {
+            candidates = new ArrayList<>(personal.values());
+        }
+
+        if (others.isEmpty()) {
+            return candidates;
+        }
+
+        List<Entry> matches = scan(agentID, others.values());
+        if (matches.isEmpty()) {
+            return candidates;
+        }
+        matches.addAll(candidates);
+        Collections.sort(matches, INSERTION_ORDER);
+        return matches;
+    }
+
+    private static List<Entry> scan(AgentID agentID, Collection<Entry> entries) {
+        List<Entry> matches = new ArrayList<>();
+        for (Entry entry : entries) {
+            if (entry.owner.equals(agentID)) {
+                matches.add(entry);
+            }
+        }
+        return matches;
+    }
+
+    /**
+     * Only {@link PersonalAgentID} matching rule is known in advance, subclasses may override it.
+     */
+    private static boolean isIndexed(AgentID owner) {
+        return owner.getClass() == PersonalAgentID.class && owner.getName() != null && owner.getCategory() != null;
+    }
+
+    private static <K> List<Entry> get(ConcurrentMap<K, Entry[]> index, K key) {
+        Entry[] bucket = index.get(key);
+        return bucket == null ? new ArrayList<Entry>(0) : new ArrayList<>(Arrays.asList(bucket));
+    }
+
+    /**
+     * Must be called by a writer: the bucket is replaced, never modified.
+     */
+    private static <K> void add(ConcurrentMap<K, Entry[]> index, K key, Entry entry) {
+        Entry[] bucket = index.get(key);
+        if (bucket == null) {
+            bucket = EMPTY;
+        }
+        Entry[] copy = Arrays.copyOf(bucket, bucket.length + 1);
+        copy[bucket.length] = entry;
+        index.put(key, copy);
+    }
+
+    private static <K> void remove(ConcurrentMap<K, Entry[]> index, K key, Entry entry) {
+        Entry[] bucket = index.get(key);
+        if (bucket == null) {
+            return;
+        }
+        int position = Arrays.asList(bucket).indexOf(entry);
+        if (position < 0) {
+            return;
+        }
+        if (bucket.length == 1) {
+            index.remove(key);
+            return;
+        }
+        Entry[] copy = new Entry[bucket.length - 1];
+        System.arraycopy(bucket, 0, copy, 0, position);
+        System.arraycopy(bucket, position + 1, copy, position, copy.length - position);
+        index.put(key, copy);
+    }
+
+    private static final class Entry {
+        private final RemoteMessageBox box;
+        private final AgentID owner;
+        private final long sequence;
+
+        private Entry(RemoteMessageBox box, AgentID owner, long sequence) {
+            this.box = box;
+            this.owner = owner;
+            this.sequence = sequence;
+        }
+    }
+}
@@ -0,0 +1,19 @@
+package it.francescosantagati.jam;
+
+/**
+ * Interface definition for a callback to be invoked when a message becomes readable in an {@link AgentMessageBox}.
+ * <p>The callback is invoked holding the lock of the message box: it must return quickly, without blocking
+ * and without reading the message box, e.g. handing the work over to another thread.</p>
+ *
+ * @author Francesco Santagati
+ */
+public interface MessageBoxListener {
+
+    /**
+     * Called when a message becomes readable. It may already be taken by another reader when the callback
+     * reads the message box.
+     *
+     * @param message it.francescosantagati.jam.Message
+     */
+    void onMessageArrived(Message message);
+}
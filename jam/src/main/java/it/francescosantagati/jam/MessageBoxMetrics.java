@@ -0,0 +1,122 @@
+package it.francescosantagati.jam;
+
+/**
+ * Runtime metrics of a message box: depth, enqueued, dequeued and dropped messages, time waited by receivers.
+ *
+ * @author Francesco Santagati
+ */
+public final class MessageBoxMetrics extends MetricSet implements MessageBoxMetricsMBean {
+
+    private final MessageBoxNoSync<?> messageBox;
+    private final Meter enqueued;
+    private final Meter dequeued;
+    private final Histogram receiveWait;
+
+    /**
+     * @param messageBox Measured message box
+     */
+    MessageBoxMetrics(MessageBoxNoSync<?> messageBox) {
+        super("MessageBox", messageBox.getOwner() == null ? "unknown" : name(messageBox.getOwner()));
+        this.messageBox = messageBox;
+        enqueued = new Meter();
+        dequeued = new Meter();
+        receiveWait = new Histogram();
+    }
+
+    /**
+     * Name of a component owned by an agent.
+     *
+     * @param owner Agent id
+     * @return name:category
+     */
+    static String name(AgentID owner) {
+        return owner.getName() + ":" + owner.getCategory();
+    }
+
+    void enqueued() {
+        enqueued.mark();
+    }
+
+    void dequeued() {
+        dequeued.mark();
+    }
+
+    /**
+     * Record the time waited by a blocking read that returned a message.
+     *
+     * @param startNanos {@link System#nanoTime()} when the read started
+     */
+    void received(long startNanos) {
+        receiveWait.record(System.nanoTime() - startNanos);
+    }
+
+    @Override
+    public int getDepth() {
+        return messageBox.depth();
+    }
+
+    @Override
+    public int getCapacity() {
+        return messageBox.maxMessages;
+    }
+
+    @Override
+    public long getEnqueuedCount() {
+        return enqueued.getCount();
+    }
+
+    @Override
+    public double getEnqueueRate() {
+        return enqueued.getOneMinuteRate();
+    }
+
+    @Override
+    public long getDequeuedCount() {
+        return dequeued.getCount();
+    }
+
+    @Override
+    public double getDequeueRate() {
+        return dequeued.getOneMinuteRate();
+    }
+
+    @Override
+    public long getDroppedCount() {
+        return messageBox.getDroppedMessages();
+    }
+
+    @Override
+    public long getReceiveCount() {
+        return receiveWait.getCount();
+    }
+
+    @Override
+    public double getReceiveWaitMean() {
+        return receiveWait.getMean();
+    }
+
+    @Override
+    public long getReceiveWait50thPercentile() {
+        return receiveWait.getValueAtPercentile(50);
+    }
+
+    @Override
+    public long getReceiveWait99thPercentile() {
+        return receiveWait.getValueAtPercentile(99);
+    }
+
+    @Override
+    public long getReceiveWaitMax() {
+        return receiveWait.getMax();
+    }
+
+    @Override
+    void render(StringBuilder out) {
+        gauge(out, "depth", getDepth());
+        gauge(out, "capacity", getCapacity());
+        meter(out, "enqueued", enqueued);
+        meter(out, "dequeued", dequeued);
+        gauge(out, "dropped_total", getDroppedCount());
+        histogram(out, "receive_wait_nanoseconds", receiveWait);
+    }
+}
@@ -0,0 +1,69 @@
+package it.francescosantagati.jam;
+
+/**
+ * Management interface of {@link MessageBoxMetrics}. Durations are in nanoseconds, rates are per second.
+ *
+ * @author Francesco Santagati
+ */
+public interface MessageBoxMetricsMBean {
+
+    /**
+     * @return number of messages in the box, including messages spilled to disk
+     */
+    int getDepth();
+
+    /**
+     * @return max number of messages in the box before the overflow policy is applied
+     */
+    int getCapacity();
+
+    /**
+     * @return number of messages accepted by the box
+     */
+    long getEnqueuedCount();
+
+    /**
+     * @return messages accepted per second over the last minute
+     */
+    double getEnqueueRate();
+
+    /**
+     * @return number of messages read from the box
+     */
+    long getDequeuedCount();
+
+    /**
+     * @return messages read per second over the last minute
+     */
+    double getDequeueRate();
+
+    /**
+     * @return number of messages dropped because the box was full
+     */
+    long getDroppedCount();
+
+    /**
+     * @return number of blocking reads that returned a message
+     */
+    long getReceiveCount();
+
+    /**
+     * @return mean time a blocking read waited for its message
+     */
+    double getReceiveWaitMean();
+
+    /**
+     * @return median time a blocking read waited for its message
+     */
+    long getReceiveWait50thPercentile();
+
+    /**
+     * @return 99th percentile of the time a blocking read waited for its message
+     */
+    long getReceiveWait99thPercentile();
+
+    /**
+     * @return longest time a blocking read waited for its message
+     */
+    long getReceiveWaitMax();
+}
@@ -1,10 +1,11 @@
 package it.francescosantagati.jam;
 
+import java.io.File;
+import java.io.IOException;
 import java.rmi.RemoteException;
 import java.rmi.server.UnicastRemoteObject;
-import java.util.ArrayList;
-import java.util.List;
-import java.util.ListIterator;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * A no-synchronized mailbox remotely accessible and belonging to a particular agent.
@@ -16,7 +17,12 @@ public class MessageBoxNoSync<E extends Message> extends UnicastRemoteObject {
 
     protected int maxMessages;
     protected AgentID owner;
-    protected List<E> box;
+    protected MessageIndex<E> box;
+    protected OverflowPolicy overflowPolicy;
+    protected MessageSpill<E> spill;
+    protected final MessageBoxMetrics metrics;
+    private final AtomicLong droppedMessages = new AtomicLong();
+    private volatile MessageJournal journal;
 
     /**
      * Construct a message box with a max message limit.
@@ -36,9 +42,29 @@ public class MessageBoxNoSync<E extends Message> extends UnicastRemoteObject {
      * @throws RemoteException when fail to connect
      */
     public MessageBoxNoSync(AgentID owner, int maxMessages) throws RemoteException {
+        this(owner, maxMessages, OverflowPolicy.dropNewest());
+    }
+
+    /**
+     * Construct a message box with a max message limit and the policy to apply when it is full.
+     *
+     * @param owner          Agent ID
+     * @param maxMessages    Max message number
+     * @param overflowPolicy Policy applied when box is full
+     * @throws RemoteException when fail to connect
+     */
+    public MessageBoxNoSync(AgentID owner, int maxMessages, OverflowPolicy overflowPolicy) throws RemoteException {
+        if (overflowPolicy == null) {
+            throw new IllegalArgumentException("Wrong parameters");
+        }
         this.owner = owner;
         this.maxMessages = maxMessages;
-        box = new ArrayList<>(maxMessages);
+        this.overflowPolicy = overflowPolicy;
+        box = new MessageIndex<>();
+        if (overflowPolicy.getType() == OverflowPolicy.Type.SPILL_TO_DISK) {
+            spill = new MessageSpill<>(overflowPolicy.getDirectory());
+        }
+        metrics = new MessageBoxMetrics(this);
     }
 
     /**
@@ -63,7 +89,37 @@ public class MessageBoxNoSync<E extends Message> extends UnicastRemoteObject {
      * @return Trus if is full. False otherwise
      */
     public boolean isBoxFull() {
-        return maxMessages == box.size();
+        return box.size() >= maxMessages;
+    }
+
+    /**
+     * @return policy applied when box is full
+     */
+    public OverflowPolicy getOverflowPolicy() {
+        return overflowPolicy;
+    }
+
+    /**
+     * @return number of messages dropped because box was full
+     */
+    public long getDroppedMessages() {
+        return droppedMessages.get();
+    }
+
+    /**
+     * @return runtime metrics of this message box
+     */
+    public MessageBoxMetrics getMetrics() {
+        return metrics;
+    }
+
+    /**
+     * Number of messages in the box, read without synchronization by {@link MessageBoxMetrics}.
+     *
+     * @return messages in the box and spilled to disk
+     */
+    protected int depth() {
+        return box.size() + (spill == null ? 0 : spill.size());
     }
 
     /**
@@ -77,13 +133,308 @@ public class MessageBoxNoSync<E extends Message> extends UnicastRemoteObject {
         if (element == null) {
             throw new IllegalArgumentException("Wrong parameters");
         }
-        if (isBoxFull()) {
+        store(element);
+    }
+
+    /**
+     * Insert an element applying the overflow policy when box is full.
+     * A blocking policy is not applied here: box is reported as full.
+     *
+     * @param element An element
+     * @return True if element can be read now, also when it has been spilled to disk. False if it has been dropped.
+     * @throws JAMMessageBoxException if message box is full and policy does not allow to insert
+     */
+    protected boolean store(E element) throws JAMMessageBoxException {
+        if (!isSpilling() && !isBoxFull()) {
+            return insert(element);
+        }
+        return overflow(element);
+    }
+
+    /**
+     * Journal an element, then insert it in the box.
+     *
+     * @param element An element
+     * @return True if inserted. False if it has been dropped because it can not be journaled.
+     */
+    protected boolean insert(E element) {
+        try {
+            box.add(element, enqueued(element));
+            return true;
+        } catch (IOException e) {
+            unjournaled(element, e);
+            return false;
+        }
+    }
+
+    /**
+     * Insert an element that found the box full, applying the overflow policy.
+     *
+     * @param element An element
+     * @return True if element can be read now, also when it has been spilled to disk. False if it has been dropped.
+     * @throws JAMMessageBoxException if policy does not allow to insert
+     */
+    protected boolean overflow(E element) throws JAMMessageBoxException {
+        OverflowPolicy.Type type = overflowPolicy.getType();
+        if (type != OverflowPolicy.Type.GROW && type != OverflowPolicy.Type.DROP_OLDEST
+                && type != OverflowPolicy.Type.SPILL_TO_DISK) {
             throw new JAMMessageBoxException("it.francescosantagati.jam.Message box is full");
         }
-        box.add(element);
+
+        // Journaled first, so that the oldest element is not dropped for an element that is then rejected
+        long sequence;
+        try {
+            sequence = enqueued(element);
+        } catch (IOException e) {
+            unjournaled(element, e);
+            return false;
+        }
+
+        switch (type) {
+            case DROP_OLDEST:
+                E oldest = box.pollFirst();
+                if (oldest != null) {
+                    dropped(oldest);
+                    acknowledge(box.removedJournalSequence());
+                }
+                box.add(element, sequence);
+                return true;
+
+            case SPILL_TO_DISK:
+                try {
+                    spill.append(element, sequence);
+                    return true;
+                } catch (IOException e) {
+                    Log.e(this, e.getMessage());
+                    dropped(element);
+                    acknowledge(sequence);
+                    return false;
+                }
+
+            default:
+                box.add(element, sequence);
+                return true;
+        }
+    }
+
+    /**
+     * Move the oldest spilled message back into the box, if there is room.
+     *
+     * @return moved message or null
+     */
+    protected E refill() {
+        if (!isSpilling() || isBoxFull()) {
+            return null;
+        }
+        return unspill();
+    }
+
+    /**
+     * Move the oldest spilled message back into the box, also if it is full.
+     *
+     * @return moved message or null
+     */
+    protected E unspill() {
+        try {
+            E element = spill.poll();
+            box.add(element, spill.polledJournalSequence());
+            return element;
+        } catch (IOException e) {
+            Log.e(this, e.getMessage());
+            return null;
+        }
+    }
+
+    /**
+     * @return True if some message is waiting on disk. False otherwise.
+     */
+    protected boolean isSpilling() {
+        return spill != null && !spill.isEmpty();
+    }
+
+    /**
+     * Retrieve and delete the oldest spilled message matching the filter, accounted as read.
+     * Spilled messages are newer than the messages in the box: it is called when the box has no match,
+     * so that a selective read is not blocked by a box full of messages the reader does not want.
+     *
+     * @param agentID      Sender filter, null matches every sender
+     * @param performative it.francescosantagati.jam.Performative filter, null matches every performative
+     * @return message or null if not found
+     */
+    protected E pollSpilled(AgentID agentID, Performative performative) {
+        if (!isSpilling()) {
+            return null;
+        }
+        try {
+            E element = spill.poll(agentID, performative);
+            if (element != null) {
+                metrics.dequeued();
+                acknowledge(spill.polledJournalSequence());
+            }
+            return element;
+        } catch (IOException e) {
+            Log.e(this, e.getMessage());
+            return null;
+        }
+    }
+
+    /**
+     * Check if a spilled message matches the filter, without reading the disk.
+     *
+     * @param agentID      Sender filter, null matches every sender
+     * @param performative it.francescosantagati.jam.Performative filter, null matches every performative
+     * @return True if message found, false otherwise
+     */
+    protected boolean isSpilled(AgentID agentID, Performative performative) {
+        return isSpilling() && spill.contains(agentID, performative);
+    }
+
+    /**
+     * Count a message that has been dropped because box was full.
+     *
+     * @param element Dropped element
+     */
+    protected void dropped(E element) {
+        droppedMessages.incrementAndGet();
+        Log.e(this, "Box of {} is full, dropped message from {}", owner, element.getSender());
+    }
+
+    /**
+     * Count a message that has been dropped because it can not be appended to the journal:
+     * accepting it would break the promise of recovering it after a crash.
+     *
+     * @param element Dropped element
+     * @param e       Journal failure
+     */
+    protected void unjournaled(E element, IOException e) {
+        droppedMessages.incrementAndGet();
+        Log.e(this, "Box of {} can not journal message from {}, dropped: {}", owner, element.getSender(), e.getMessage());
+    }
+
+    /**
+     * Account a message accepted by the box, before readers can see it: it is appended to the journal, if any.
+     * The sequence returned MUST be stored with the element, and is acknowledged when the element leaves the box.
+     *
+     * @param element Accepted element
+     * @return sequence of the journal record, {@link MessageJournal#NONE} if box has no journal
+     * @throws IOException when fail to journal: the element MUST NOT be inserted, see {@link #unjournaled}
+     */
+    protected long enqueued(E element) throws IOException {
+        MessageJournal journal = this.journal;
+        long sequence = journal == null ? MessageJournal.NONE : journal.append(element);
+        metrics.enqueued();
+        return sequence;
+    }
+
+    /**
+     * Account a message read from the box: its record is acknowledged in the journal, if any.
+     * It MUST be called right after the element is removed from {@link #box}.
+     *
+     * @param element Read element
+     */
+    protected void dequeued(E element) {
+        metrics.dequeued();
+        acknowledge(box.removedJournalSequence());
+    }
+
+    private void acknowledge(long sequence) {
+        MessageJournal journal = this.journal;
+        if (journal != null && sequence != MessageJournal.NONE) {
+            try {
+                journal.acknowledge(sequence);
+            } catch (IOException e) {
+                Log.e(this, e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * Wait until the messages accepted so far are on disk, if box has a journal.
+     * Writers call it after releasing the box, so that concurrent writers share a single fsync.
+     */
+    protected void syncJournal() {
+        MessageJournal journal = this.journal;
+        if (journal != null) {
+            try {
+                journal.sync();
+            } catch (IOException e) {
+                Log.e(this, e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * Journal the messages accepted by this box into a memory-mapped file of the directory provided,
+     * after inserting in the box the messages that the file holds and that were never read, e.g. because the JVM
+     * crashed. Recovered messages are inserted even beyond the max message limit.
+     * It MUST be called before the box is used: {@link JAMAgent#init()} calls it when a journal is set.
+     *
+     * @param directory Directory of the journal files, shared by many message boxes
+     * @return number of recovered messages
+     * @throws IOException when fail to read or create the journal
+     */
+    @SuppressWarnings("unchecked")
+    public int openJournal(File directory) throws IOException {
+        if (directory == null) {
+            throw new IllegalArgumentException("Wrong parameters");
+        }
+        if (journal != null) {
+            throw new IllegalStateException("Journal already open");
+        }
+
+        MessageJournal opened = MessageJournal.open(directory, owner);
+        Map<Long, Message> messages = opened.recover();
+        for (Map.Entry<Long, Message> message : messages.entrySet()) {
+            metrics.enqueued();
+            replay((E) message.getValue(), message.getKey());
+        }
+        journal = opened;
+        return messages.size();
+    }
+
+    /**
+     * Stop journaling. Messages not yet read stay in the journal, and are recovered when it is opened again.
+     */
+    public void closeJournal() {
+        MessageJournal journal = this.journal;
+        if (journal != null) {
+            this.journal = null;
+            journal.close();
+        }
+    }
+
+    /**
+     * Delete the file of the messages spilled to disk, if any. Spilled messages not yet read are lost,
+     * unless the box has a journal: they are recovered when it is opened again.
+     */
+    public void closeSpill() {
+        if (spill != null) {
+            spill.close();
+        }
     }
 
+    /**
+     * Insert a message recovered from the journal.
+     *
+     * @param element         Recovered element
+     * @param journalSequence Sequence of its journal record
+     */
+    protected void replay(E element, long journalSequence) {
+        box.add(element, journalSequence);
+    }
 
+    /**
+     * Retrieve and delete the oldest element matching the filter, then refill the box from disk.
+     */
+    private E poll(AgentID agentID, Performative performative) {
+        E element = box.poll(agentID, performative);
+        if (element == null) {
+            return pollSpilled(agentID, performative);
+        }
+        dequeued(element);
+        refill();
+        return element;
+    }
 
     /**
      * Retrieve and delete from message box the first message sent by agent and with performative provided.
@@ -99,19 +450,14 @@ public class MessageBoxNoSync<E extends Message> extends UnicastRemoteObject {
         if (agentID == null || performative == null) {
             throw new IllegalArgumentException("Wrong parameters");
         }
-        if (box.isEmpty()) {
+        if (depth() == 0) {
             throw new JAMMessageBoxException("it.francescosantagati.jam.Message box is empty");
         }
-        ListIterator<E> it = box.listIterator();
-        while (it.hasNext()) {
-            Message m = it.next();
-            if (agentID.equals(m.getSender()) && m.getPerformative().toString().equals(performative.toString())) {
-                it.remove();
-                return m;
-            }
+        Message m = poll(agentID, performative);
+        if (m == null) {
+            throw new JAMMessageBoxException("it.francescosantagati.jam.Message not found");
         }
-
-        throw new JAMMessageBoxException("it.francescosantagati.jam.Message not found");
+        return m;
     }
 
     /**
@@ -127,19 +473,14 @@ public class MessageBoxNoSync<E extends Message> extends UnicastRemoteObject {
         if (agentID == null) {
             throw new IllegalArgumentException("Wrong parameters");
         }
-        if (box.isEmpty()) {
+        if (depth() == 0) {
             throw new JAMMessageBoxException("it.francescosantagati.jam.Message box is empty");
         }
-        ListIterator<E> it = box.listIterator();
-        while (it.hasNext()) {
-            Message m = it.next();
-            if (agentID.equals(m.getSender())) {
-                it.remove();
-                return m;
-            }
+        Message m = poll(agentID, null);
+        if (m == null) {
+            throw new JAMMessageBoxException("it.francescosantagati.jam.Message not found");
         }
-
-        throw new JAMMessageBoxException("it.francescosantagati.jam.Message not found");
+        return m;
     }
 
     /**
@@ -155,19 +496,14 @@ public class MessageBoxNoSync<E extends Message> extends UnicastRemoteObject {
         if (performative == null) {
             throw new IllegalArgumentException("Wrong parameters");
         }
-        if (box.isEmpty()) {
+        if (depth() == 0) {
             throw new JAMMessageBoxException("it.francescosantagati.jam.Message box is empty");
         }
-        ListIterator<E> it = box.listIterator();
-        while (it.hasNext()) {
-            Message m = it.next();
-            if (m.getPerformative().toString().equals(performative.toString())) {
-                it.remove();
-                return m;
-            }
+        Message m = poll(null, performative);
+        if (m == null) {
+            throw new JAMMessageBoxException("it.francescosantagati.jam.Message not found");
         }
-
-        throw new JAMMessageBoxException("it.francescosantagati.jam.Message not found");
+        return m;
     }
 
     /**
@@ -193,12 +529,7 @@ public class MessageBoxNoSync<E extends Message> extends UnicastRemoteObject {
         if (agentID == null || performative == null) {
             throw new IllegalArgumentException("Wrong parameters");
         }
-        for (E m : box) {
-            if (agentID.equals(m.getSender()) && m.getPerformative().toString().equals(performative.toString())) {
-                return true;
-            }
-        }
-        return false;
+        return box.contains(agentID, performative) || isSpilled(agentID, performative);
     }
 
     /**
@@ -208,12 +539,10 @@ public class MessageBoxNoSync<E extends Message> extends UnicastRemoteObject {
      * @return True if message found, false otherwise
      */
     public boolean isThereMessage(AgentID agentID) {
-        for (E m : box) {
-            if (agentID.equals(m.getSender())) {
-                return true;
-            }
+        if (agentID == null) {
+            throw new IllegalArgumentException("Wrong parameters");
         }
-        return false;
+        return box.contains(agentID, null) || isSpilled(agentID, null);
     }
 
     /**
@@ -223,12 +552,10 @@ public class MessageBoxNoSync<E extends Message> extends UnicastRemoteObject {
      * @return True if message found, false otherwise
      */
     public boolean isThereMessage(Performative performative) {
-        for (E m : box) {
-            if (m.getPerformative().toString().equals(performative.toString())) {
-                return true;
-            }
+        if (performative == null) {
+            throw new IllegalArgumentException("Wrong parameters");
         }
-        return false;
+        return box.contains(null, performative) || isSpilled(null, performative);
     }
 
     /**
@@ -237,6 +564,6 @@ public class MessageBoxNoSync<E extends Message> extends UnicastRemoteObject {
      * @return True if message found, false otherwise
      */
     public boolean isThereMessage() {
-        return ! box.isEmpty();
+        return ! box.isEmpty() || isSpilling();
     }
 }
\ No newline at end of file
@@ -0,0 +1,409 @@
+package it.francescosantagati.jam;
+
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Storage engine of a {@link MessageBoxNoSync}.
+ * <p>Every message is linked at the same time into:</p>
+ * <ul>
+ * <li>a global list that keeps arrival order;
+ * <li>a bucket keyed by {@link Performative};
+ * <li>a bucket keyed by sender category;
+ * <li>a bucket keyed by sender name and category.
+ * </ul>
+ * <p>Every bucket keeps arrival order, so a selective lookup only walks the buckets that can contain
+ * a match and picks the oldest candidate. Removal unlinks a message from all of its buckets in constant time.</p>
+ * <p>A message can be stored with the sequence of its {@link MessageJournal} record, provided by
+ * {@link #removedJournalSequence()} once the message is removed.</p>
+ * <p>This class is not synchronized.</p>
+ *
+ * @author Francesco Santagati
+ */
+class MessageIndex<E extends Message> {
+
+    private static final int ALL = 0;
+    private static final int PERFORMATIVE = 1;
+    private static final int CATEGORY = 2;
+    private static final int SENDER = 3;
+    private static final int LISTS = 4;
+
+    private final Bucket<E> all;
+    private final Bucket<E> unindexed;
+    private final Map<Performative, Bucket<E>> byPerformative;
+    private final Map<String, CategoryBuckets<E>> byCategory;
+    private long sequence;
+    private long removedJournalSequence = MessageJournal.NONE;
+
+    /**
+     * Construct an empty index.
+     */
+    public MessageIndex() {
+        all = new Bucket<>(ALL, null);
+        unindexed = new Bucket<>(SENDER, null);
+        byPerformative = new EnumMap<>(Performative.class);
+        byCategory = new HashMap<>();
+    }
+
+    /**
+     * @return number of messages stored
+     */
+    public int size() {
+        return all.size;
+    }
+
+    /**
+     * @return True if no message is stored. False otherwise.
+     */
+    public boolean isEmpty() {
+        return all.size == 0;
+    }
+
+    /**
+     * Append a message.
+     *
+     * @param message it.francescosantagati.jam.Message
+     */
+    public void add(E message) {
+        add(message, MessageJournal.NONE);
+    }
+
+    /**
+     * Append a message recorded in a journal.
+     *
+     * @param message         it.francescosantagati.jam.Message
+     * @param journalSequence Sequence of the journal record of the message
+     */
+    public void add(E message, long journalSequence) {
+        Node<E> node = new Node<>(message, sequence++, journalSequence);
+        all.append(node);
+
+        Performative performative = message.getPerformative();
+        if (performative != null) {
+            Bucket<E> bucket = byPerformative.get(performative);
+            if (bucket == null) {
+                bucket = new Bucket<>(PERFORMATIVE, performative);
+                byPerformative.put(performative, bucket);
+            }
+            bucket.append(node);
+        }
+
+        AgentID sender = message.getSender();
+        if (sender == null || sender.getName() == null || sender.getCategory() == null) {
+            unindexed.append(node);
+            return;
+        }
+
+        CategoryBuckets<E> category = byCategory.get(sender.getCategory());
+        if (category == null) {
+            category = new CategoryBuckets<>(sender.getCategory());
+            byCategory.put(sender.getCategory(), category);
+        }
+        category.all.append(node);
+        node.category = category;
+
+        Bucket<E> bucket = category.byName.get(sender.getName());
+        if (bucket == null) {
+            bucket = new Bucket<>(SENDER, sender.getName());
+            category.byName.put(sender.getName(), bucket);
+        }
+        bucket.append(node);
+    }
+
+    /**
+     * Retrieve, without removing it, the oldest message sent by agent and with performative provided.
+     *
+     * @param agentID      Sender filter, null matches every sender
+     * @param performative it.francescosantagati.jam.Performative filter, null matches every performative
+     * @return message or null if not found
+     */
+    public E peek(AgentID agentID, Performative performative) {
+        Node<E> node = find(agentID, performative);
+        return node == null ? null : node.message;
+    }
+
+    /**
+     * Retrieve and remove the oldest message sent by agent and with performative provided.
+     *
+     * @param agentID      Sender filter, null matches every sender
+     * @param performative it.francescosantagati.jam.Performative filter, null matches every performative
+     * @return message or null if not found
+     */
+    public E poll(AgentID agentID, Performative performative) {
+        Node<E> node = find(agentID, performative);
+        if (node == null) {
+            return null;
+        }
+        unlink(node);
+        return node.message;
+    }
+
+    /**
+     * Check if a message sent by agent and with performative provided is stored.
+     *
+     * @param agentID      Sender filter, null matches every sender
+     * @param performative it.francescosantagati.jam.Performative filter, null matches every performative
+     * @return True if message found, false otherwise
+     */
+    public boolean contains(AgentID agentID, Performative performative) {
+        return find(agentID, performative) != null;
+    }
+
+    /**
+     * Retrieve and remove the oldest message.
+     *
+     * @return message or null if empty
+     */
+    public E pollFirst() {
+        Node<E> node = all.head;
+        if (node == null) {
+            return null;
+        }
+        unlink(node);
+        return node.message;
+    }
+
+    /**
+     * Sequence of the journal record of the message removed last, by {@link #poll(AgentID, Performative)}
+     * or {@link #pollFirst()}.
+     *
+     * @return sequence or {@link MessageJournal#NONE} if the message is not in a journal
+     */
+    public long removedJournalSequence() {
+        return removedJournalSequence;
+    }
+
+    /**
+     * Provide every stored message in arrival order.
+     *
+     * @return A new list of messages
+     */
+    public List<E> toList() {
+        List<E> list = new ArrayList<>(all.size);
+        for (Node<E> node = all.head; node != null; node = node.next[ALL]) {
+            list.add(node.message);
+        }
+        return list;
+    }
+
+    /**
+     * Remove every message.
+     */
+    public void clear() {
+        while (pollFirst() != null) {
+            // unlink everything so that buckets are released
+        }
+    }
+
+    private Node<E> find(AgentID agentID, Performative performative) {
+        if (all.size == 0) {
+            return null;
+        }
+
+        Bucket<E> performativeBucket = null;
+        if (performative != null) {
+            performativeBucket = byPerformative.get(performative);
+            if (performativeBucket == null) {
+                return null;
+            }
+        }
+
+        List<Bucket<E>> candidates = senderCandidates(agentID);
+
+        if (candidates == null) {
+            return first(performativeBucket != null ? performativeBucket : all, agentID, performative);
+        }
+
+        int candidatesSize = 0;
+        for (Bucket<E> bucket : candidates) {
+            candidatesSize += bucket.size;
+        }
+        if (performativeBucket != null && performativeBucket.size < candidatesSize) {
+            return first(performativeBucket, agentID, performative);
+        }
+
+        Node<E> oldest = null;
+        for (Bucket<E> bucket : candidates) {
+            Node<E> node = first(bucket, agentID, performative);
+            if (node != null && (oldest == null || node.sequence < oldest.sequence)) {
+                oldest = node;
+            }
+        }
+        return oldest;
+    }
+
+    /**
+     * Buckets that together contain every message whose sender can match the filter.
+     * Senders with a generic name or category match more filters, so their buckets are included too.
+     *
+     * @return candidate buckets, or null when the whole box must be scanned
+     */
+    private List<Bucket<E>> senderCandidates(AgentID agentID) {
+        if (agentID == null) {
+            return null;
+        }
+
+        Class<?> type = agentID.getClass();
+        if (type != PersonalAgentID.class && type != CategoryAgentID.class) {
+            return null;
+        }
+
+        List<Bucket<E>> candidates = new ArrayList<>(5);
+        addCandidate(candidates, unindexed);
+
+        String category = agentID.getCategory();
+        if (type == CategoryAgentID.class) {
+            CategoryBuckets<E> buckets = byCategory.get(category);
+            if (buckets != null) {
+                addCandidate(candidates, buckets.all);
+            }
+            if (!AgentID.GENERIC_VALUE.equals(category)) {
+                buckets = byCategory.get(AgentID.GENERIC_VALUE);
+                if (buckets != null) {
+                    addCandidate(candidates, buckets.all);
+                }
+            }
+            return candidates;
+        }
+
+        String name = agentID.getName();
+        addSenderCandidates(candidates, byCategory.get(category), name);
+        if (!AgentID.GENERIC_VALUE.equals(category)) {
+            addSenderCandidates(candidates, byCategory.get(AgentID.GENERIC_VALUE), name);
+        }
+        return candidates;
+    }
+
+    private void addSenderCandidates(List<Bucket<E>> candidates, CategoryBuckets<E> buckets, String name) {
+        if (buckets == null) {
+            return;
+        }
+        addCandidate(candidates, buckets.byName.get(name));
+        if (!AgentID.GENERIC_VALUE.equals(name)) {
+            addCandidate(candidates, buckets.byName.get(AgentID.GENERIC_VALUE));
+        }
+    }
+
+    private void addCandidate(List<Bucket<E>> candidates, Bucket<E> bucket) {
+        if (bucket != null && bucket.size > 0) {
+            candidates.add(bucket);
+        }
+    }
+
+    private Node<E> first(Bucket<E> bucket, AgentID agentID, Performative performative) {
+        for (Node<E> node = bucket.head; node != null; node = node.next[bucket.list]) {
+            Message m = node.message;
+            if ((performative == null || performative == m.getPerformative())
+                    && (agentID == null || agentID.equals(m.getSender()))) {
+                return node;
+            }
+        }
+        return null;
+    }
+
+    private void unlink(Node<E> node) {
+        removedJournalSequence = node.journalSequence;
+        // Keys are taken from the buckets because message fields may have been changed after insertion
+        Bucket<E> performativeBucket = node.owner[PERFORMATIVE];
+        Bucket<E> senderBucket = node.owner[SENDER];
+        CategoryBuckets<E> category = node.category;
+
+        for (int list = 0; list < LISTS; list++) {
+            Bucket<E> bucket = node.owner[list];
+            if (bucket != null) {
+                bucket.unlink(node);
+            }
+        }
+
+        // Drop empty buckets so that short-lived senders do not leak
+        if (performativeBucket != null && performativeBucket.size == 0) {
+            byPerformative.remove((Performative) performativeBucket.key);
+        }
+        if (category != null) {
+            if (senderBucket.size == 0) {
+                category.byName.remove((String) senderBucket.key);
+            }
+            if (category.all.size == 0) {
+                byCategory.remove(category.key);
+            }
+            node.category = null;
+        }
+    }
+
+    private static final class Node<E> {
+        private final E message;
+        private final long sequence;
+        private final long journalSequence;
+        @SuppressWarnings({"unchecked", "rawtypes"})
+        private final Node<E>[] prev = new Node[LISTS];
+        @SuppressWarnings({"unchecked", "rawtypes"})
+        private final Node<E>[] next = new Node[LISTS];
+        @SuppressWarnings({"unchecked", "rawtypes"})
+        private final Bucket<E>[] owner = new Bucket[LISTS];
+        private CategoryBuckets<E> category;
+
+        private Node(E message, long sequence, long journalSequence) {
+            this.message = message;
+            this.sequence = sequence;
+            this.journalSequence = journalSequence;
+        }
+    }
+
+    private static final class Bucket<E> {
+        private final int list;
+        private final Object key;
+        private Node<E> head;
+        private Node<E> tail;
+        private int size;
+
+        private Bucket(int list, Object key) {
+            this.list = list;
+            this.key = key;
+        }
+
+        private void append(Node<E> node) {
+            node.owner[list] = this;
+            node.prev[list] = tail;
+            if (tail == null) {
+                head = node;
+            } else {
+                tail.next[list] = node;
+            }
+            tail = node;
+            size++;
+        }
+
+        private void unlink(Node<E> node) {
+            Node<E> prev = node.prev[list];
+            Node<E> next = node.next[list];
+            if (prev == null) {
+                head = next;
+            } else {
+                prev.next[list] = next;
+            }
+            if (next == null) {
+                tail = prev;
+            } else {
+                next.prev[list] = prev;
+            }
+            node.prev[list] = null;
+            node.next[list] = null;
+            node.owner[list] = null;
+            size--;
+        }
+    }
+
+    private static final class CategoryBuckets<E> {
+        private final String key;
+        private final Bucket<E> all;
+        private final Map<String, Bucket<E>> byName = new HashMap<>();
+
+        private CategoryBuckets(String key) {
+            this.key = key;
+            all = new Bucket<>(CATEGORY, key);
+        }
+    }
+}
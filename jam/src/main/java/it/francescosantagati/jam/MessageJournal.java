@@ -0,0 +1,313 @@
+package it.francescosantagati.jam;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.zip.CRC32;
+
+/**
+ * Append-only write-ahead journal of the messages accepted by a message box, in a memory-mapped file.
+ * <p>Every accepted message is appended as a record before a reader can see it, every consumed or dropped
+ * message as an acknowledgement of its record. The message box keeps the sequence of the record next to the
+ * message, in memory and in the spill file, and acknowledges by sequence. On {@link #open(File, AgentID)} the messages without
+ * acknowledgement are recovered, so after a crash they are delivered again: delivery is at least once.</p>
+ * <p>Appending does not wait for the disk. A writer calls {@link #sync()} after releasing the message box,
+ * and the first writer that finds unsynced records forces them all with a single fsync while the others wait:
+ * concurrent writers share the cost of one fsync (group commit). Acknowledgements are never synced, a lost
+ * one only delivers a message twice. Records of a crashed JVM are in the page cache anyway: fsync protects
+ * them from a crash of the host.</p>
+ * <p>When the file is full the live records are copied into a new file that replaces it, which is the
+ * checkpoint of consumed messages. Records have the form
+ * <code>[type][sequence][length][message][crc]</code>, where the CRC detects a record torn by a crash.</p>
+ *
+ * @author Francesco Santagati
+ */
+final class MessageJournal {
+
+    /**
+     * Initial size of a journal file, doubled while live records do not fit.
+     */
+    static final int SEGMENT_SIZE = 16 * 1024 * 1024;
+
+    /**
+     * Sequence of a message that is not in a journal.
+     */
+    static final long NONE = -1L;
+
+    private static final int MAGIC = 0x4A414D4A;
+    private static final int VERSION = 1;
+    private static final int HEADER = 8;
+    private static final int OVERHEAD = 1 + 8 + 4 + 4;
+    private static final byte MESSAGE = 1;
+    private static final byte ACK = 2;
+
+    private final File file;
+    private final Object syncLock = new Object();
+    private final Map<Long, Integer> live;
+    private final CRC32 crc;
+    private MappedByteBuffer buffer;
+    private long nextSequence;
+    private volatile long appended;
+    private volatile long durable;
+
+    private MessageJournal(File file) {
+        this.file = file;
+        live = new LinkedHashMap<>();
+        crc = new CRC32();
+    }
+
+    /**
+     * Open the journal of a message box, creating it if needed.
+     * The file is named after name and category of the owner, escaped so that two owners never share a file.
+     *
+     * @param directory Directory of the journal files
+     * @param owner     Owner of the message box
+     * @return journal
+     * @throws IOException when fail to read or create the file
+     */
+    static MessageJournal open(File directory, AgentID owner) throws IOException {
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new IOException("Can not create " + directory);
+        }
+        String name = escape(owner.getName()) + "@" + escape(owner.getCategory());
+        MessageJournal journal = new MessageJournal(new File(directory, name + ".journal"));
+        journal.load();
+        return journal;
+    }
+
+    /**
+     * Percent-encode the UTF-8 bytes of every character that is not a letter, a digit, '.', '_' or '-',
+     * so that the separator can not appear and different strings give different names.
+     */
+    static String escape(String value) {
+        StringBuilder escaped = new StringBuilder(value.length());
+        for (byte b : value.getBytes(StandardCharsets.UTF_8)) {
+            char c = (char) (b & 0xFF);
+            if ((c >= 'A' && c <= 'Z') || (c >= 'a' && c <= 'z') || (c >= '0' && c <= '9')
+                    || c == '.' || c == '_' || c == '-') {
+                escaped.append(c);
+            } else {
+                escaped.append('%').append(Character.forDigit(c >> 4, 16)).append(Character.forDigit(c & 0xF, 16));
+            }
+        }
+        return escaped.toString();
+    }
+
+    /**
+     * Provide the messages of the journal without acknowledgement, in the order they were accepted.
+     * The message box must acknowledge them by sequence when they are consumed.
+     *
+     * @return recovered messages by sequence of their record
+     * @throws IOException when a message can not be decoded
+     */
+    synchronized Map<Long, Message> recover() throws IOException {
+        Map<Long, Message> messages = new LinkedHashMap<>();
+        for (Map.Entry<Long, Integer> record : live.entrySet()) {
+            int position = record.getValue();
+            int length = buffer.getInt(position + 9);
+            byte[] bytes = new byte[length];
+            ByteBuffer source = buffer.duplicate();
+            source.position(position + 13);
+            source.get(bytes);
+            try {
+                messages.put(record.getKey(), WireFormat.decodeMessages(bytes, 0, length).get(0));
+            } catch (ClassNotFoundException e) {
+                throw new IOException(e);
+            }
+        }
+        return messages;
+    }
+
+    /**
+     * Append an accepted message. It is durable after the next {@link #sync()}.
+     *
+     * @param message it.francescosantagati.jam.Message
+     * @return sequence of the record
+     * @throws IOException when fail to encode or write
+     */
+    long append(Message message) throws IOException {
+        byte[] bytes = WireFormat.encodeMessages(Collections.singletonList(message));
+        synchronized (this) {
+            long sequence = nextSequence++;
+            live.put(sequence, write(MESSAGE, sequence, bytes));
+            return sequence;
+        }
+    }
+
+    /**
+     * Acknowledge a consumed or dropped message. Sequences that are not in the journal are ignored.
+     *
+     * @param sequence Sequence of the record of the message
+     * @throws IOException when fail to write
+     */
+    synchronized void acknowledge(long sequence) throws IOException {
+        if (sequence != NONE && live.remove(sequence) != null) {
+            write(ACK, sequence, null);
+        }
+    }
+
+    /**
+     * Wait until every record appended before this call is on disk.
+     *
+     * @throws IOException when fail to write
+     */
+    void sync() throws IOException {
+        long target = appended;
+        if (durable >= target) {
+            return;
+        }
+        synchronized (syncLock) {
+            // A single fsync covers every writer that waited here meanwhile
+            if (durable >= target) {
+                return;
+            }
+            long covered = appended;
+            MappedByteBuffer current;
+            synchronized (this) {
+                current = buffer;
+            }
+            current.force();
+            durable = covered;
+        }
+    }
+
+    /**
+     * Stop journaling. The file is kept, with the messages not yet consumed.
+     */
+    synchronized void close() {
+        buffer.force();
+    }
+
+    /**
+     * Must be called holding the lock.
+     *
+     * @return position of the record
+     */
+    private int write(byte type, long sequence, byte[] bytes) throws IOException {
+        int length = bytes == null ? 0 : bytes.length;
+        if (buffer.remaining() < OVERHEAD + length + 1) {
+            compact(OVERHEAD + length + 1);
+        }
+
+        int position = buffer.position();
+        buffer.position(position + 1);
+        buffer.putLong(sequence);
+        buffer.putInt(length);
+        crc.reset();
+        if (bytes != null) {
+            buffer.put(bytes);
+            crc.update(bytes, 0, length);
+        }
+        buffer.putInt((int) (crc.getValue() ^ sequence));
+        // The type is written last: a record is valid only when complete
+        buffer.put(position, type);
+        appended += OVERHEAD + length;
+        return position;
+    }
+
+    /**
+     * Read the journal file, keeping the positions of the records without acknowledgement.
+     * A torn record and every record after it are ignored.
+     */
+    private void load() throws IOException {
+        boolean exists = file.length() >= HEADER;
+        map(file, Math.max(SEGMENT_SIZE, file.length()));
+        if (!exists || buffer.getInt(0) != MAGIC) {
+            buffer.putInt(0, MAGIC);
+            buffer.putInt(4, VERSION);
+            buffer.position(HEADER);
+            return;
+        }
+
+        int position = HEADER;
+        while (position + OVERHEAD <= buffer.capacity()) {
+            byte type = buffer.get(position);
+            if (type != MESSAGE && type != ACK) {
+                break;
+            }
+            long sequence = buffer.getLong(position + 1);
+            int length = buffer.getInt(position + 9);
+            if (length < 0 || position + OVERHEAD + length > buffer.capacity() || !valid(position, sequence, length)) {
+                Log.e(this, "Journal {} truncated at a torn record", file);
+                break;
+            }
+
+            if (type == MESSAGE) {
+                live.put(sequence, position);
+                nextSequence = Math.max(nextSequence, sequence + 1);
+            } else {
+                live.remove(sequence);
+            }
+            position += OVERHEAD + length;
+        }
+
+        // Records after the end may belong to a torn write: the new file does not have them
+        compact(0);
+    }
+
+    private boolean valid(int position, long sequence, int length) {
+        crc.reset();
+        for (int i = 0; i < length; i++) {
+            crc.update(buffer.get(position + 13 + i));
+        }
+        return buffer.getInt(position + 13 + length) == (int) (crc.getValue() ^ sequence);
+    }
+
+    /**
+     * Copy live records into a new file, large enough for them and for a record of the size provided,
+     * then replace the journal with it. Must be called holding the lock.
+     * <p>The old mapping is not unmapped explicitly, since {@link #sync()} may still be forcing it out of the lock:
+     * it is released by the garbage collector, so until then each compaction keeps the address space, not the disk
+     * space, of the replaced file.</p>
+     */
+    private void compact(int needed) throws IOException {
+        long size = SEGMENT_SIZE;
+        long required = HEADER + needed;
+        for (int position : live.values()) {
+            required += OVERHEAD + buffer.getInt(position + 9);
+        }
+        while (size < required) {
+            size *= 2;
+        }
+        if (size > Integer.MAX_VALUE) {
+            throw new IOException("Journal " + file + " is full");
+        }
+
+        File next = new File(file.getPath() + ".tmp");
+        Files.deleteIfExists(next.toPath());
+        MappedByteBuffer old = buffer;
+        map(next, size);
+        buffer.putInt(MAGIC);
+        buffer.putInt(VERSION);
+        for (Map.Entry<Long, Integer> record : live.entrySet()) {
+            int from = record.getValue();
+            ByteBuffer source = old.duplicate();
+            source.position(from);
+            source.limit(from + OVERHEAD + old.getInt(from + 9));
+            record.setValue(buffer.position());
+            buffer.put(source);
+        }
+        buffer.force();
+        Files.move(next.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        durable = appended;
+    }
+
+    /**
+     * The mapping stays valid after the file is closed.
+     */
+    private void map(File path, long size) throws IOException {
+        try (RandomAccessFile raf = new RandomAccessFile(path, "rw")) {
+            raf.setLength(size);
+            buffer = raf.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, size);
+        }
+    }
+}
@@ -0,0 +1,217 @@
+package it.francescosantagati.jam;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.RandomAccessFile;
+import java.util.Iterator;
+import java.util.LinkedList;
+
+/**
+ * A queue of messages stored in a temporary file, used by {@link OverflowPolicy#spillToDisk(File)}.
+ * Every message is written as a length-prefixed serialized frame. The file is truncated whenever it is emptied.
+ * <p>Position, performative and sender of every frame are kept in memory, with the sequence of the
+ * {@link MessageJournal} record of the message, so a selective read finds the oldest matching message without
+ * reading the file, then reads only that frame.</p>
+ * <p>This class is not synchronized, except for {@link #isEmpty()}.</p>
+ *
+ * @author Francesco Santagati
+ */
+public class MessageSpill<E extends Message> {
+
+    private final File directory;
+    private final LinkedList<Frame> frames;
+    private RandomAccessFile file;
+    private File path;
+    private long writePosition;
+    private long polledJournalSequence = MessageJournal.NONE;
+    private volatile int size;
+
+    /**
+     * @param directory Directory of the temporary file, null for the default temporary directory
+     */
+    public MessageSpill(File directory) {
+        this.directory = directory;
+        this.frames = new LinkedList<>();
+    }
+
+    /**
+     * Can be called without holding the message box lock.
+     *
+     * @return True if no message is stored. False otherwise.
+     */
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    /**
+     * @return number of messages stored
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Sequence of the journal record of the message retrieved last by {@link #poll(AgentID, Performative)}.
+     *
+     * @return sequence or {@link MessageJournal#NONE} if the message is not in a journal
+     */
+    public long polledJournalSequence() {
+        return polledJournalSequence;
+    }
+
+    /**
+     * Append a message at the end of the file.
+     *
+     * @param message         it.francescosantagati.jam.Message
+     * @param journalSequence Sequence of the journal record of the message, or {@link MessageJournal#NONE}
+     * @throws IOException if message can not be serialized or written
+     */
+    public void append(E message, long journalSequence) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(256);
+        try (ObjectOutputStream out = new ObjectOutputStream(bytes)) {
+            out.writeObject(message);
+        }
+
+        if (file == null) {
+            path = File.createTempFile("jam-spill-", ".bin", directory);
+            path.deleteOnExit();
+            file = new RandomAccessFile(path, "rw");
+        }
+        file.seek(writePosition);
+        file.writeInt(bytes.size());
+        file.write(bytes.toByteArray());
+        frames.add(new Frame(writePosition, journalSequence, message.getPerformative(), message.getSender()));
+        writePosition = file.getFilePointer();
+        size++;
+    }
+
+    /**
+     * Retrieve and remove the oldest message.
+     *
+     * @return message or null if empty
+     * @throws IOException if message can not be read
+     */
+    public E poll() throws IOException {
+        return poll(null, null);
+    }
+
+    /**
+     * Retrieve and remove the oldest message sent by agent and with performative provided.
+     * The message is removed only once it has been read: if it can not be read it stays in the file.
+     *
+     * @param agentID      Sender filter, null matches every sender
+     * @param performative it.francescosantagati.jam.Performative filter, null matches every performative
+     * @return message or null if not found
+     * @throws IOException if message can not be read
+     */
+    public E poll(AgentID agentID, Performative performative) throws IOException {
+        Iterator<Frame> iterator = frames.iterator();
+        while (iterator.hasNext()) {
+            Frame frame = iterator.next();
+            if (matches(frame, agentID, performative)) {
+                E message = read(frame);
+                iterator.remove();
+                polledJournalSequence = frame.journalSequence;
+                size--;
+                if (size == 0) {
+                    writePosition = 0L;
+                    file.setLength(0L);
+                }
+                return message;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Retrieve, without removing it, the oldest message sent by agent and with performative provided.
+     *
+     * @param agentID      Sender filter, null matches every sender
+     * @param performative it.francescosantagati.jam.Performative filter, null matches every performative
+     * @return message or null if not found
+     * @throws IOException if message can not be read
+     */
+    public E peek(AgentID agentID, Performative performative) throws IOException {
+        Frame frame = find(agentID, performative);
+        return frame == null ? null : read(frame);
+    }
+
+    /**
+     * Check if a message sent by agent and with performative provided is stored, without reading the file.
+     *
+     * @param agentID      Sender filter, null matches every sender
+     * @param performative it.francescosantagati.jam.Performative filter, null matches every performative
+     * @return True if message found, false otherwise
+     */
+    public boolean contains(AgentID agentID, Performative performative) {
+        return find(agentID, performative) != null;
+    }
+
+    /**
+     * Delete the temporary file and every message in it.
+     */
+    public void close() {
+        size = 0;
+        writePosition = 0L;
+        frames.clear();
+        if (file != null) {
+            try {
+                file.close();
+            } catch (IOException e) {
+                Log.e(this, e.getMessage());
+            }
+            if (!path.delete()) {
+                Log.e(this, "Can not delete {}", path);
+            }
+            file = null;
+        }
+    }
+
+    private Frame find(AgentID agentID, Performative performative) {
+        for (Frame frame : frames) {
+            if (matches(frame, agentID, performative)) {
+                return frame;
+            }
+        }
+        return null;
+    }
+
+    private static boolean matches(Frame frame, AgentID agentID, Performative performative) {
+        return (performative == null || performative == frame.performative)
+                && (agentID == null || agentID.equals(frame.sender));
+    }
+
+    @SuppressWarnings("unchecked")
+    private E read(Frame frame) throws IOException {
+        file.seek(frame.position);
+        byte[] bytes = new byte[file.readInt()];
+        file.readFully(bytes);
+
+        try (ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(bytes))) {
+            return (E) in.readObject();
+        } catch (ClassNotFoundException e) {
+            throw new IOException(e);
+        }
+    }
+
+    /**
+     * Position, journal sequence and filter keys of a message in the file.
+     */
+    private static final class Frame {
+        private final long position;
+        private final long journalSequence;
+        private final Performative performative;
+        private final AgentID sender;
+
+        private Frame(long position, long journalSequence, Performative performative, AgentID sender) {
+            this.position = position;
+            this.journalSequence = journalSequence;
+            this.performative = performative;
+            this.sender = sender;
+        }
+    }
+}
@@ -0,0 +1,182 @@
+package it.francescosantagati.jam;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Registry of readers blocked on a message box, each one waiting for a message matching its filter.
+ * An incoming message wakes only the oldest idle reader whose filter matches it.
+ * Every {@link MessageBoxListener} is notified of every incoming message.
+ * <p>Every method must be called holding the lock provided in the constructor.</p>
+ *
+ * @author Francesco Santagati
+ */
+final class MessageWaiters {
+
+    private final ReentrantLock lock;
+    private final MessageIndex<? extends Message> box;
+    private final MessageSpill<? extends Message> spill;
+    private final List<Waiter> waiters;
+    private final List<MessageBoxListener> listeners;
+    private volatile int count;
+
+    /**
+     * @param lock  Lock that guards the message box
+     * @param box   Messages of the message box
+     * @param spill Messages of the message box spilled to disk, null if it does not spill
+     */
+    MessageWaiters(ReentrantLock lock, MessageIndex<? extends Message> box, MessageSpill<? extends Message> spill) {
+        this.lock = lock;
+        this.box = box;
+        this.spill = spill;
+        this.waiters = new ArrayList<>();
+        this.listeners = new ArrayList<>();
+    }
+
+    /**
+     * Can be called without holding the lock.
+     *
+     * @return True if no reader is waiting and no listener is registered. False otherwise.
+     */
+    boolean isEmpty() {
+        return count == 0;
+    }
+
+    /**
+     * Register a reader that is going to wait.
+     *
+     * @param agentID      Sender filter, null matches every sender
+     * @param performative it.francescosantagati.jam.Performative filter, null matches every performative
+     * @return the waiter to await on
+     */
+    Waiter register(AgentID agentID, Performative performative) {
+        Waiter waiter = new Waiter(agentID, performative, lock.newCondition());
+        waiters.add(waiter);
+        count = waiters.size() + listeners.size();
+        return waiter;
+    }
+
+    /**
+     * Unregister a reader.
+     * If it was woken for a message it did not consume, the wakeup is handed over to the other readers.
+     *
+     * @param waiter   Waiter returned by {@link #register(AgentID, Performative)}
+     * @param consumed it.francescosantagati.jam.Message consumed by the reader, null if none
+     */
+    void unregister(Waiter waiter, Message consumed) {
+        waiters.remove(waiter);
+        count = waiters.size() + listeners.size();
+        if (waiter.assigned != null && waiter.assigned != consumed) {
+            redispatch();
+        }
+    }
+
+    /**
+     * Register a listener notified of every incoming message.
+     *
+     * @param listener A {@link MessageBoxListener} instance
+     */
+    void addListener(MessageBoxListener listener) {
+        listeners.add(listener);
+        count = waiters.size() + listeners.size();
+    }
+
+    /**
+     * Unregister a listener.
+     *
+     * @param listener A {@link MessageBoxListener} instance
+     */
+    void removeListener(MessageBoxListener listener) {
+        listeners.remove(listener);
+        count = waiters.size() + listeners.size();
+    }
+
+    /**
+     * Wake the oldest idle reader whose filter matches the message, then notify listeners.
+     *
+     * @param message it.francescosantagati.jam.Message just inserted
+     */
+    void signal(Message message) {
+        for (Waiter waiter : waiters) {
+            if (waiter.assigned == null && waiter.matches(message)) {
+                waiter.assigned = message;
+                waiter.condition.signal();
+                break;
+            }
+        }
+        for (MessageBoxListener listener : listeners) {
+            listener.onMessageArrived(message);
+        }
+    }
+
+    private void redispatch() {
+        for (Waiter waiter : waiters) {
+            if (waiter.assigned == null) {
+                Message message = box.peek(waiter.agentID, waiter.performative);
+                if (message == null && spill != null && spill.contains(waiter.agentID, waiter.performative)) {
+                    message = peekSpilled(waiter);
+                }
+                if (message != null) {
+                    waiter.assigned = message;
+                    waiter.condition.signal();
+                }
+            }
+        }
+    }
+
+    private Message peekSpilled(Waiter waiter) {
+        try {
+            return spill.peek(waiter.agentID, waiter.performative);
+        } catch (IOException e) {
+            Log.e(this, e.getMessage());
+            return null;
+        }
+    }
+
+    /**
+     * A reader blocked on a filter.
+     */
+    static final class Waiter {
+        private final AgentID agentID;
+        private final Performative performative;
+        private final Condition condition;
+        private Message assigned;
+
+        private Waiter(AgentID agentID, Performative performative, Condition condition) {
+            this.agentID = agentID;
+            this.performative = performative;
+            this.condition = condition;
+        }
+
+        /**
+         * Wait until a matching message is signalled.
+         * Call it again after a wakeup that did not find a message: the message was taken by another reader.
+         *
+         * @throws InterruptedException if thread is interrupted
+         */
+        void await() throws InterruptedException {
+            assigned = null;
+            condition.await();
+        }
+
+        /**
+         * Wait until a matching message is signalled or timeout expires.
+         *
+         * @param nanos Max time to wait in nanoseconds
+         * @return remaining time, zero or less if timeout expired
+         * @throws InterruptedException if thread is interrupted
+         */
+        long awaitNanos(long nanos) throws InterruptedException {
+            assigned = null;
+            return condition.awaitNanos(nanos);
+        }
+
+        private boolean matches(Message message) {
+            return (performative == null || performative == message.getPerformative())
+                    && (agentID == null || agentID.equals(message.getSender()));
+        }
+    }
+}
@@ -0,0 +1,87 @@
+package it.francescosantagati.jam;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Count of events and their rate per second, an exponentially weighted moving average over the last minute.
+ * <p>Marking an event is an atomic increment: the average is updated every 5 seconds by the first thread
+ * that marks an event or reads the rate after the interval elapsed.</p>
+ *
+ * @author Francesco Santagati
+ */
+final class Meter {
+
+    private static final long TICK_NANOS = 5000000000L;
+    private static final double ALPHA = 1 - Math.exp(-5 / 60.0);
+
+    private final AtomicLong count = new AtomicLong();
+    private final AtomicLong uncounted = new AtomicLong();
+    private final AtomicLong lastTick;
+    private volatile boolean initialized;
+    private volatile double rate;
+
+    Meter() {
+        lastTick = new AtomicLong(System.nanoTime());
+    }
+
+    /**
+     * Mark an event.
+     */
+    void mark() {
+        mark(1);
+    }
+
+    /**
+     * Mark a number of events.
+     *
+     * @param events Number of events
+     */
+    void mark(long events) {
+        tickIfNecessary();
+        count.addAndGet(events);
+        uncounted.addAndGet(events);
+    }
+
+    /**
+     * @return number of events since creation
+     */
+    long getCount() {
+        return count.get();
+    }
+
+    /**
+     * @return events per second over the last minute
+     */
+    double getOneMinuteRate() {
+        tickIfNecessary();
+        return rate * 1e9 / TICK_NANOS;
+    }
+
+    private void tickIfNecessary() {
+        long old = lastTick.get();
+        long now = System.nanoTime();
+        long age = now - old;
+        if (age < TICK_NANOS) {
+            return;
+        }
+        long newTick = now - age % TICK_NANOS;
+        if (lastTick.compareAndSet(old, newTick)) {
+            for (long ticks = age / TICK_NANOS; ticks > 0; ticks--) {
+                tick();
+            }
+        }
+    }
+
+    /**
+     * Only the thread that moved the last tick forward gets here.
+     */
+    private void tick() {
+        double instant = uncounted.getAndSet(0);
+        if (initialized) {
+            rate += ALPHA * (instant - rate);
+        } else {
+            rate = instant;
+            initialized = true;
+        }
+    }
+}
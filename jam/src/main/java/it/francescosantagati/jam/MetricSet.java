@@ -0,0 +1,101 @@
+package it.francescosantagati.jam;
+
+import javax.management.MalformedObjectNameException;
+import javax.management.ObjectName;
+
+/**
+ * Metrics of a component, e.g. a message box, published by {@link Metrics} as an MBean and as text.
+ * <p>Text lines have the form <code>jam_&lt;type&gt;_&lt;metric&gt;{name="&lt;name&gt;"} &lt;value&gt;</code>,
+ * durations are in nanoseconds.</p>
+ *
+ * @author Francesco Santagati
+ */
+abstract class MetricSet {
+
+    private static final double[] PERCENTILES = {50, 90, 99, 99.9};
+    private static final String[] QUANTILES = {"0.5", "0.9", "0.99", "0.999"};
+
+    private final String type;
+    private final String name;
+
+    /**
+     * @param type Kind of component, e.g. MessageBox
+     * @param name Name of the component, unique among components of its kind
+     */
+    MetricSet(String type, String name) {
+        if (type == null || name == null) {
+            throw new IllegalArgumentException("Wrong parameters");
+        }
+        this.type = type;
+        this.name = name;
+    }
+
+    /**
+     * @return kind of component
+     */
+    String getType() {
+        return type;
+    }
+
+    /**
+     * @return name of the component
+     */
+    String getName() {
+        return name;
+    }
+
+    /**
+     * @return name of the MBean
+     * @throws MalformedObjectNameException never, names are quoted
+     */
+    ObjectName getObjectName() throws MalformedObjectNameException {
+        return new ObjectName(Metrics.DOMAIN + ":type=" + type + ",name=" + ObjectName.quote(name));
+    }
+
+    /**
+     * Append the metrics as text lines.
+     *
+     * @param out Text
+     */
+    abstract void render(StringBuilder out);
+
+    void gauge(StringBuilder out, String metric, double value) {
+        line(out, metric, null, value);
+    }
+
+    void meter(StringBuilder out, String metric, Meter meter) {
+        line(out, metric + "_total", null, meter.getCount());
+        line(out, metric + "_rate", null, meter.getOneMinuteRate());
+    }
+
+    void histogram(StringBuilder out, String metric, Histogram histogram) {
+        line(out, metric + "_count", null, histogram.getCount());
+        line(out, metric + "_mean", null, histogram.getMean());
+        line(out, metric + "_max", null, histogram.getMax());
+        for (int i = 0; i < PERCENTILES.length; i++) {
+            line(out, metric, QUANTILES[i], histogram.getValueAtPercentile(PERCENTILES[i]));
+        }
+    }
+
+    private void line(StringBuilder out, String metric, String quantile, double value) {
+        out.append("jam_").append(type.toLowerCase()).append('_').append(metric).append("{name=\"");
+        for (int i = 0; i < name.length(); i++) {
+            char c = name.charAt(i);
+            if (c == '"' || c == '\\') {
+                out.append('\\');
+            }
+            out.append(c == '\n' ? ' ' : c);
+        }
+        out.append('"');
+        if (quantile != null) {
+            out.append(",quantile=\"").append(quantile).append('"');
+        }
+        out.append("} ");
+        if (value == Math.rint(value) && !Double.isInfinite(value)) {
+            out.append((long) value);
+        } else {
+            out.append(value);
+        }
+        out.append('\n');
+    }
+}
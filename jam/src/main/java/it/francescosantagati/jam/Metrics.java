@@ -0,0 +1,151 @@
+package it.francescosantagati.jam;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.lang.management.ManagementFactory;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+
+/**
+ * Registry of the runtime metrics of this JVM: message boxes, agents and ADSL.
+ * <p>{@link JAMAgent#init()} registers the metrics of the agent and of its message box,
+ * {@link ADSL#startADSL()} the metrics of the ADSL. They are unregistered by {@link JAMAgent#destroy()}
+ * and {@link ADSL#stopADSL()}.</p>
+ * <p>Every registered component is an MBean of the platform MBean server, in the {@link #DOMAIN} domain.
+ * The same metrics are available as text, from {@link #render()} or from the HTTP endpoint started by
+ * {@link #startEndpoint(int)}, in a format that Prometheus scrapes.</p>
+ *
+ * @author Francesco Santagati
+ */
+public final class Metrics {
+
+    /**
+     * Domain of the MBeans.
+     */
+    public static final String DOMAIN = "it.francescosantagati.jam";
+
+    /**
+     * Path of the HTTP endpoint.
+     */
+    public static final String PATH = "/metrics";
+
+    private final ConcurrentMap<String, MetricSet> sets;
+    private HttpServer server;
+
+    private Metrics() {
+        sets = new ConcurrentSkipListMap<>();
+    }
+
+    /**
+     * Provide the registry of this JVM, created on first use.
+     *
+     * @return Metrics instance
+     */
+    public static Metrics get() {
+        return Holder.INSTANCE;
+    }
+
+    /**
+     * Render the metrics of every registered component as text, one metric per line.
+     *
+     * @return text
+     */
+    public String render() {
+        StringBuilder out = new StringBuilder();
+        for (MetricSet set : sets.values()) {
+            set.render(out);
+        }
+        return out.toString();
+    }
+
+    /**
+     * Serve {@link #render()} over HTTP at {@link #PATH}, e.g. http://host:port/metrics.
+     *
+     * @param port Port, 0 for any free port
+     * @return port of the endpoint
+     * @throws IOException when fail to bind the port
+     */
+    public synchronized int startEndpoint(int port) throws IOException {
+        if (port < 0) {
+            throw new IllegalArgumentException("Wrong parameters");
+        }
+        if (server != null) {
+            throw new IllegalStateException("Endpoint already started on port " + server.getAddress().getPort());
+        }
+
+        server = HttpServer.create(new InetSocketAddress(port), 0);
+        server.createContext(PATH, new HttpHandler() {
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                byte[] body = render().getBytes(StandardCharsets.UTF_8);
+                exchange.getResponseHeaders().set("Content-Type", "text/plain; version=0.0.4; charset=utf-8");
+                exchange.sendResponseHeaders(200, body.length);
+                try (OutputStream out = exchange.getResponseBody()) {
+                    out.write(body);
+                }
+            }
+        });
+        server.start();
+        return server.getAddress().getPort();
+    }
+
+    /**
+     * Stop the HTTP endpoint, if started.
+     */
+    public synchronized void stopEndpoint() {
+        if (server != null) {
+            server.stop(0);
+            server = null;
+        }
+    }
+
+    /**
+     * Register a component, replacing a component of the same kind and name.
+     *
+     * @param set Metrics of the component
+     */
+    void register(MetricSet set) {
+        MetricSet old = sets.put(key(set), set);
+        MBeanServer mBeanServer = ManagementFactory.getPlatformMBeanServer();
+        try {
+            if (old != null && mBeanServer.isRegistered(old.getObjectName())) {
+                mBeanServer.unregisterMBean(old.getObjectName());
+            }
+            mBeanServer.registerMBean(set, set.getObjectName());
+        } catch (JMException e) {
+            Log.e(this, e.getMessage());
+        }
+    }
+
+    /**
+     * Unregister a component. Nothing happens if it has been replaced in the meantime.
+     *
+     * @param set Metrics of the component
+     */
+    void unregister(MetricSet set) {
+        if (!sets.remove(key(set), set)) {
+            return;
+        }
+        try {
+            ManagementFactory.getPlatformMBeanServer().unregisterMBean(set.getObjectName());
+        } catch (JMException e) {
+            Log.e(this, e.getMessage());
+        }
+    }
+
+    private static String key(MetricSet set) {
+        return set.getType() + '/' + set.getName();
+    }
+
+    private static final class Holder {
+        private static final Metrics INSTANCE = new Metrics();
+    }
+}
@@ -0,0 +1,658 @@
+package it.francescosantagati.jam;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.rmi.ConnectException;
+import java.rmi.NoSuchObjectException;
+import java.rmi.RemoteException;
+import java.util.ArrayDeque;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Message delivery over non-blocking sockets, selected by {@link Transport#nio(String, int)}.
+ * <p>A single selector thread for each JVM accepts connections, reads and writes. Frames are length-prefixed:</p>
+ * <ul>
+ * <li>messages: <code>int length, byte 1, long sequence, long box id, messages</code>;
+ * <li>acknowledgement: <code>int length, byte 2, long sequence, long box id, byte status</code>.
+ * </ul>
+ * <p>A node keeps one persistent connection to every peer and pipelines frames on it: a sender returns as soon
+ * as its frame is enqueued and waits only when {@link #WINDOW} frames to the same message box are not acknowledged.
+ * Frames received on a connection are written into each message box in order, off the selector thread, then
+ * acknowledged. Every message box has a delivery task of its own, so a full message box that blocks its writers
+ * only delays the frames addressed to it. A message box that is no longer exported, or a frame that could not be
+ * written, is reported by its acknowledgement, and the next write to that message box fails. So are frames
+ * not acknowledged when the connection is closed.</p>
+ *
+ * @author Francesco Santagati
+ */
+final class NioTransport implements Runnable {
+
+    /**
+     * Max number of frames not acknowledged for a message box on a connection.
+     */
+    static final int WINDOW = 1024;
+
+    /**
+     * Threads that write received frames into message boxes. A message box that blocks its writers holds one.
+     */
+    static final int DELIVERY_THREADS = 64;
+
+    private static final int MAX_FRAME = 16 * 1024 * 1024;
+    private static final long CONNECT_TIMEOUT_MILLIS = 10000L;
+    private static final byte MESSAGES = 1;
+    private static final byte ACK = 2;
+    private static final byte OK = 0;
+    private static final byte NO_BOX = 1;
+    private static final byte FAILED = 2;
+    private static final int HEADER = 1 + 8 + 8;
+
+    private static NioTransport instance;
+
+    private final Selector selector;
+    private final Queue<Runnable> operations;
+    private final Map<InetSocketAddress, Connection> connections;
+    private final Map<Integer, Integer> listeningPorts;
+    private final ConcurrentMap<Long, RemoteMessageBox> boxes;
+    private final AtomicLong nextBoxId;
+    private final ConcurrentMap<InetSocketAddress, ConcurrentMap<Long, Long>> failures;
+    private final ExecutorService delivery;
+
+    private NioTransport() throws IOException {
+        selector = Selector.open();
+        operations = new ConcurrentLinkedQueue<>();
+        connections = new HashMap<>();
+        listeningPorts = new HashMap<>();
+        boxes = new ConcurrentHashMap<>();
+        nextBoxId = new AtomicLong();
+        failures = new ConcurrentHashMap<>();
+        ThreadPoolExecutor pool = new ThreadPoolExecutor(DELIVERY_THREADS, DELIVERY_THREADS, 60L, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+            private final AtomicInteger count = new AtomicInteger();
+
+            @Override
+            public Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable, "jam-nio-delivery-" + count.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        pool.allowCoreThreadTimeOut(true);
+        delivery = pool;
+
+        Thread thread = new Thread(this, "jam-nio-selector");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * Provide the transport of the JVM, created on first use.
+     *
+     * @return A {@link NioTransport} instance
+     * @throws IOException when the selector can not be opened
+     */
+    static synchronized NioTransport get() throws IOException {
+        if (instance == null) {
+            instance = new NioTransport();
+        }
+        return instance;
+    }
+
+    /**
+     * Export a local message box, listening on the port provided if not already listening.
+     *
+     * @param box  Local message box
+     * @param host Address of this node that other nodes connect to
+     * @param port Port to listen on, 0 for any free port
+     * @return A reference to be inserted into the {@link ADSL}
+     * @throws IOException when fail to listen
+     */
+    SocketMessageBox export(RemoteMessageBox box, String host, int port) throws IOException {
+        int boundPort = listen(port);
+        long id = nextBoxId.incrementAndGet();
+        boxes.put(id, box);
+        return new SocketMessageBox(box.getOwner(), host, boundPort, id);
+    }
+
+    /**
+     * Stop delivering to a message box. Frames still addressed to it are acknowledged as undeliverable.
+     *
+     * @param box Reference returned by {@link #export(RemoteMessageBox, String, int)}
+     */
+    void unexport(SocketMessageBox box) {
+        boxes.remove(box.getId());
+    }
+
+    /**
+     * Enqueue messages for a message box of another node.
+     *
+     * @param box      Message box
+     * @param messages Messages, written in a single frame, or split into frames of 16 MB at most
+     * @throws RemoteException      when fail to connect, a message is larger than a frame,
+     *                              or the message box is no longer exported
+     * @throws InterruptedException when thread is interrupted while waiting for acknowledgements
+     */
+    void send(SocketMessageBox box, List<Message> messages) throws RemoteException, InterruptedException {
+        byte[] payload;
+        try {
+            payload = WireFormat.encodeMessages(messages);
+        } catch (IOException e) {
+            throw new RemoteException(e.getMessage(), e);
+        }
+        if (HEADER + payload.length > MAX_FRAME) {
+            // The peer would close the connection
+            if (messages.size() == 1) {
+                throw new RemoteException("Message of " + payload.length + " bytes is too large for " + box);
+            }
+            int half = messages.size() / 2;
+            send(box, messages.subList(0, half));
+            send(box, messages.subList(half, messages.size()));
+            return;
+        }
+
+        Connection connection = connect(new InetSocketAddress(box.getHost(), box.getPort()));
+        if (connection.deadBoxes.contains(box.getId())) {
+            throw new NoSuchObjectException(box.toString());
+        }
+        Long failed = connection.failedFrames.remove(box.getId());
+        if (failed != null) {
+            throw new RemoteException("Frame " + failed + " not delivered to " + box);
+        }
+        connection.sendMessages(box.getId(), payload);
+    }
+
+    /**
+     * Select and dispatch events forever.
+     */
+    @Override
+    public void run() {
+        while (true) {
+            try {
+                selector.select();
+            } catch (IOException e) {
+                Log.e(this, e.getMessage());
+                continue;
+            }
+
+            Runnable operation;
+            while ((operation = operations.poll()) != null) {
+                try {
+                    operation.run();
+                } catch (RuntimeException e) {
+                    Log.e(this, e.getMessage());
+                }
+            }
+
+            Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+            while (keys.hasNext()) {
+                SelectionKey key = keys.next();
+                keys.remove();
+                if (key.attachment() instanceof ServerSocketChannel) {
+                    accept((ServerSocketChannel) key.attachment());
+                    continue;
+                }
+
+                Connection connection = (Connection) key.attachment();
+                try {
+                    if (key.isValid() && key.isConnectable()) {
+                        connection.finishConnect();
+                    }
+                    if (key.isValid() && key.isReadable()) {
+                        connection.read();
+                    }
+                    if (key.isValid() && key.isWritable()) {
+                        connection.flush();
+                    }
+                } catch (IOException | RuntimeException e) {
+                    connection.close(e);
+                }
+            }
+        }
+    }
+
+    /**
+     * Run an operation on the selector thread.
+     */
+    private void execute(Runnable operation) {
+        operations.add(operation);
+        selector.wakeup();
+    }
+
+    private int listen(int port) throws IOException {
+        synchronized (listeningPorts) {
+            Integer boundPort = listeningPorts.get(port);
+            if (boundPort != null) {
+                return boundPort;
+            }
+
+            final ServerSocketChannel server = ServerSocketChannel.open();
+            try {
+                server.bind(new InetSocketAddress(port));
+                server.configureBlocking(false);
+            } catch (IOException e) {
+                server.close();
+                throw e;
+            }
+            execute(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        server.register(selector, SelectionKey.OP_ACCEPT, server);
+                    } catch (IOException e) {
+                        Log.e(NioTransport.this, e.getMessage());
+                    }
+                }
+            });
+
+            boundPort = server.socket().getLocalPort();
+            listeningPorts.put(port, boundPort);
+            listeningPorts.put(boundPort, boundPort);
+            return boundPort;
+        }
+    }
+
+    private void accept(ServerSocketChannel server) {
+        try {
+            SocketChannel channel = server.accept();
+            if (channel == null) {
+                return;
+            }
+            channel.configureBlocking(false);
+            channel.socket().setTcpNoDelay(true);
+            Connection connection = new Connection(channel, null, new ConcurrentHashMap<Long, Long>());
+            connection.key = channel.register(selector, SelectionKey.OP_READ, connection);
+        } catch (IOException e) {
+            Log.e(this, e.getMessage());
+        }
+    }
+
+    /**
+     * Provide the connection to the peer, opening it if needed.
+     */
+    private Connection connect(final InetSocketAddress address) throws RemoteException, InterruptedException {
+        Connection connection;
+        synchronized (connections) {
+            connection = connections.get(address);
+            if (connection == null) {
+                try {
+                    final SocketChannel channel = SocketChannel.open();
+                    channel.configureBlocking(false);
+                    channel.socket().setTcpNoDelay(true);
+                    channel.connect(address);
+                    connection = new Connection(channel, address, failures(address));
+                } catch (IOException e) {
+                    throw new ConnectException("Can not connect to " + address, e);
+                }
+
+                final Connection opening = connection;
+                connections.put(address, connection);
+                execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        try {
+                            opening.key = opening.channel.register(selector, SelectionKey.OP_CONNECT, opening);
+                        } catch (IOException e) {
+                            opening.close(e);
+                        }
+                    }
+                });
+            }
+        }
+
+        if (!connection.connected.await(CONNECT_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS)) {
+            connection.close(new IOException("Connection timed out"));
+        }
+        if (connection.closed) {
+            throw new ConnectException("Can not connect to " + address);
+        }
+        return connection;
+    }
+
+    /**
+     * Frames not delivered to the message boxes of a peer, kept across connections.
+     */
+    private ConcurrentMap<Long, Long> failures(InetSocketAddress address) {
+        ConcurrentMap<Long, Long> failedFrames = failures.get(address);
+        if (failedFrames == null) {
+            ConcurrentMap<Long, Long> created = new ConcurrentHashMap<>();
+            failedFrames = failures.putIfAbsent(address, created);
+            if (failedFrames == null) {
+                failedFrames = created;
+            }
+        }
+        return failedFrames;
+    }
+
+    /**
+     * A socket connection between two nodes. Outgoing connections send messages and read acknowledgements,
+     * incoming connections do the opposite.
+     */
+    private final class Connection {
+        private final SocketChannel channel;
+        private final InetSocketAddress address;
+        private final Queue<ByteBuffer> outbound;
+        private final AtomicBoolean writeScheduled;
+        private final CountDownLatch connected;
+        private final ConcurrentMap<Long, Semaphore> windows;
+        private final Set<Long> deadBoxes;
+        private final ConcurrentMap<Long, Long> failedFrames;
+        private final Map<Long, Long> lastSent;
+        private final Map<Long, Delivery> deliveries;
+        private final Runnable enableWrite;
+        private ByteBuffer readBuffer;
+        private volatile SelectionKey key;
+        private long sequence;
+        private long unacknowledged;
+        private volatile boolean closed;
+
+        /**
+         * @param address      Address of the peer for an outgoing connection, null for an incoming one
+         * @param failedFrames Last frame not delivered, by box id, shared by the connections to the same peer
+         */
+        private Connection(SocketChannel channel, InetSocketAddress address, ConcurrentMap<Long, Long> failedFrames) {
+            this.channel = channel;
+            this.address = address;
+            this.outbound = new ConcurrentLinkedQueue<>();
+            this.writeScheduled = new AtomicBoolean();
+            this.connected = new CountDownLatch(address != null ? 1 : 0);
+            this.windows = new ConcurrentHashMap<>();
+            this.deadBoxes = Collections.newSetFromMap(new ConcurrentHashMap<Long, Boolean>());
+            this.failedFrames = failedFrames;
+            this.lastSent = new HashMap<>();
+            this.deliveries = new HashMap<>();
+            this.readBuffer = ByteBuffer.allocate(64 * 1024);
+            this.enableWrite = new Runnable() {
+                @Override
+                public void run() {
+                    if (key != null && key.isValid() && channel.isConnected()) {
+                        key.interestOps(SelectionKey.OP_READ | SelectionKey.OP_WRITE);
+                    }
+                }
+            };
+        }
+
+        /**
+         * Called by senders: waits for a free slot of the window of the message box, then enqueues the frame.
+         */
+        private void sendMessages(long boxId, byte[] payload) throws RemoteException, InterruptedException {
+            Semaphore window = window(boxId);
+            window.acquire();
+            if (closed) {
+                window.release();
+                throw new ConnectException("Connection to " + address + " closed");
+            }
+
+            ByteBuffer frame = ByteBuffer.allocate(4 + HEADER + payload.length);
+            frame.putInt(HEADER + payload.length);
+            frame.put(MESSAGES);
+            synchronized (this) {
+                unacknowledged++;
+                lastSent.put(boxId, sequence + 1);
+                frame.putLong(++sequence);
+                frame.putLong(boxId);
+                frame.put(payload);
+                frame.flip();
+                // Enqueued holding the lock, so that frames keep the order of their sequence numbers
+                enqueue(frame);
+            }
+        }
+
+        private Semaphore window(long boxId) {
+            Semaphore window = windows.get(boxId);
+            if (window == null) {
+                Semaphore created = new Semaphore(WINDOW);
+                window = windows.putIfAbsent(boxId, created);
+                if (window == null) {
+                    window = created;
+                }
+            }
+            return window;
+        }
+
+        private void enqueue(ByteBuffer frame) {
+            outbound.add(frame);
+            if (!writeScheduled.getAndSet(true)) {
+                execute(enableWrite);
+            }
+        }
+
+        /**
+         * Called on the selector thread.
+         */
+        private void finishConnect() throws IOException {
+            channel.finishConnect();
+            int ops = SelectionKey.OP_READ;
+            if (writeScheduled.get()) {
+                ops |= SelectionKey.OP_WRITE;
+            }
+            key.interestOps(ops);
+            connected.countDown();
+        }
+
+        /**
+         * Called on the selector thread: write enqueued frames until the socket buffer is full.
+         */
+        private void flush() throws IOException {
+            ByteBuffer frame;
+            while ((frame = outbound.peek()) != null) {
+                channel.write(frame);
+                if (frame.hasRemaining()) {
+                    return;
+                }
+                outbound.poll();
+            }
+
+            key.interestOps(SelectionKey.OP_READ);
+            writeScheduled.set(false);
+            // A frame enqueued after the queue was found empty
+            if (!outbound.isEmpty() && !writeScheduled.getAndSet(true)) {
+                key.interestOps(SelectionKey.OP_READ | SelectionKey.OP_WRITE);
+            }
+        }
+
+        /**
+         * Called on the selector thread: split the bytes read into frames.
+         */
+        private void read() throws IOException {
+            if (channel.read(readBuffer) < 0) {
+                close(null);
+                return;
+            }
+
+            readBuffer.flip();
+            while (readBuffer.remaining() >= 4) {
+                int length = readBuffer.getInt(readBuffer.position());
+                if (length < HEADER || length > MAX_FRAME) {
+                    throw new IOException("Wrong frame length " + length);
+                }
+                if (readBuffer.remaining() < 4 + length) {
+                    if (readBuffer.capacity() < 4 + length) {
+                        ByteBuffer larger = ByteBuffer.allocate(4 + length);
+                        larger.put(readBuffer);
+                        readBuffer = larger;
+                        return;
+                    }
+                    break;
+                }
+
+                readBuffer.getInt();
+                byte[] frame = new byte[length];
+                readBuffer.get(frame);
+                received(frame);
+            }
+            readBuffer.compact();
+        }
+
+        private void received(byte[] frame) throws IOException {
+            if (frame[0] == ACK) {
+                acknowledged(ByteBuffer.wrap(frame, 1, HEADER));
+            } else if (frame[0] == MESSAGES) {
+                long boxId = ByteBuffer.wrap(frame, 1 + 8, 8).getLong();
+                Delivery boxDelivery;
+                synchronized (deliveries) {
+                    boxDelivery = deliveries.get(boxId);
+                    if (boxDelivery != null) {
+                        boxDelivery.inbound.add(frame);
+                        return;
+                    }
+                    boxDelivery = new Delivery(boxId, frame);
+                    deliveries.put(boxId, boxDelivery);
+                }
+                delivery.execute(boxDelivery);
+            } else {
+                throw new IOException("Wrong frame type " + frame[0]);
+            }
+        }
+
+        private void acknowledged(ByteBuffer ack) {
+            long ackSequence = ack.getLong();
+            long boxId = ack.getLong();
+            byte status = ack.get();
+            if (status == NO_BOX) {
+                deadBoxes.add(boxId);
+            } else if (status == FAILED) {
+                Log.e(this, "Frame {} not delivered to {}#{}", ackSequence, address, boxId);
+                failedFrames.put(boxId, ackSequence);
+            }
+            synchronized (this) {
+                unacknowledged--;
+            }
+            Semaphore window = windows.get(boxId);
+            if (window != null) {
+                window.release();
+            }
+            if (status == NO_BOX) {
+                // No frame is sent to it anymore
+                windows.remove(boxId);
+            }
+        }
+
+        /**
+         * Frames received for a message box, written in arrival order by a task run on a delivery thread.
+         * The task ends, and is removed, when no frame is left: a new one is created for the next frame.
+         */
+        private final class Delivery implements Runnable {
+            private final long boxId;
+            private final Queue<byte[]> inbound;
+
+            private Delivery(long boxId, byte[] frame) {
+                this.boxId = boxId;
+                this.inbound = new ArrayDeque<>();
+                this.inbound.add(frame);
+            }
+
+            @Override
+            public void run() {
+                while (true) {
+                    byte[] frame;
+                    synchronized (deliveries) {
+                        frame = inbound.poll();
+                        if (frame == null) {
+                            deliveries.remove(boxId);
+                            return;
+                        }
+                    }
+                    deliver(frame);
+                }
+            }
+
+            /**
+             * Write a frame into the message box, then acknowledge it.
+             */
+            private void deliver(byte[] frame) {
+                long frameSequence = ByteBuffer.wrap(frame, 1, 8).getLong();
+
+                byte status = OK;
+                RemoteMessageBox box = boxes.get(boxId);
+                if (box == null) {
+                    status = NO_BOX;
+                } else {
+                    try {
+                        box.writeMessages(WireFormat.decodeMessages(frame, HEADER, frame.length - HEADER));
+                    } catch (IOException | ClassNotFoundException | InterruptedException | RuntimeException e) {
+                        Log.e(this, e.getMessage());
+                        status = FAILED;
+                    }
+                }
+
+                ByteBuffer ack = ByteBuffer.allocate(4 + HEADER + 1);
+                ack.putInt(HEADER + 1);
+                ack.put(ACK);
+                ack.putLong(frameSequence);
+                ack.putLong(boxId);
+                ack.put(status);
+                ack.flip();
+                enqueue(ack);
+            }
+        }
+
+        /**
+         * Close the connection. Senders waiting for the window are released and the next send reconnects.
+         *
+         * @param cause Failure, null if closed by the peer
+         */
+        private void close(Exception cause) {
+            synchronized (this) {
+                if (closed) {
+                    return;
+                }
+                closed = true;
+                if (unacknowledged > 0) {
+                    Log.e(this, "{} frames to {} may not be delivered", unacknowledged, address);
+                    // Reported to the next send, as a frame acknowledged as failed
+                    for (Map.Entry<Long, Semaphore> window : windows.entrySet()) {
+                        if (window.getValue().availablePermits() < WINDOW) {
+                            failedFrames.put(window.getKey(), lastSent.get(window.getKey()));
+                        }
+                    }
+                }
+            }
+            if (cause != null) {
+                Log.e(this, cause.getMessage());
+            }
+
+            if (key != null) {
+                key.cancel();
+            }
+            try {
+                channel.close();
+            } catch (IOException e) {
+                Log.e(this, e.getMessage());
+            }
+            if (address != null) {
+                synchronized (connections) {
+                    if (connections.get(address) == this) {
+                        connections.remove(address);
+                    }
+                }
+            }
+            for (Semaphore window : windows.values()) {
+                window.release(WINDOW);
+            }
+            connected.countDown();
+        }
+    }
+}
@@ -0,0 +1,117 @@
+package it.francescosantagati.jam;
+
+import java.io.File;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * What a message box does with an incoming message when it is full.
+ * <ul>
+ * <li>{@link #block(long, TimeUnit)}: the sender waits for free space up to a timeout, then the message is dropped;
+ * <li>{@link #dropOldest()}: the oldest message in the box is dropped to make room;
+ * <li>{@link #dropNewest()}: the incoming message is dropped (default);
+ * <li>{@link #spillToDisk(File)}: messages exceeding the limit are stored in a file and read back in order,
+ * selective reads find them too;
+ * <li>{@link #grow()}: the limit is ignored.
+ * </ul>
+ * Every dropped message is counted by the message box.
+ *
+ * @author Francesco Santagati
+ */
+public final class OverflowPolicy {
+
+    /**
+     * Kind of policy.
+     */
+    public enum Type {
+        BLOCK,
+        DROP_OLDEST,
+        DROP_NEWEST,
+        SPILL_TO_DISK,
+        GROW
+    }
+
+    private static final OverflowPolicy DROP_OLDEST = new OverflowPolicy(Type.DROP_OLDEST, 0L, null);
+    private static final OverflowPolicy DROP_NEWEST = new OverflowPolicy(Type.DROP_NEWEST, 0L, null);
+    private static final OverflowPolicy GROW = new OverflowPolicy(Type.GROW, 0L, null);
+
+    private final Type type;
+    private final long timeoutNanos;
+    private final File directory;
+
+    private OverflowPolicy(Type type, long timeoutNanos, File directory) {
+        this.type = type;
+        this.timeoutNanos = timeoutNanos;
+        this.directory = directory;
+    }
+
+    /**
+     * Block the sender until there is free space or timeout expires.
+     *
+     * @param timeout Max time to wait
+     * @param unit    Time unit of timeout
+     * @return policy
+     */
+    public static OverflowPolicy block(long timeout, TimeUnit unit) {
+        if (timeout < 0 || unit == null) {
+            throw new IllegalArgumentException("Wrong parameters");
+        }
+        return new OverflowPolicy(Type.BLOCK, unit.toNanos(timeout), null);
+    }
+
+    /**
+     * @return policy that drops the oldest message in the box
+     */
+    public static OverflowPolicy dropOldest() {
+        return DROP_OLDEST;
+    }
+
+    /**
+     * @return policy that drops the incoming message
+     */
+    public static OverflowPolicy dropNewest() {
+        return DROP_NEWEST;
+    }
+
+    /**
+     * Store messages exceeding the limit in a temporary file.
+     *
+     * @param directory Directory of the temporary file, null for the default temporary directory
+     * @return policy
+     */
+    public static OverflowPolicy spillToDisk(File directory) {
+        return new OverflowPolicy(Type.SPILL_TO_DISK, 0L, directory);
+    }
+
+    /**
+     * @return policy that ignores the message limit
+     */
+    public static OverflowPolicy grow() {
+        return GROW;
+    }
+
+    /**
+     * @return kind of policy
+     */
+    public Type getType() {
+        return type;
+    }
+
+    /**
+     * @return max time a sender waits, in nanoseconds. Only for {@link Type#BLOCK}.
+     */
+    public long getTimeoutNanos() {
+        return timeoutNanos;
+    }
+
+    /**
+     * @return directory of the spill file. Only for {@link Type#SPILL_TO_DISK}.
+     */
+    public File getDirectory() {
+        return directory;
+    }
+
+    @Override
+    public String toString() {
+        return type.toString();
+    }
+}
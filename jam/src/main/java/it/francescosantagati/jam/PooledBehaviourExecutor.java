@@ -0,0 +1,77 @@
+package it.francescosantagati.jam;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Executor that runs behaviours on a bounded pool of threads, reused across behaviours and agents.
+ * <p>A behaviour holds a pooled thread until it ends: when every thread is busy, behaviours
+ * started later wait for a free thread. The pool must be sized for the behaviours that run together,
+ * e.g. the {@link JAMWhileBehaviour} instances that never end.</p>
+ *
+ * @author Francesco Santagati
+ */
+public class PooledBehaviourExecutor implements BehaviourExecutor {
+
+    /**
+     * Seconds an idle thread is kept in the pool.
+     */
+    public static final long KEEP_ALIVE_SECONDS = 60;
+
+    private final ExecutorService executor;
+
+    /**
+     * Construct an executor with a pool of max threads provided.
+     *
+     * @param maxThreads Max number of threads
+     */
+    public PooledBehaviourExecutor(int maxThreads) {
+        if (maxThreads <= 0) {
+            throw new IllegalArgumentException("Max threads MUST be a positive number");
+        }
+
+        ThreadPoolExecutor pool = new ThreadPoolExecutor(maxThreads, maxThreads,
+                KEEP_ALIVE_SECONDS, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>());
+        pool.allowCoreThreadTimeOut(true);
+        executor = pool;
+    }
+
+    /**
+     * Construct an executor that runs behaviours on the executor service provided.
+     *
+     * @param executor An {@link ExecutorService} instance
+     */
+    public PooledBehaviourExecutor(ExecutorService executor) {
+        if (executor == null) {
+            throw new IllegalArgumentException("Wrong parameters");
+        }
+        this.executor = executor;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void execute(Runnable task) {
+        if (task == null) {
+            throw new IllegalArgumentException("Wrong parameters");
+        }
+
+        try {
+            executor.execute(task);
+        } catch (RejectedExecutionException e) {
+            throw new IllegalStateException("Executor is shut down", e);
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void shutdown() {
+        executor.shutdown();
+    }
+}
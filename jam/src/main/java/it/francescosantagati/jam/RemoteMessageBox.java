@@ -2,6 +2,7 @@ package it.francescosantagati.jam;
 
 import java.rmi.Remote;
 import java.rmi.RemoteException;
+import java.util.List;
 
 /**
  * Interface definition for a remote message box object.
@@ -19,6 +20,15 @@ public interface RemoteMessageBox extends Remote {
      */
     void writeMessage(Message message) throws RemoteException, InterruptedException;
 
+    /**
+     * Insert a list of messages into message box with a single remote call, keeping their order.
+     *
+     * @param messages it.francescosantagati.jam.Message list
+     * @throws RemoteException when fail to connect
+     * @throws InterruptedException when thread is interrupted
+     */
+    void writeMessages(List<Message> messages) throws RemoteException, InterruptedException;
+
     /**
      * Retrieve agent id that is the message box owner
      *
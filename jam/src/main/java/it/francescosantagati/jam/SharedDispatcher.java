@@ -0,0 +1,40 @@
+package it.francescosantagati.jam;
+
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Pool of daemon threads, one for each processor, shared by behaviours that run short callbacks,
+ * e.g. {@link JAMReactiveBehaviour}, {@link JAMWakerBehaviour} and {@link JAMTickerBehaviour}.
+ *
+ * @author Francesco Santagati
+ */
+final class SharedDispatcher {
+
+    private SharedDispatcher() {
+    }
+
+    /**
+     * Provide the shared dispatcher, created on first use.
+     *
+     * @return A {@link BehaviourExecutor} instance.
+     */
+    static BehaviourExecutor get() {
+        return Holder.INSTANCE;
+    }
+
+    private static final class Holder {
+        private static final BehaviourExecutor INSTANCE = new PooledBehaviourExecutor(
+                Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors(), new ThreadFactory() {
+                    private final AtomicInteger count = new AtomicInteger();
+
+                    @Override
+                    public Thread newThread(Runnable runnable) {
+                        Thread thread = new Thread(runnable, "jam-dispatcher-" + count.incrementAndGet());
+                        thread.setDaemon(true);
+                        return thread;
+                    }
+                }));
+    }
+}
@@ -0,0 +1,92 @@
+package it.francescosantagati.jam;
+
+import java.io.Serializable;
+import java.rmi.RemoteException;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * A reference to a message box exported by {@link SharedMemoryTransport}, stored in the {@link ADSL}
+ * instead of an RMI stub.
+ * <p>It is not an exported remote object, so RMI copies it by value. Agents on the same host write messages
+ * into the directory of the message box. Agents on other hosts, that do not see the directory, deliver
+ * messages through the RMI stub of the message box, as well as agents on JVMs older than Java 9.</p>
+ *
+ * @author Francesco Santagati
+ */
+final class SharedMemoryMessageBox implements RemoteMessageBox, Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    private final AgentID owner;
+    private final String path;
+    private final RemoteMessageBox stub;
+
+    /**
+     * @param owner Owner of the message box
+     * @param path  Directory of the ring buffers of the message box
+     * @param stub  RMI stub of the message box, used by other hosts
+     */
+    SharedMemoryMessageBox(AgentID owner, String path, RemoteMessageBox stub) {
+        this.owner = owner;
+        this.path = path;
+        this.stub = stub;
+    }
+
+    /**
+     * Write a message into the ring buffer of this JVM. It returns once the message is in the ring buffer.
+     *
+     * @param message it.francescosantagati.jam.Message
+     * @throws RemoteException      when fail to write, or the message box is no longer exported
+     * @throws InterruptedException when thread is interrupted while waiting for free space
+     */
+    @Override
+    public void writeMessage(Message message) throws RemoteException, InterruptedException {
+        writeMessages(Collections.singletonList(message));
+    }
+
+    /**
+     * Write a list of messages into the ring buffer of this JVM as a single frame.
+     *
+     * @param messages it.francescosantagati.jam.Message list
+     * @throws RemoteException      when fail to write, or the message box is no longer exported
+     * @throws InterruptedException when thread is interrupted while waiting for free space
+     */
+    @Override
+    public void writeMessages(List<Message> messages) throws RemoteException, InterruptedException {
+        if (messages == null || messages.contains(null)) {
+            throw new IllegalArgumentException("Wrong parameters");
+        }
+
+        if (!SharedMemoryTransport.isSupported() || !SharedMemoryTransport.get().send(this, messages)) {
+            stub.writeMessages(messages);
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public AgentID getOwner() {
+        return owner;
+    }
+
+    String getPath() {
+        return path;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        return o instanceof SharedMemoryMessageBox && path.equals(((SharedMemoryMessageBox) o).path);
+    }
+
+    @Override
+    public int hashCode() {
+        return path.hashCode();
+    }
+
+    @Override
+    public String toString() {
+        return "SharedMemoryMessageBox[" + owner + " at " + path + "]";
+    }
+}
@@ -0,0 +1,810 @@
+package it.francescosantagati.jam;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Method;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.StandardOpenOption;
+import java.rmi.ConnectException;
+import java.rmi.NoSuchObjectException;
+import java.rmi.RemoteException;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Message delivery through memory-mapped files between JVMs of the same host,
+ * selected by {@link Transport#sharedMemory(File)}. It requires Java 9 or later: positions in the mapped memory
+ * are published with VarHandle acquire and release access, see {@link #isSupported()}.
+ * <p>Every exported message box has a directory. Every JVM that writes to the message box creates in it
+ * a ring buffer of its own, so that each ring buffer has a single producer: threads of the producer JVM take
+ * turns on a lock. A producer waits spinning, then yielding, then parking for {@link #PARK_MICROSECONDS}
+ * when its ring buffer is full, without holding the lock.</p>
+ * <p>A JVM that exports message boxes holds a lock on a file until it dies. Before writing, at most every
+ * {@link #PROBE_MILLISECONDS}, a producer checks that the message box is still exported and that its JVM
+ * still holds the lock: otherwise the write fails and the ring buffer is dropped. Records written by a JVM
+ * that dies meanwhile are lost, as they are by other transports.</p>
+ * <p>Every JVM that exports message boxes has a doorbell file with a slot for each of its message boxes.
+ * After writing a record, or creating a ring buffer, a producer raises a flag in the slot of the message box
+ * and the pending flag of the doorbell. A single thread for each JVM waits on the pending flag, so that it costs
+ * the same however many message boxes are exported, then reads only the message boxes whose slot is raised.
+ * The thread ends when the last message box is unexported, and a new one starts with the next export.
+ * Records are handed over to a task of the message box, run by a shared pool: a full message box that blocks
+ * its writers only stops delivery to itself. While the task runs, the ring buffers of that message box are not
+ * read, so its producers eventually wait for free space.</p>
+ * <p>Ring buffer layout: <code>int magic, int capacity</code>, write position, read position and closed flag
+ * on cache lines of their own, then the records: <code>int length, message frame</code>, aligned to 8 bytes.
+ * A record that does not fit before the end is preceded by a padding record of length -1.
+ * Doorbell layout: <code>int magic, int slots</code>, pending flag on a cache line of its own, then for each
+ * slot a data flag and a ring buffer flag. The directory of a message box has a {@link #DOORBELL} file with
+ * the path of the doorbell, the slot of the message box and the path of the lock file.</p>
+ *
+ * @author Francesco Santagati
+ */
+final class SharedMemoryTransport implements Runnable {
+
+    /**
+     * Bytes of records in a ring buffer.
+     */
+    static final int CAPACITY = 1 << 20;
+
+    /**
+     * Max time a reader or a full producer parks before checking again.
+     */
+    static final long PARK_MICROSECONDS = 50;
+
+    /**
+     * Max time a producer writes to a message box without checking that it is still read.
+     */
+    static final long PROBE_MILLISECONDS = 100;
+
+    /**
+     * Max number of message boxes exported by a JVM.
+     */
+    static final int SLOTS = 1 << 16;
+
+    private static final int MAGIC = 0x4A414D52;
+    private static final int BELL_MAGIC = 0x4A414D42;
+    private static final int WRITE = 64;
+    private static final int READ = 128;
+    private static final int CLOSED = 192;
+    private static final int DATA = 256;
+    private static final int PENDING = 64;
+    private static final int SLOT = 128;
+    private static final int SLOT_SIZE = 16;
+    private static final int DATA_FLAG = 0;
+    private static final int RING_FLAG = 8;
+    private static final int PADDING = -1;
+    private static final int SPINS = 1000;
+    private static final int YIELDS = 100;
+    private static final int MAX_RECORDS = 256;
+    private static final String RING = ".ring";
+    private static final String DOORBELL = "doorbell";
+    private static final long PROBE_NANOS = TimeUnit.MILLISECONDS.toNanos(PROBE_MILLISECONDS);
+
+    private static final MethodHandle GET_ACQUIRE;
+    private static final MethodHandle SET_RELEASE;
+    private static final MethodHandle GET_AND_SET;
+
+    static {
+        MethodHandle get = null;
+        MethodHandle set = null;
+        MethodHandle swap = null;
+        try {
+            // Source level is Java 7: VarHandle is reached by reflection
+            Class<?> accessMode = Class.forName("java.lang.invoke.VarHandle$AccessMode");
+            Object varHandle = MethodHandles.class.getMethod("byteBufferViewVarHandle", Class.class, ByteOrder.class)
+                    .invoke(null, long[].class, ByteOrder.nativeOrder());
+            Method toMethodHandle = Class.forName("java.lang.invoke.VarHandle").getMethod("toMethodHandle", accessMode);
+            get = ((MethodHandle) toMethodHandle.invoke(varHandle, accessMode.getField("GET_ACQUIRE").get(null)))
+                    .asType(MethodType.methodType(long.class, ByteBuffer.class, int.class));
+            set = ((MethodHandle) toMethodHandle.invoke(varHandle, accessMode.getField("SET_RELEASE").get(null)))
+                    .asType(MethodType.methodType(void.class, ByteBuffer.class, int.class, long.class));
+            swap = ((MethodHandle) toMethodHandle.invoke(varHandle, accessMode.getField("GET_AND_SET").get(null)))
+                    .asType(MethodType.methodType(long.class, ByteBuffer.class, int.class, long.class));
+        } catch (ReflectiveOperationException e) {
+            // Plain ByteBuffer access gives no ordering between processes: the transport is not supported
+            get = null;
+            set = null;
+            swap = null;
+        }
+        GET_ACQUIRE = get;
+        SET_RELEASE = set;
+        GET_AND_SET = swap;
+    }
+
+    private static SharedMemoryTransport instance;
+
+    private final String producerId;
+    private final Map<String, Ring> producerRings;
+    private final Map<String, Bell> producerBells;
+    private final AtomicReferenceArray<Export> exports;
+    private final BitSet usedSlots;
+    private final ConcurrentLinkedQueue<Export> ready;
+    private final Executor delivery;
+    private volatile Thread reader;
+    private volatile int exported;
+    private volatile int slotLimit;
+    private File bellFile;
+    private File lockFile;
+    private FileChannel lockChannel;
+    private MappedByteBuffer bell;
+
+    private SharedMemoryTransport() {
+        producerId = UUID.randomUUID().toString();
+        producerRings = new HashMap<>();
+        producerBells = new HashMap<>();
+        exports = new AtomicReferenceArray<>(SLOTS);
+        usedSlots = new BitSet(SLOTS);
+        ready = new ConcurrentLinkedQueue<>();
+        final AtomicInteger count = new AtomicInteger();
+        delivery = Executors.newCachedThreadPool(new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable, "jam-shm-delivery-" + count.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+    }
+
+    /**
+     * Check if this JVM has the ordered access to mapped memory the transport needs, i.e. it is Java 9 or later.
+     *
+     * @return True if supported. False otherwise.
+     */
+    static boolean isSupported() {
+        return GET_AND_SET != null;
+    }
+
+    /**
+     * Provide the transport of the JVM, created on first use.
+     *
+     * @return A {@link SharedMemoryTransport} instance
+     * @throws UnsupportedOperationException if the transport is not {@link #isSupported()}
+     */
+    static synchronized SharedMemoryTransport get() {
+        if (!isSupported()) {
+            throw new UnsupportedOperationException("Shared memory transport requires Java 9 or later");
+        }
+        if (instance == null) {
+            instance = new SharedMemoryTransport();
+        }
+        return instance;
+    }
+
+    /**
+     * Export a local message box, creating its directory.
+     *
+     * @param box       Local message box
+     * @param directory Directory where the directory of the message box is created
+     * @param stub      RMI stub of the message box, used by other hosts
+     * @return A reference to be inserted into the {@link ADSL}
+     * @throws IOException when fail to create the directory, or too many message boxes are exported
+     */
+    SharedMemoryMessageBox export(RemoteMessageBox box, File directory, RemoteMessageBox stub) throws IOException {
+        File path = new File(directory, "jam-" + UUID.randomUUID());
+        if (!path.mkdirs()) {
+            throw new IOException("Can not create " + path);
+        }
+        path.deleteOnExit();
+
+        synchronized (this) {
+            if (bell == null) {
+                // Locked before any message box points to the doorbell, held until this JVM dies
+                lockFile = new File(directory, "jam-" + producerId + ".lock");
+                lockChannel = new RandomAccessFile(lockFile, "rw").getChannel();
+                lockChannel.lock(0L, 1L, false);
+                lockFile.deleteOnExit();
+
+                bellFile = new File(directory, "jam-" + producerId + ".bell");
+                bell = map(bellFile, SLOT + (long) SLOTS * SLOT_SIZE);
+                bell.putInt(4, SLOTS);
+                bell.putInt(0, BELL_MAGIC);
+                bellFile.deleteOnExit();
+            }
+            int slot = usedSlots.nextClearBit(0);
+            if (slot >= SLOTS) {
+                throw new IOException("Too many message boxes exported");
+            }
+            usedSlots.set(slot);
+            slotLimit = Math.max(slotLimit, slot + 1);
+
+            File doorbell = new File(path, DOORBELL);
+            Files.write(doorbell.toPath(), (bellFile.getAbsolutePath() + "\n" + slot + "\n"
+                    + lockFile.getAbsolutePath()).getBytes(StandardCharsets.UTF_8));
+            doorbell.deleteOnExit();
+            exports.set(slot, new Export(box, path, slot));
+            exported++;
+            if (reader == null) {
+                reader = new Thread(this, "jam-shm-reader");
+                reader.setDaemon(true);
+                reader.start();
+            }
+        }
+        return new SharedMemoryMessageBox(box.getOwner(), path.getAbsolutePath(), stub);
+    }
+
+    /**
+     * Stop reading a message box: its ring buffers are closed, so that producers fail, and deleted.
+     * The reader thread ends once no message box is exported.
+     *
+     * @param box Reference returned by {@link #export(RemoteMessageBox, File, RemoteMessageBox)}
+     */
+    void unexport(SharedMemoryMessageBox box) {
+        synchronized (this) {
+            for (int slot = 0; slot < slotLimit; slot++) {
+                Export export = exports.get(slot);
+                if (export != null && export.path.getAbsolutePath().equals(box.getPath())) {
+                    exports.set(slot, null);
+                    usedSlots.clear(slot);
+                    exported--;
+                    export.close();
+                }
+            }
+        }
+    }
+
+    /**
+     * Write messages into the ring buffer of this JVM for a message box.
+     *
+     * @param box      Message box
+     * @param messages Messages, written in a single record
+     * @return True if written. False if the message box is not on this host, or the frame is too large
+     * @throws RemoteException      when fail to write, or the message box is no longer exported
+     * @throws InterruptedException when thread is interrupted while waiting for free space
+     */
+    boolean send(SharedMemoryMessageBox box, List<Message> messages) throws RemoteException, InterruptedException {
+        Ring ring;
+        try {
+            ring = producerRing(box.getPath());
+        } catch (RemoteException e) {
+            throw e;
+        } catch (IOException e) {
+            throw new RemoteException(e.getMessage(), e);
+        }
+        if (ring == null) {
+            return false;
+        }
+
+        byte[] frame;
+        try {
+            frame = WireFormat.encodeMessages(messages);
+        } catch (IOException e) {
+            throw new RemoteException(e.getMessage(), e);
+        }
+        if (align(4 + frame.length) > CAPACITY / 2) {
+            return false;
+        }
+        try {
+            ring.write(frame, box);
+        } catch (RemoteException e) {
+            evict(box.getPath(), ring);
+            throw e;
+        }
+        return true;
+    }
+
+    /**
+     * Wait for the doorbell, reading the message boxes it points to, until no message box is exported.
+     */
+    @Override
+    public void run() {
+        int idle = 0;
+        while (true) {
+            boolean read = false;
+
+            Export export;
+            while ((export = ready.poll()) != null) {
+                read |= export.read();
+            }
+
+            if (getAcquire(bell, PENDING) != 0L && getAndSet(bell, PENDING, 0L) != 0L) {
+                read = true;
+                int limit = slotLimit;
+                for (int slot = 0; slot < limit; slot++) {
+                    int offset = SLOT + slot * SLOT_SIZE;
+                    boolean rings = getAcquire(bell, offset + RING_FLAG) != 0L
+                            && getAndSet(bell, offset + RING_FLAG, 0L) != 0L;
+                    boolean data = getAcquire(bell, offset + DATA_FLAG) != 0L
+                            && getAndSet(bell, offset + DATA_FLAG, 0L) != 0L;
+                    if (rings || data) {
+                        export = exports.get(slot);
+                        if (export != null) {
+                            if (rings) {
+                                export.scan();
+                            }
+                            export.read();
+                        }
+                    }
+                }
+            }
+
+            if (read) {
+                idle = 0;
+            } else if (exported == 0 && stop()) {
+                return;
+            } else {
+                idle = backOff(idle);
+            }
+        }
+    }
+
+    /**
+     * Called on the reader thread when no message box seems exported.
+     * The next export starts a new thread only once this one has returned true.
+     *
+     * @return True if the thread must end. False if a message box has been exported meanwhile.
+     */
+    private synchronized boolean stop() {
+        if (exported > 0) {
+            return false;
+        }
+        reader = null;
+        ready.clear();
+        return true;
+    }
+
+    /**
+     * Spin, then yield, then park.
+     *
+     * @return idle count for the next call
+     */
+    private static int backOff(int idle) {
+        if (idle < SPINS) {
+            return idle + 1;
+        }
+        if (idle < SPINS + YIELDS) {
+            Thread.yield();
+            return idle + 1;
+        }
+        LockSupport.parkNanos(TimeUnit.MICROSECONDS.toNanos(PARK_MICROSECONDS));
+        return idle;
+    }
+
+    /**
+     * Provide the ring buffer of this JVM in the directory provided, creating it if needed.
+     *
+     * @return ring buffer or null if the directory does not exist on this host
+     */
+    private Ring producerRing(String path) throws IOException {
+        synchronized (producerRings) {
+            Ring ring = producerRings.get(path);
+            if (ring != null) {
+                return ring;
+            }
+
+            File directory = new File(path);
+            File doorbell = new File(directory, DOORBELL);
+            if (!directory.isDirectory() || !doorbell.isFile()) {
+                return null;
+            }
+            String[] lines = new String(Files.readAllBytes(doorbell.toPath()), StandardCharsets.UTF_8).split("\n");
+            int slot;
+            try {
+                slot = Integer.parseInt(lines[1].trim());
+            } catch (NumberFormatException | ArrayIndexOutOfBoundsException e) {
+                throw new IOException("Wrong doorbell " + doorbell, e);
+            }
+            if (lines.length < 3) {
+                throw new IOException("Wrong doorbell " + doorbell);
+            }
+            Bell bell = producerBells.get(lines[0]);
+            if (bell == null) {
+                MappedByteBuffer buffer = map(new File(lines[0]), SLOT + (long) SLOTS * SLOT_SIZE);
+                if (buffer.getInt(0) != BELL_MAGIC || buffer.getInt(4) != SLOTS) {
+                    throw new IOException("Wrong doorbell " + lines[0]);
+                }
+                bell = new Bell(buffer, new File(lines[2]), new File(lines[0]).getName().startsWith("jam-" + producerId));
+                producerBells.put(lines[0], bell);
+            }
+            if (!bell.isAlive()) {
+                producerBells.remove(lines[0]);
+                throw new ConnectException(path + " is not read");
+            }
+
+            // Renamed once initialized, so that the reader never maps a partial file
+            File temporary = new File(directory, producerId + ".tmp");
+            File file = new File(directory, producerId + RING);
+            MappedByteBuffer buffer = map(temporary, DATA + CAPACITY);
+            buffer.putInt(4, CAPACITY);
+            buffer.putInt(0, MAGIC);
+            buffer.force();
+            if (!temporary.renameTo(file)) {
+                throw new IOException("Can not create " + file);
+            }
+
+            ring = new Ring(buffer, file, doorbell, bell, SLOT + slot * SLOT_SIZE);
+            ring.ring(RING_FLAG);
+            producerRings.put(path, ring);
+            return ring;
+        }
+    }
+
+    /**
+     * Drop a ring buffer that failed, with the doorbell if its JVM is dead. Other ring buffers of a dead JVM
+     * are dropped when they are written. Mappings are released by the garbage collector, since other threads
+     * may still be using them.
+     */
+    private void evict(String path, Ring ring) {
+        synchronized (producerRings) {
+            if (producerRings.get(path) == ring) {
+                producerRings.remove(path);
+            }
+            if (!ring.bell.alive) {
+                producerBells.values().remove(ring.bell);
+            }
+        }
+        // Nobody reads it any more: the reader JVM is dead, or it is deleting the directory
+        if (ring.file.exists() && !ring.file.delete()) {
+            Log.e(this, "Can not delete {}", ring.file);
+        }
+    }
+
+    private static MappedByteBuffer map(File file, long size) throws IOException {
+        try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+            if (raf.length() < size) {
+                raf.setLength(size);
+            }
+            MappedByteBuffer buffer = raf.getChannel().map(FileChannel.MapMode.READ_WRITE, 0L, size);
+            buffer.order(ByteOrder.nativeOrder());
+            return buffer;
+        }
+    }
+
+    private static int align(int length) {
+        return (length + 7) & ~7;
+    }
+
+    private static long getAcquire(ByteBuffer buffer, int offset) {
+        try {
+            return (long) GET_ACQUIRE.invokeExact(buffer, offset);
+        } catch (Throwable e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static void setRelease(ByteBuffer buffer, int offset, long value) {
+        try {
+            SET_RELEASE.invokeExact(buffer, offset, value);
+        } catch (Throwable e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static long getAndSet(ByteBuffer buffer, int offset, long value) {
+        try {
+            return (long) GET_AND_SET.invokeExact(buffer, offset, value);
+        } catch (Throwable e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * A message box read by this JVM, with the ring buffers of its producers.
+     * Ring buffers are read on the reader thread only while no delivery to the message box is running.
+     */
+    private final class Export implements Runnable {
+        private final RemoteMessageBox box;
+        private final File path;
+        private final int slot;
+        private final List<Ring> rings;
+        private final Set<String> known;
+        private final List<byte[]> frames;
+        private volatile boolean delivering;
+        private volatile boolean closed;
+
+        private Export(RemoteMessageBox box, File path, int slot) {
+            this.box = box;
+            this.path = path;
+            this.slot = slot;
+            this.rings = new CopyOnWriteArrayList<>();
+            this.known = new HashSet<>();
+            this.frames = new ArrayList<>();
+        }
+
+        /**
+         * Map ring buffers created by new producers. Called on the reader thread when the doorbell says so.
+         */
+        private void scan() {
+            String[] names = path.list();
+            if (names == null) {
+                return;
+            }
+            for (String name : names) {
+                if (!name.endsWith(RING) || known.contains(name)) {
+                    continue;
+                }
+                File file = new File(path, name);
+                try {
+                    MappedByteBuffer buffer = map(file, DATA + CAPACITY);
+                    if (buffer.getInt(0) != MAGIC || buffer.getInt(4) != CAPACITY) {
+                        Log.e(this, "Wrong ring buffer {}", file);
+                        continue;
+                    }
+                    file.deleteOnExit();
+                    known.add(name);
+                    rings.add(new Ring(buffer, file, null, null, 0));
+                } catch (IOException e) {
+                    Log.e(this, e.getMessage());
+                }
+            }
+        }
+
+        /**
+         * Called on the reader thread: take available records and hand them over to the delivery task.
+         *
+         * @return True if some record was taken. False otherwise.
+         */
+        private boolean read() {
+            if (delivering || closed) {
+                // The task reads again when it is over
+                return false;
+            }
+            for (Ring ring : rings) {
+                ring.read(frames, MAX_RECORDS - frames.size());
+            }
+            if (frames.isEmpty()) {
+                return false;
+            }
+            delivering = true;
+            delivery.execute(this);
+            return true;
+        }
+
+        /**
+         * Deliver the records taken, then ask the reader to look at the ring buffers again.
+         */
+        @Override
+        public void run() {
+            try {
+                for (byte[] frame : frames) {
+                    try {
+                        box.writeMessages(WireFormat.decodeMessages(frame, 0, frame.length));
+                    } catch (IOException | ClassNotFoundException | InterruptedException | RuntimeException e) {
+                        Log.e(this, e.getMessage());
+                    }
+                }
+            } finally {
+                frames.clear();
+                delivering = false;
+                ready.add(this);
+                LockSupport.unpark(reader);
+            }
+        }
+
+        private void close() {
+            closed = true;
+            for (Ring ring : rings) {
+                ring.close();
+            }
+            File[] files = path.listFiles();
+            if (files != null) {
+                for (File file : files) {
+                    if (!file.delete()) {
+                        Log.e(this, "Can not delete {}", file);
+                    }
+                }
+            }
+            if (!path.delete()) {
+                Log.e(this, "Can not delete {}", path);
+            }
+        }
+
+        @Override
+        public String toString() {
+            return "Export[" + path + " at slot " + slot + "]";
+        }
+    }
+
+    /**
+     * The doorbell of a reader JVM, with the file it holds a lock on until it dies.
+     */
+    private static final class Bell {
+        private final MappedByteBuffer buffer;
+        private final File lock;
+        private final boolean local;
+        private volatile boolean alive;
+
+        /**
+         * @param local True if the reader JVM is this one
+         */
+        private Bell(MappedByteBuffer buffer, File lock, boolean local) {
+            this.buffer = buffer;
+            this.lock = lock;
+            this.local = local;
+            this.alive = true;
+        }
+
+        /**
+         * Check if the reader JVM still holds the lock. A dead JVM is never checked again.
+         * This JVM is not checked: closing a channel would release its own lock.
+         */
+        private boolean isAlive() {
+            if (local || !alive) {
+                return alive;
+            }
+            try (FileChannel channel = FileChannel.open(lock.toPath(), StandardOpenOption.WRITE)) {
+                FileLock free = channel.tryLock(0L, 1L, false);
+                if (free != null) {
+                    free.release();
+                    alive = false;
+                }
+            } catch (NoSuchFileException e) {
+                alive = false;
+            } catch (OverlappingFileLockException | IOException e) {
+                Log.e(this, "Can not check {}: {}", lock, e.getMessage());
+            }
+            return alive;
+        }
+    }
+
+    /**
+     * A single producer, single consumer ring buffer. Each side keeps its own position in a field
+     * and publishes it in the mapped memory with release access, the other side reads it with acquire access.
+     */
+    private static final class Ring {
+        private final MappedByteBuffer buffer;
+        private final File file;
+        private final File doorbell;
+        private final Bell bell;
+        private final int slot;
+        private long writePosition;
+        private long readPosition;
+        private volatile long probed;
+
+        /**
+         * @param doorbell {@link #DOORBELL} file of the message box, null on the reader side
+         * @param bell     Doorbell of the reader JVM, null on the reader side
+         * @param slot     Offset of the slot of the message box in the doorbell
+         */
+        private Ring(MappedByteBuffer buffer, File file, File doorbell, Bell bell, int slot) {
+            this.buffer = buffer;
+            this.file = file;
+            this.doorbell = doorbell;
+            this.bell = bell;
+            this.slot = slot;
+            this.writePosition = buffer.getLong(WRITE);
+            this.readPosition = buffer.getLong(READ);
+            this.probed = System.nanoTime();
+        }
+
+        /**
+         * Called by producers of this JVM. Only one of them at a time writes, but they wait for free space
+         * without holding the lock.
+         */
+        private void write(byte[] frame, SharedMemoryMessageBox box) throws RemoteException, InterruptedException {
+            int record = align(4 + frame.length);
+            int idle = 0;
+            while (true) {
+                check(box);
+                synchronized (this) {
+                    if (tryWrite(frame, record)) {
+                        return;
+                    }
+                }
+                if (Thread.interrupted()) {
+                    throw new InterruptedException();
+                }
+                idle = backOff(idle);
+            }
+        }
+
+        /**
+         * Must be called holding the lock.
+         *
+         * @return True if written. False if there is no free space.
+         */
+        private boolean tryWrite(byte[] frame, int record) {
+            int index = (int) (writePosition & (CAPACITY - 1));
+            int padding = CAPACITY - index < record ? CAPACITY - index : 0;
+            if (CAPACITY - (writePosition - getAcquire(buffer, READ)) < padding + record) {
+                return false;
+            }
+
+            if (padding > 0) {
+                buffer.putInt(DATA + index, PADDING);
+                index = 0;
+            }
+            buffer.putInt(DATA + index, frame.length);
+            ByteBuffer data = buffer.duplicate();
+            data.position(DATA + index + 4);
+            data.put(frame);
+
+            // Release orders the records before the position, the position before the doorbell
+            writePosition += padding + record;
+            setRelease(buffer, WRITE, writePosition);
+            ring(DATA_FLAG);
+            return true;
+        }
+
+        /**
+         * Fail if the message box is closed, or, at most every {@link #PROBE_MILLISECONDS}, if it is
+         * no longer exported or its JVM is dead.
+         */
+        private void check(SharedMemoryMessageBox box) throws RemoteException {
+            if (getAcquire(buffer, CLOSED) != 0) {
+                throw new NoSuchObjectException(box.toString());
+            }
+            long now = System.nanoTime();
+            if (now - probed < PROBE_NANOS) {
+                return;
+            }
+            probed = now;
+            if (!doorbell.isFile()) {
+                throw new NoSuchObjectException(box.toString());
+            }
+            if (!bell.isAlive()) {
+                throw new ConnectException(box + " is not read");
+            }
+        }
+
+        /**
+         * Raise a flag in the slot of the message box, then the pending flag of the doorbell.
+         */
+        private void ring(int flag) {
+            setRelease(bell.buffer, slot + flag, 1L);
+            setRelease(bell.buffer, PENDING, 1L);
+        }
+
+        /**
+         * Called on the reader thread: copy available records, freeing their space.
+         *
+         * @param frames List to add frames to
+         * @param max    Max number of records to copy
+         */
+        private void read(List<byte[]> frames, int max) {
+            long available = getAcquire(buffer, WRITE);
+            if (available == readPosition) {
+                return;
+            }
+
+            for (int records = 0; readPosition != available && records < max; records++) {
+                int index = (int) (readPosition & (CAPACITY - 1));
+                int length = buffer.getInt(DATA + index);
+                if (length == PADDING) {
+                    readPosition += CAPACITY - index;
+                    continue;
+                }
+
+                byte[] frame = new byte[length];
+                ByteBuffer data = buffer.duplicate();
+                data.position(DATA + index + 4);
+                data.get(frame);
+                readPosition += align(4 + length);
+                frames.add(frame);
+            }
+            setRelease(buffer, READ, readPosition);
+        }
+
+        private void close() {
+            setRelease(buffer, CLOSED, 1L);
+        }
+    }
+}
@@ -0,0 +1,107 @@
+package it.francescosantagati.jam;
+
+import java.io.IOException;
+import java.io.Serializable;
+import java.rmi.RemoteException;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * A reference to a message box exported by {@link NioTransport}, stored in the {@link ADSL} instead of an RMI stub.
+ * <p>It is not an exported remote object, so RMI copies it by value: other nodes deliver messages through
+ * their own {@link NioTransport}, connecting to host and port of the node that owns the message box.</p>
+ *
+ * @author Francesco Santagati
+ */
+final class SocketMessageBox implements RemoteMessageBox, Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    private final AgentID owner;
+    private final String host;
+    private final int port;
+    private final long id;
+
+    SocketMessageBox(AgentID owner, String host, int port, long id) {
+        this.owner = owner;
+        this.host = host;
+        this.port = port;
+        this.id = id;
+    }
+
+    /**
+     * Enqueue a message on the connection to the owner node. It returns before the message is delivered.
+     *
+     * @param message it.francescosantagati.jam.Message
+     * @throws RemoteException      when fail to connect, or the message box is no longer exported
+     * @throws InterruptedException when thread is interrupted while waiting for acknowledgements
+     */
+    @Override
+    public void writeMessage(Message message) throws RemoteException, InterruptedException {
+        writeMessages(Collections.singletonList(message));
+    }
+
+    /**
+     * Enqueue a list of messages on the connection to the owner node as a single frame.
+     *
+     * @param messages it.francescosantagati.jam.Message list
+     * @throws RemoteException      when fail to connect, or the message box is no longer exported
+     * @throws InterruptedException when thread is interrupted while waiting for acknowledgements
+     */
+    @Override
+    public void writeMessages(List<Message> messages) throws RemoteException, InterruptedException {
+        if (messages == null || messages.contains(null)) {
+            throw new IllegalArgumentException("Wrong parameters");
+        }
+
+        NioTransport transport;
+        try {
+            transport = NioTransport.get();
+        } catch (IOException e) {
+            throw new RemoteException(e.getMessage(), e);
+        }
+        transport.send(this, messages);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public AgentID getOwner() {
+        return owner;
+    }
+
+    String getHost() {
+        return host;
+    }
+
+    int getPort() {
+        return port;
+    }
+
+    long getId() {
+        return id;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (!(o instanceof SocketMessageBox)) {
+            return false;
+        }
+        SocketMessageBox other = (SocketMessageBox) o;
+        return id == other.id && port == other.port && host.equals(other.host);
+    }
+
+    @Override
+    public int hashCode() {
+        return (host.hashCode() * 31 + port) * 31 + (int) (id ^ (id >>> 32));
+    }
+
+    @Override
+    public String toString() {
+        return "SocketMessageBox[" + owner + " at " + host + ":" + port + "#" + id + "]";
+    }
+}
@@ -0,0 +1,38 @@
+package it.francescosantagati.jam;
+
+/**
+ * A behaviour that a {@link CooperativeScheduler} can step, see {@link JAMAgent#setCooperative(boolean)}.
+ * <p>The state methods are those of {@link JAMBehaviour}, that every implementation extends.</p>
+ *
+ * @author Francesco Santagati
+ */
+interface Steppable {
+
+    /**
+     * Execute one step of this behaviour on the scheduler thread. It must not block.
+     * Called by the scheduler only.
+     *
+     * @return True if the behaviour is ended. False otherwise.
+     */
+    boolean step();
+
+    /**
+     * @see JAMBehaviour#isDone()
+     */
+    boolean isDone();
+
+    /**
+     * @see JAMBehaviour#isBlocked()
+     */
+    boolean isBlocked();
+
+    /**
+     * @see JAMBehaviour#restart()
+     */
+    void restart();
+
+    /**
+     * @see JAMBehaviour#done()
+     */
+    void done();
+}
@@ -0,0 +1,35 @@
+package it.francescosantagati.jam;
+
+/**
+ * Executor that runs every behaviour on a new platform {@link Thread}.
+ * This is the default executor of {@link JAMAgent}.
+ *
+ * @author Francesco Santagati
+ */
+public class ThreadBehaviourExecutor implements BehaviourExecutor {
+
+    private volatile boolean shutdown;
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void execute(Runnable task) {
+        if (task == null) {
+            throw new IllegalArgumentException("Wrong parameters");
+        }
+        if (shutdown) {
+            throw new IllegalStateException("Executor is shut down");
+        }
+
+        new Thread(task).start();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void shutdown() {
+        shutdown = true;
+    }
+}
@@ -0,0 +1,212 @@
+package it.francescosantagati.jam;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Base class of behaviours that run when a timeout of the shared {@link TimingWheel} expires.
+ * <p>On {@link JAMAgent#start()} the behaviour is set up and schedules its first timeout, then it releases
+ * its thread. When the timeout expires {@link #action()} is executed by a worker of the dispatcher shared
+ * with {@link JAMReactiveBehaviour}, so no thread is parked waiting. In cooperative mode the behaviour
+ * is blocked until the timeout expires and {@link #action()} is executed on the scheduler thread.</p>
+ *
+ * @author Francesco Santagati
+ */
+abstract class TimedBehaviour extends JAMBehaviour implements Steppable {
+
+    private final long delayNanos;
+    private final long periodNanos;
+    private final AtomicBoolean disposed;
+    private final Runnable expire;
+    private final Runnable dispatch;
+    private BehaviourExecutor dispatcher;
+    private TimingWheel.Timeout timeout;
+    private long deadlineNanos;
+    private volatile boolean expired;
+
+    /**
+     * @param myAgent it.francescosantagati.jam.JAMAgent
+     * @param delay   Delay of the first timeout
+     * @param period  Period of the following timeouts, 0 to terminate the behaviour after the first one
+     * @param unit    Time unit of delay and period
+     */
+    TimedBehaviour(JAMAgent myAgent, long delay, long period, TimeUnit unit) {
+        super(myAgent);
+        if (delay < 0 || period < 0 || unit == null) {
+            throw new IllegalArgumentException("Wrong parameters");
+        }
+
+        this.delayNanos = unit.toNanos(delay);
+        this.periodNanos = unit.toNanos(period);
+        this.disposed = new AtomicBoolean();
+        this.expire = new Runnable() {
+            @Override
+            public void run() {
+                expire();
+            }
+        };
+        this.dispatch = new Runnable() {
+            @Override
+            public void run() {
+                dispatch();
+            }
+        };
+        this.dispatcher = SharedDispatcher.get();
+    }
+
+    /**
+     * Replace the executor that runs {@link #action()}. Must be called before {@link JAMAgent#start()}.
+     * By default a pool of daemon threads, one for each processor, is shared by all timed and reactive behaviours.
+     *
+     * @param dispatcher A {@link BehaviourExecutor} instance
+     */
+    public void setDispatcher(BehaviourExecutor dispatcher) {
+        if (dispatcher == null) {
+            throw new IllegalArgumentException("Wrong parameters");
+        }
+        this.dispatcher = dispatcher;
+    }
+
+    /**
+     * A timed behaviour have three steps:
+     * <ul>
+     * <li>setup: initialization
+     * <li>action: executed when a timeout expires
+     * <li>dispose: last operation before behaviour end
+     * </ul>
+     */
+    public void run() {
+        try {
+            setup();
+        } catch (JAMBehaviourInterruptedException e) {
+            Log.e(this, e.getMessage());
+            done();
+            return;
+        }
+
+        schedule(System.nanoTime() + delayNanos);
+    }
+
+    /**
+     * Terminate this behaviour: its timeout is cancelled and it is disposed.
+     */
+    @Override
+    public void done() {
+        super.done();
+        synchronized (this) {
+            if (timeout != null) {
+                timeout.cancel();
+                timeout = null;
+            }
+        }
+        if (disposed.compareAndSet(false, true)) {
+            disposeQuietly();
+        }
+    }
+
+    /**
+     * In cooperative mode the behaviour is blocked until its timeout expires: the step after
+     * the expiration executes action.
+     */
+    @Override
+    public boolean step() {
+        boolean first = firstStep();
+        if (first && isDone()) {
+            return true;
+        }
+
+        if (first) {
+            try {
+                setup();
+            } catch (JAMBehaviourInterruptedException e) {
+                Log.e(this, e.getMessage());
+                done();
+                return true;
+            }
+            schedule(System.nanoTime() + delayNanos);
+        }
+        if (isDone()) {
+            return true;
+        }
+
+        if (!expired) {
+            block();
+            // The timeout may have expired before the behaviour blocked itself
+            if (!expired) {
+                return false;
+            }
+            restart();
+        }
+        expired = false;
+        fire();
+        return isDone();
+    }
+
+    private void schedule(long deadlineNanos) {
+        synchronized (this) {
+            if (isDone()) {
+                return;
+            }
+            this.deadlineNanos = deadlineNanos;
+            timeout = TimingWheel.shared().schedule(expire, deadlineNanos - System.nanoTime(), TimeUnit.NANOSECONDS);
+        }
+    }
+
+    /**
+     * Run on the wheel thread: hand action over to the scheduler or to the dispatcher.
+     */
+    private void expire() {
+        if (isDone()) {
+            return;
+        }
+
+        if (scheduler != null) {
+            expired = true;
+            restart();
+            return;
+        }
+        try {
+            dispatcher.execute(dispatch);
+        } catch (RuntimeException e) {
+            Log.e(this, e.getMessage());
+        }
+    }
+
+    private void dispatch() {
+        if (!isDone()) {
+            fire();
+        }
+    }
+
+    /**
+     * Execute action, then schedule the next timeout or terminate the behaviour.
+     * Periodic timeouts keep a fixed rate, but a late behaviour skips the periods it missed.
+     */
+    private void fire() {
+        try {
+            action();
+        } catch (JAMBehaviourInterruptedException e) {
+            if (!isDone()) {
+                Log.e(this, e.getMessage());
+                done();
+            }
+            return;
+        }
+
+        if (isDone()) {
+            return;
+        }
+        if (periodNanos == 0) {
+            done();
+            return;
+        }
+
+        long now = System.nanoTime();
+        long next;
+        synchronized (this) {
+            timeout = null;
+            next = deadlineNanos + periodNanos;
+        }
+        schedule(next - now < 0 ? now : next);
+    }
+}
@@ -0,0 +1,295 @@
+package it.francescosantagati.jam;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Hierarchical timing wheel that runs timeouts on a single daemon thread.
+ * <p>Time is divided in ticks. The first wheel has a slot for each of the next 256 ticks, every
+ * upper wheel has slots 256 times larger. A timeout is linked into the slot of its deadline, so
+ * scheduling and cancelling cost O(1) regardless of the number of pending timeouts. When a wheel
+ * completes a round, the next slot of the upper wheel is moved down.</p>
+ * <p>Tasks run on the wheel thread: they must be short, e.g. handing the work over to another thread.</p>
+ *
+ * @author Francesco Santagati
+ */
+final class TimingWheel {
+
+    private static final int SLOT_BITS = 8;
+    private static final int SLOTS = 1 << SLOT_BITS;
+    private static final int MASK = SLOTS - 1;
+    private static final int LEVELS = 4;
+    private static final long MAX_DELTA = (1L << (SLOT_BITS * LEVELS)) - 1;
+
+    private final long tickNanos;
+    private final long startNanos;
+    private final Timeout[][] wheels;
+    private final ReentrantLock lock;
+    private final Condition changed;
+    private long currentTick;
+    private int size;
+
+    /**
+     * Construct a wheel with the tick duration provided and start its thread.
+     *
+     * @param tick Duration of a tick
+     * @param unit Time unit of tick
+     */
+    TimingWheel(long tick, TimeUnit unit) {
+        if (tick <= 0 || unit == null) {
+            throw new IllegalArgumentException("Wrong parameters");
+        }
+
+        tickNanos = unit.toNanos(tick);
+        startNanos = System.nanoTime();
+        wheels = new Timeout[LEVELS][SLOTS];
+        lock = new ReentrantLock();
+        changed = lock.newCondition();
+
+        Thread thread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                work();
+            }
+        }, "jam-timer");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * Provide the wheel shared by the whole JVM, with a tick of 10 milliseconds.
+     *
+     * @return A {@link TimingWheel} instance.
+     */
+    static TimingWheel shared() {
+        return Shared.INSTANCE;
+    }
+
+    /**
+     * Run a task once after the delay provided.
+     *
+     * @param task  Task to run on the wheel thread
+     * @param delay Delay from now
+     * @param unit  Time unit of delay
+     * @return A {@link Timeout} that can be cancelled.
+     */
+    Timeout schedule(Runnable task, long delay, TimeUnit unit) {
+        if (task == null || unit == null) {
+            throw new IllegalArgumentException("Wrong parameters");
+        }
+
+        long nowNanos = System.nanoTime() - startNanos;
+        long delayNanos = Math.max(0L, unit.toNanos(delay));
+        // Saturated: a timeout too far to be represented never expires, link() handles its distance
+        long deadlineNanos = delayNanos > Long.MAX_VALUE - nowNanos ? Long.MAX_VALUE : nowNanos + delayNanos;
+        // Round up: a timeout never expires early
+        long deadline = deadlineNanos / tickNanos + (deadlineNanos % tickNanos != 0 ? 1 : 0);
+        Timeout timeout = new Timeout(task, deadline);
+        lock.lock();
+        try {
+            boolean wasEmpty = size == 0;
+            if (wasEmpty) {
+                // The wheel thread does not advance while idle
+                currentTick = (System.nanoTime() - startNanos) / tickNanos;
+            }
+            link(timeout);
+            size++;
+            if (wasEmpty) {
+                changed.signal();
+            }
+        } finally {
+            lock.unlock();
+        }
+        return timeout;
+    }
+
+    /**
+     * @return number of pending timeouts
+     */
+    int size() {
+        lock.lock();
+        try {
+            return size;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Must be called holding the lock.
+     */
+    private void link(Timeout timeout) {
+        long deadline = Math.max(timeout.deadline, currentTick + 1);
+        long delta = Math.min(deadline - currentTick, MAX_DELTA);
+        int level = 0;
+        while (level < LEVELS - 1 && delta >= (1L << (SLOT_BITS * (level + 1)))) {
+            level++;
+        }
+        if (deadline - currentTick > MAX_DELTA) {
+            deadline = currentTick + MAX_DELTA;
+        }
+
+        int slot = (int) ((deadline >>> (SLOT_BITS * level)) & MASK);
+        Timeout head = wheels[level][slot];
+        timeout.level = level;
+        timeout.slot = slot;
+        timeout.prev = null;
+        timeout.next = head;
+        if (head != null) {
+            head.prev = timeout;
+        }
+        wheels[level][slot] = timeout;
+    }
+
+    /**
+     * Must be called holding the lock.
+     */
+    private void unlink(Timeout timeout) {
+        if (timeout.prev != null) {
+            timeout.prev.next = timeout.next;
+        } else {
+            wheels[timeout.level][timeout.slot] = timeout.next;
+        }
+        if (timeout.next != null) {
+            timeout.next.prev = timeout.prev;
+        }
+        timeout.prev = null;
+        timeout.next = null;
+        timeout.level = -1;
+    }
+
+    /**
+     * Must be called holding the lock.
+     */
+    private Timeout detach(int level, int slot) {
+        Timeout head = wheels[level][slot];
+        wheels[level][slot] = null;
+        for (Timeout timeout = head; timeout != null; timeout = timeout.next) {
+            timeout.level = -1;
+        }
+        return head;
+    }
+
+    private void work() {
+        List<Timeout> expired = new ArrayList<>();
+        while (true) {
+            lock.lock();
+            try {
+                long now = (System.nanoTime() - startNanos) / tickNanos;
+                if (size == 0) {
+                    // Nothing to cascade: jump to the current tick
+                    currentTick = now;
+                    changed.awaitUninterruptibly();
+                    continue;
+                }
+                if (currentTick >= now) {
+                    awaitNanos(tickNanos - (System.nanoTime() - startNanos) % tickNanos);
+                    continue;
+                }
+
+                while (currentTick < now) {
+                    advance(expired);
+                }
+            } finally {
+                lock.unlock();
+            }
+
+            for (Timeout timeout : expired) {
+                try {
+                    timeout.task.run();
+                } catch (RuntimeException e) {
+                    Log.e(this, e.getMessage());
+                }
+            }
+            expired.clear();
+        }
+    }
+
+    /**
+     * Move to the next tick. Must be called holding the lock.
+     */
+    private void advance(List<Timeout> expired) {
+        currentTick++;
+        // Upper slots are moved down from the highest wheel that completed a round
+        for (int level = LEVELS - 1; level > 0; level--) {
+            if ((currentTick & ((1L << (SLOT_BITS * level)) - 1)) == 0) {
+                Timeout timeout = detach(level, (int) ((currentTick >>> (SLOT_BITS * level)) & MASK));
+                while (timeout != null) {
+                    Timeout next = timeout.next;
+                    link(timeout);
+                    timeout = next;
+                }
+            }
+        }
+
+        Timeout timeout = detach(0, (int) (currentTick & MASK));
+        while (timeout != null) {
+            Timeout next = timeout.next;
+            timeout.prev = null;
+            timeout.next = null;
+            if (timeout.deadline <= currentTick) {
+                timeout.expired = true;
+                expired.add(timeout);
+                size--;
+            } else {
+                link(timeout);
+            }
+            timeout = next;
+        }
+    }
+
+    private void awaitNanos(long nanos) {
+        try {
+            changed.awaitNanos(nanos);
+        } catch (InterruptedException e) {
+            Log.e(this, e.getMessage());
+        }
+    }
+
+    /**
+     * A task scheduled on the wheel.
+     */
+    final class Timeout {
+        private final Runnable task;
+        private final long deadline;
+        private Timeout prev;
+        private Timeout next;
+        private int level;
+        private int slot;
+        private boolean expired;
+
+        private Timeout(Runnable task, long deadline) {
+            this.task = task;
+            this.deadline = deadline;
+        }
+
+        /**
+         * Cancel the timeout.
+         *
+         * @return True if cancelled, False if already expired or cancelled
+         */
+        boolean cancel() {
+            lock.lock();
+            try {
+                if (expired || level < 0) {
+                    return false;
+                }
+                unlink(this);
+                size--;
+                return true;
+            } finally {
+                lock.unlock();
+            }
+        }
+    }
+
+    /**
+     * Lazily created on first use.
+     */
+    private static final class Shared {
+        private static final TimingWheel INSTANCE = new TimingWheel(10, TimeUnit.MILLISECONDS);
+    }
+}
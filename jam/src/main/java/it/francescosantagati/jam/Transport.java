@@ -0,0 +1,112 @@
+package it.francescosantagati.jam;
+
+import java.io.File;
+
+/**
+ * How other agents deliver messages to the message box of an agent, set by {@link JAMAgent#setTransport(Transport)}.
+ * <ul>
+ * <li>{@link #rmi()}: every message is a remote call to the message box (default);
+ * <li>{@link #nio(String, int)}: messages are framed over persistent non-blocking socket connections,
+ * one for each pair of JAM nodes. A sender does not wait for the message to be delivered: deliveries
+ * are acknowledged asynchronously, and a sender waits only when too many messages are not acknowledged;
+ * <li>{@link #sharedMemory(File)}: agents on the same host write messages into memory-mapped ring buffers,
+ * read by a thread of the receiving JVM. Agents on other hosts, or on JVMs older than Java 9, deliver by RMI calls.
+ * </ul>
+ * The {@link ADSL} is always reached by RMI.
+ *
+ * @author Francesco Santagati
+ */
+public final class Transport {
+
+    /**
+     * Kind of transport.
+     */
+    public enum Type {
+        RMI,
+        NIO,
+        SHARED_MEMORY
+    }
+
+    private static final Transport RMI = new Transport(Type.RMI, null, 0, null);
+
+    private final Type type;
+    private final String host;
+    private final int port;
+    private final File directory;
+
+    private Transport(Type type, String host, int port, File directory) {
+        this.type = type;
+        this.host = host;
+        this.port = port;
+        this.directory = directory;
+    }
+
+    /**
+     * Deliver messages by RMI calls.
+     *
+     * @return transport
+     */
+    public static Transport rmi() {
+        return RMI;
+    }
+
+    /**
+     * Deliver messages over socket connections. Agents of the same JVM share the port.
+     *
+     * @param host Address of this node that other nodes connect to, e.g. its ip address
+     * @param port Port to listen on, 0 for any free port
+     * @return transport
+     */
+    public static Transport nio(String host, int port) {
+        if (host == null || port < 0 || port > 0xFFFF) {
+            throw new IllegalArgumentException("Wrong parameters");
+        }
+        return new Transport(Type.NIO, host, port, null);
+    }
+
+    /**
+     * Deliver messages of agents on the same host through memory-mapped files. It requires Java 9 or later.
+     *
+     * @param directory Directory of the files, null for <code>/dev/shm</code> if available or the temporary directory
+     * @return transport
+     * @throws UnsupportedOperationException if the JVM is older than Java 9
+     */
+    public static Transport sharedMemory(File directory) {
+        if (!SharedMemoryTransport.isSupported()) {
+            throw new UnsupportedOperationException("Shared memory transport requires Java 9 or later");
+        }
+        if (directory == null) {
+            File shm = new File("/dev/shm");
+            directory = shm.isDirectory() ? shm : new File(System.getProperty("java.io.tmpdir"));
+        }
+        return new Transport(Type.SHARED_MEMORY, null, 0, directory);
+    }
+
+    /**
+     * @return kind of transport
+     */
+    public Type getType() {
+        return type;
+    }
+
+    /**
+     * @return address other nodes connect to, null if not {@link Type#NIO}
+     */
+    public String getHost() {
+        return host;
+    }
+
+    /**
+     * @return port to listen on, 0 for any free port
+     */
+    public int getPort() {
+        return port;
+    }
+
+    /**
+     * @return directory of memory-mapped files, null if not {@link Type#SHARED_MEMORY}
+     */
+    public File getDirectory() {
+        return directory;
+    }
+}
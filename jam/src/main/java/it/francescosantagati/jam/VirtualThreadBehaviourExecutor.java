@@ -0,0 +1,89 @@
+package it.francescosantagati.jam;
+
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.util.concurrent.ExecutorService;
+
+/**
+ * Executor that runs every behaviour on a new virtual thread.
+ * <p>A virtual thread blocked in a receive or a sleep does not hold a platform thread, so an agent
+ * platform can run many thousands of blocking behaviours. Virtual threads are available since Java 21:
+ * check {@link #isSupported()} before construction.</p>
+ *
+ * @author Francesco Santagati
+ */
+public class VirtualThreadBehaviourExecutor extends PooledBehaviourExecutor {
+
+    /**
+     * Construct a virtual thread executor.
+     *
+     * @throws UnsupportedOperationException if the running JVM does not support virtual threads
+     */
+    public VirtualThreadBehaviourExecutor() {
+        super(newVirtualThreadPerTaskExecutor());
+    }
+
+    /**
+     * Check if the running JVM supports virtual threads. A virtual thread factory is built once to find out:
+     * on Java 19 and 20 the API exists but fails unless preview features are enabled.
+     *
+     * @return True if supported. False otherwise.
+     */
+    public static boolean isSupported() {
+        return Probe.SUPPORTED;
+    }
+
+    /**
+     * Provide the best executor available: virtual threads if supported, a new thread per behaviour otherwise.
+     *
+     * @return A {@link BehaviourExecutor} instance.
+     */
+    public static BehaviourExecutor newBestAvailable() {
+        return isSupported() ? new VirtualThreadBehaviourExecutor() : new ThreadBehaviourExecutor();
+    }
+
+    /**
+     * The library is compiled for Java 7, so the factory method is looked up by reflection.
+     */
+    private static Method factory() {
+        try {
+            return java.util.concurrent.Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+        } catch (NoSuchMethodException e) {
+            return null;
+        }
+    }
+
+    private static ExecutorService newVirtualThreadPerTaskExecutor() {
+        Method factory = factory();
+        if (factory == null || !isSupported()) {
+            throw new UnsupportedOperationException("Virtual threads are not supported by this JVM");
+        }
+
+        try {
+            return (ExecutorService) factory.invoke(null);
+        } catch (IllegalAccessException | InvocationTargetException e) {
+            throw new UnsupportedOperationException("Virtual threads are not supported by this JVM", e);
+        }
+    }
+
+    /**
+     * Built on first use.
+     */
+    private static final class Probe {
+        private static final boolean SUPPORTED = probe();
+
+        private static boolean probe() {
+            if (factory() == null) {
+                return false;
+            }
+            try {
+                Object builder = Thread.class.getMethod("ofVirtual").invoke(null);
+                Class.forName("java.lang.Thread$Builder").getMethod("factory").invoke(builder);
+                return true;
+            } catch (ReflectiveOperationException | RuntimeException e) {
+                // e.g. preview features disabled
+                return false;
+            }
+        }
+    }
+}
@@ -0,0 +1,227 @@
+package it.francescosantagati.jam;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.io.InvalidObjectException;
+import java.io.ObjectInput;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutput;
+import java.io.ObjectOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Compact encoding of messages and agent ids, used by their serialization methods.
+ * <ul>
+ * <li>Integers are varints: 7 bits for each byte, the highest bit set when more bytes follow;
+ * <li>Strings are UTF-8, prefixed by their length;
+ * <li>Agent ids of the exact JAM classes are written inline as a kind followed by name and category,
+ * without class descriptors. Other {@link AgentID} implementations, subclasses included, are serialized
+ * with {@link ObjectOutput#writeObject(Object)}, so their own fields are kept;
+ * <li>Frames of the socket and shared memory transports are a count followed by the messages.
+ * </ul>
+ *
+ * @author Francesco Santagati
+ */
+final class WireFormat {
+
+    private static final int NULL = 0;
+    private static final int GENERIC = 1;
+    private static final int CATEGORY = 2;
+    private static final int PERSONAL = 3;
+    private static final int OTHER = 4;
+
+    private WireFormat() {
+    }
+
+    static void writeVarint(DataOutput out, int value) throws IOException {
+        while ((value & ~0x7F) != 0) {
+            out.writeByte((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        out.writeByte(value);
+    }
+
+    static int readVarint(DataInput in) throws IOException {
+        int value = 0;
+        for (int shift = 0; shift < 32; shift += 7) {
+            byte b = in.readByte();
+            value |= (b & 0x7F) << shift;
+            if (b >= 0) {
+                return value;
+            }
+        }
+        throw new InvalidObjectException("Malformed varint");
+    }
+
+    /**
+     * Write a string that may be null. Length is written plus one, so that 0 means null.
+     */
+    static void writeString(DataOutput out, String value) throws IOException {
+        if (value == null) {
+            writeVarint(out, 0);
+            return;
+        }
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        writeVarint(out, bytes.length + 1);
+        out.write(bytes);
+    }
+
+    static String readString(DataInput in) throws IOException {
+        int length = readVarint(in);
+        if (length == 0) {
+            return null;
+        }
+        byte[] bytes = new byte[length - 1];
+        in.readFully(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    static void writeAgentID(ObjectOutput out, AgentID agentID, StringTable strings) throws IOException {
+        int kind = kindOf(agentID);
+        writeVarint(out, kind);
+        switch (kind) {
+            case NULL:
+            case GENERIC:
+                break;
+            case CATEGORY:
+                strings.write(out, agentID.getCategory());
+                break;
+            case PERSONAL:
+                strings.write(out, agentID.getName());
+                strings.write(out, agentID.getCategory());
+                break;
+            default:
+                out.writeObject(agentID);
+        }
+    }
+
+    static AgentID readAgentID(ObjectInput in, StringTable strings) throws IOException, ClassNotFoundException {
+        int kind = readVarint(in);
+        switch (kind) {
+            case NULL:
+                return null;
+            case GENERIC:
+                return new GenericAgentID();
+            case CATEGORY:
+                return new CategoryAgentID(strings.read(in));
+            case PERSONAL:
+                String name = strings.read(in);
+                return new PersonalAgentID(name, strings.read(in));
+            case OTHER:
+                return (AgentID) in.readObject();
+            default:
+                throw new InvalidObjectException("Unknown agent id kind " + kind);
+        }
+    }
+
+    /**
+     * Encode a frame of messages. Messages of the exact class {@link Message} are written without class descriptors,
+     * instances of subclasses with {@link ObjectOutput#writeObject(Object)}, so their own fields are kept.
+     */
+    static byte[] encodeMessages(List<Message> messages) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(128 * messages.size());
+        try (ObjectOutputStream out = new ObjectOutputStream(bytes)) {
+            writeVarint(out, messages.size());
+            for (Message message : messages) {
+                if (message.getClass() == Message.class) {
+                    out.writeBoolean(true);
+                    message.writeCompact(out);
+                } else {
+                    out.writeBoolean(false);
+                    out.writeObject(message);
+                }
+            }
+        }
+        return bytes.toByteArray();
+    }
+
+    static List<Message> decodeMessages(byte[] frame, int offset, int length) throws IOException, ClassNotFoundException {
+        try (ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(frame, offset, length))) {
+            int size = readVarint(in);
+            List<Message> messages = new ArrayList<>(Math.min(size, 1024));
+            for (int i = 0; i < size; i++) {
+                if (in.readBoolean()) {
+                    Message message = new Message();
+                    message.readCompact(in);
+                    messages.add(message);
+                } else {
+                    messages.add((Message) in.readObject());
+                }
+            }
+            return messages;
+        }
+    }
+
+    /**
+     * Check if an agent id is written inline, i.e. without calling {@link ObjectOutput#writeObject(Object)}.
+     *
+     * @param agentID it.francescosantagati.jam.AgentID, may be null
+     * @return True if written inline. False if serialized.
+     */
+    static boolean isInline(AgentID agentID) {
+        return kindOf(agentID) != OTHER;
+    }
+
+    /**
+     * Only the exact JAM classes are written inline: a subclass may have state of its own.
+     */
+    private static int kindOf(AgentID agentID) {
+        if (agentID == null) {
+            return NULL;
+        }
+        Class<?> type = agentID.getClass();
+        if (type == PersonalAgentID.class) {
+            return PERSONAL;
+        } else if (type == CategoryAgentID.class) {
+            return CATEGORY;
+        } else if (type == GenericAgentID.class) {
+            return GENERIC;
+        }
+        return OTHER;
+    }
+
+    /**
+     * Strings already written in a message are replaced by their index, e.g. the category shared by
+     * sender and receiver. Tag 0 is null, 1 a new string, 2 or more the string at index tag - 2.
+     * <p>An instance must be used for a single message.</p>
+     */
+    static final class StringTable {
+        private final List<String> strings = new ArrayList<>(4);
+
+        void write(DataOutput out, String value) throws IOException {
+            if (value == null) {
+                writeVarint(out, 0);
+                return;
+            }
+            int index = strings.indexOf(value);
+            if (index >= 0) {
+                writeVarint(out, index + 2);
+                return;
+            }
+            strings.add(value);
+            writeVarint(out, 1);
+            writeString(out, value);
+        }
+
+        String read(DataInput in) throws IOException {
+            int tag = readVarint(in);
+            if (tag == 0) {
+                return null;
+            }
+            if (tag == 1) {
+                String value = readString(in);
+                strings.add(value);
+                return value;
+            }
+            if (tag - 2 >= strings.size()) {
+                throw new InvalidObjectException("Unknown string index " + (tag - 2));
+            }
+            return strings.get(tag - 2);
+        }
+    }
+}
@@ -0,0 +1,15 @@
+package it.francescosantagati.jam;
+
+import java.rmi.RemoteException;
+
+/**
+ * @author Francesco Santagati
+ */
+public class MessageBoxTest extends MessageBoxTestCase {
+
+    @Override
+    protected MessageBoxNoSync<Message> create(AgentID owner, int maxMessages, OverflowPolicy policy)
+            throws RemoteException {
+        return new MessageBox(owner, maxMessages, policy);
+    }
+}
@@ -0,0 +1,264 @@
+package it.francescosantagati.jam;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.rmi.NoSuchObjectException;
+import java.rmi.RemoteException;
+import java.rmi.server.UnicastRemoteObject;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Selective reads and overflow policies, shared by every synchronized message box.
+ *
+ * @author Francesco Santagati
+ */
+public abstract class MessageBoxTestCase {
+
+    private final AgentID owner = new PersonalAgentID("owner", "test");
+    private final AgentID alice = new PersonalAgentID("alice", "test");
+    private final AgentID bob = new PersonalAgentID("bob", "test");
+    private final List<MessageBoxNoSync<Message>> boxes = new ArrayList<>();
+
+    /**
+     * @return a message box of the implementation under test
+     */
+    protected abstract MessageBoxNoSync<Message> create(AgentID owner, int maxMessages, OverflowPolicy policy)
+            throws RemoteException;
+
+    @After
+    public void tearDown() throws NoSuchObjectException {
+        for (MessageBoxNoSync<Message> box : boxes) {
+            box.closeSpill();
+            UnicastRemoteObject.unexportObject(box, true);
+        }
+    }
+
+    @Test
+    public void readBySenderTakesOldestMessageOfSender() throws Exception {
+        AgentMessageBox box = box(10, OverflowPolicy.dropNewest());
+        write(box, alice, Performative.INFORM, "a1");
+        write(box, bob, Performative.INFORM, "b1");
+        write(box, bob, Performative.REQUEST, "b2");
+
+        assertEquals("b1", box.readMessage(bob).getContent());
+        assertEquals("b2", box.readMessage(bob).getContent());
+        assertEquals("a1", box.readMessage().getContent());
+    }
+
+    @Test
+    public void readByPerformativeTakesOldestMessageOfPerformative() throws Exception {
+        AgentMessageBox box = box(10, OverflowPolicy.dropNewest());
+        write(box, alice, Performative.INFORM, "a1");
+        write(box, bob, Performative.REQUEST, "b1");
+        write(box, alice, Performative.REQUEST, "a2");
+
+        assertEquals("b1", box.readMessage(Performative.REQUEST).getContent());
+        assertEquals("a2", box.readMessage(Performative.REQUEST).getContent());
+        assertEquals("a1", box.readMessage().getContent());
+    }
+
+    @Test
+    public void readBySenderAndPerformativeMatchesBoth() throws Exception {
+        AgentMessageBox box = box(10, OverflowPolicy.dropNewest());
+        write(box, alice, Performative.REQUEST, "a1");
+        write(box, bob, Performative.INFORM, "b1");
+        write(box, alice, Performative.INFORM, "a2");
+        write(box, bob, Performative.REQUEST, "b2");
+
+        assertEquals("a2", box.readMessage(alice, Performative.INFORM).getContent());
+        assertEquals("b2", box.readMessage(bob, Performative.REQUEST).getContent());
+        assertEquals("a1", poll(box).getContent());
+        assertEquals("b1", poll(box).getContent());
+        assertNull(poll(box));
+    }
+
+    @Test
+    public void isThereMessageAppliesFilter() throws Exception {
+        AgentMessageBox box = box(10, OverflowPolicy.dropNewest());
+        write(box, alice, Performative.INFORM, "a1");
+
+        assertTrue(box.isThereMessage());
+        assertTrue(box.isThereMessage(alice));
+        assertFalse(box.isThereMessage(bob));
+        assertTrue(box.isThereMessage(Performative.INFORM));
+        assertFalse(box.isThereMessage(Performative.REQUEST));
+        assertTrue(box.isThereMessage(alice, Performative.INFORM));
+        assertFalse(box.isThereMessage(alice, Performative.REQUEST));
+    }
+
+    @Test
+    public void timedReadWithoutMatchReturnsNull() throws Exception {
+        AgentMessageBox box = box(10, OverflowPolicy.dropNewest());
+        write(box, alice, Performative.INFORM, "a1");
+
+        assertNull(box.readMessage(bob, null, 50, TimeUnit.MILLISECONDS));
+        assertTrue(box.isThereMessage(alice));
+    }
+
+    @Test
+    public void blockedReaderWakesOnlyForMatchingMessage() throws Exception {
+        final AgentMessageBox box = box(10, OverflowPolicy.dropNewest());
+        final AtomicReference<Message> read = new AtomicReference<>();
+        Thread reader = new Thread() {
+            @Override
+            public void run() {
+                try {
+                    read.set(box.readMessage(bob, null, 5, TimeUnit.SECONDS));
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        };
+        reader.start();
+
+        write(box, alice, Performative.INFORM, "a1");
+        reader.join(200);
+        assertTrue(reader.isAlive());
+
+        write(box, bob, Performative.INFORM, "b1");
+        reader.join(5000);
+        assertEquals("b1", read.get().getContent());
+        assertEquals("a1", poll(box).getContent());
+    }
+
+    @Test
+    public void drainToMovesOnlyMatchingMessages() throws Exception {
+        AgentMessageBox box = box(10, OverflowPolicy.dropNewest());
+        write(box, alice, Performative.INFORM, "a1");
+        write(box, bob, Performative.INFORM, "b1");
+        write(box, alice, Performative.REQUEST, "a2");
+        write(box, alice, Performative.INFORM, "a3");
+
+        List<Message> drained = new ArrayList<>();
+        assertEquals(2, box.drainTo(alice, Performative.INFORM, drained, 10));
+        assertEquals("a1", drained.get(0).getContent());
+        assertEquals("a3", drained.get(1).getContent());
+        assertEquals("b1", poll(box).getContent());
+        assertEquals("a2", poll(box).getContent());
+    }
+
+    @Test
+    public void dropNewestRejectsIncomingMessage() throws Exception {
+        AgentMessageBox box = box(2, OverflowPolicy.dropNewest());
+        writeAll(box, 3);
+
+        assertEquals(1, dropped(box));
+        assertContents(box, "m0", "m1");
+    }
+
+    @Test
+    public void dropOldestMakesRoomForIncomingMessage() throws Exception {
+        AgentMessageBox box = box(2, OverflowPolicy.dropOldest());
+        writeAll(box, 3);
+
+        assertEquals(1, dropped(box));
+        assertContents(box, "m1", "m2");
+    }
+
+    @Test
+    public void growIgnoresLimit() throws Exception {
+        AgentMessageBox box = box(2, OverflowPolicy.grow());
+        writeAll(box, 5);
+
+        assertEquals(0, dropped(box));
+        assertContents(box, "m0", "m1", "m2", "m3", "m4");
+    }
+
+    @Test
+    public void spillToDiskKeepsOrder() throws Exception {
+        AgentMessageBox box = box(2, OverflowPolicy.spillToDisk(null));
+        writeAll(box, 10);
+
+        assertEquals(0, dropped(box));
+        assertContents(box, "m0", "m1", "m2", "m3", "m4", "m5", "m6", "m7", "m8", "m9");
+    }
+
+    @Test
+    public void selectiveReadFindsSpilledMessage() throws Exception {
+        AgentMessageBox box = box(2, OverflowPolicy.spillToDisk(null));
+        write(box, alice, Performative.INFORM, "a1");
+        write(box, alice, Performative.INFORM, "a2");
+        write(box, bob, Performative.INFORM, "b1");
+
+        assertTrue(box.isThereMessage(bob));
+        assertEquals("b1", box.readMessage(bob).getContent());
+        assertContents(box, "a1", "a2");
+    }
+
+    @Test
+    public void blockDropsMessageWhenTimeoutExpires() throws Exception {
+        AgentMessageBox box = box(1, OverflowPolicy.block(50, TimeUnit.MILLISECONDS));
+        long start = System.nanoTime();
+        writeAll(box, 2);
+
+        assertTrue(System.nanoTime() - start >= TimeUnit.MILLISECONDS.toNanos(50));
+        assertEquals(1, dropped(box));
+        assertContents(box, "m0");
+    }
+
+    @Test
+    public void blockedWriterResumesWhenMessageIsRead() throws Exception {
+        final AgentMessageBox box = box(1, OverflowPolicy.block(5, TimeUnit.SECONDS));
+        write(box, alice, Performative.INFORM, "m0");
+        Thread writer = new Thread() {
+            @Override
+            public void run() {
+                try {
+                    write(box, alice, Performative.INFORM, "m1");
+                } catch (Exception e) {
+                    throw new IllegalStateException(e);
+                }
+            }
+        };
+        writer.start();
+        writer.join(200);
+        assertTrue(writer.isAlive());
+
+        assertEquals("m0", poll(box).getContent());
+        writer.join(5000);
+        assertFalse(writer.isAlive());
+        assertEquals(0, dropped(box));
+        assertContents(box, "m1");
+    }
+
+    private AgentMessageBox box(int maxMessages, OverflowPolicy policy) throws RemoteException {
+        MessageBoxNoSync<Message> box = create(owner, maxMessages, policy);
+        boxes.add(box);
+        return (AgentMessageBox) box;
+    }
+
+    private void write(AgentMessageBox box, AgentID sender, Performative performative, String content)
+            throws RemoteException, InterruptedException {
+        ((RemoteMessageBox) box).writeMessage(new Message(sender, owner, performative, content));
+    }
+
+    private void writeAll(AgentMessageBox box, int count) throws RemoteException, InterruptedException {
+        for (int i = 0; i < count; i++) {
+            write(box, alice, Performative.INFORM, "m" + i);
+        }
+    }
+
+    private static Message poll(AgentMessageBox box) throws InterruptedException {
+        return box.readMessage(null, null, 0, TimeUnit.SECONDS);
+    }
+
+    private static long dropped(AgentMessageBox box) {
+        return ((MessageBoxNoSync<?>) box).getDroppedMessages();
+    }
+
+    private static void assertContents(AgentMessageBox box, String... contents) throws InterruptedException {
+        for (String content : contents) {
+            assertEquals(content, poll(box).getContent());
+        }
+        assertNull(poll(box));
+    }
+}
@@ -0,0 +1,178 @@
+package it.francescosantagati.jam;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.rmi.NoSuchObjectException;
+import java.rmi.server.UnicastRemoteObject;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * A crash is simulated by opening the journal again without closing it.
+ *
+ * @author Francesco Santagati
+ */
+public class MessageJournalTest {
+
+    private final AgentID owner = new PersonalAgentID("owner", "test");
+    private final AgentID sender = new PersonalAgentID("sender", "test");
+    private final List<MessageBox> boxes = new ArrayList<>();
+    private File directory;
+
+    @Before
+    public void setUp() throws IOException {
+        directory = Files.createTempDirectory("jam-journal").toFile();
+    }
+
+    @After
+    public void tearDown() throws NoSuchObjectException {
+        for (MessageBox box : boxes) {
+            box.closeJournal();
+            UnicastRemoteObject.unexportObject(box, true);
+        }
+        File[] files = directory.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                file.delete();
+            }
+        }
+        directory.delete();
+    }
+
+    @Test
+    public void recoversMessagesNotAcknowledged() throws Exception {
+        MessageJournal journal = MessageJournal.open(directory, owner);
+        long first = journal.append(message("m1"));
+        long second = journal.append(message("m2"));
+        long third = journal.append(message("m3"));
+        journal.acknowledge(second);
+        journal.sync();
+
+        Map<Long, Message> recovered = MessageJournal.open(directory, owner).recover();
+        assertEquals(Arrays.asList(first, third), new ArrayList<>(recovered.keySet()));
+        assertContents(recovered, "m1", "m3");
+    }
+
+    @Test
+    public void recoveryStopsAtTornRecord() throws Exception {
+        MessageJournal journal = MessageJournal.open(directory, owner);
+        journal.append(message("m1"));
+        journal.append(message("m2"));
+        journal.sync();
+
+        // Damage the content of the second record, as a write interrupted by a crash would
+        try (RandomAccessFile file = new RandomAccessFile(journalFile(), "rw")) {
+            int second = 8 + 17 + readLength(file, 8);
+            file.seek(second + 13);
+            int b = file.read();
+            file.seek(second + 13);
+            file.write(b ^ 0xFF);
+        }
+
+        MessageJournal recovered = MessageJournal.open(directory, owner);
+        assertContents(recovered.recover(), "m1");
+
+        recovered.append(message("m3"));
+        recovered.sync();
+        assertContents(MessageJournal.open(directory, owner).recover(), "m1", "m3");
+    }
+
+    @Test
+    public void sequencesGrowAcrossRecovery() throws Exception {
+        long before = MessageJournal.open(directory, owner).append(message("m1"));
+        long after = MessageJournal.open(directory, owner).append(message("m2"));
+
+        assertTrue(after > before);
+    }
+
+    @Test
+    public void compactionKeepsMessagesNotAcknowledged() throws Exception {
+        char[] padding = new char[1024];
+        Arrays.fill(padding, 'x');
+        MessageJournal journal = MessageJournal.open(directory, owner);
+        // More than a segment of records, most of them acknowledged
+        for (int i = 0; i < 20000; i++) {
+            long sequence = journal.append(message(new String(padding) + i));
+            if (i % 1000 != 0) {
+                journal.acknowledge(sequence);
+            }
+        }
+        journal.sync();
+
+        assertTrue(journalFile().length() <= MessageJournal.SEGMENT_SIZE);
+        Map<Long, Message> recovered = MessageJournal.open(directory, owner).recover();
+        assertEquals(20, recovered.size());
+        Iterator<Message> messages = recovered.values().iterator();
+        for (int i = 0; i < 20000; i += 1000) {
+            assertTrue(messages.next().getContent().endsWith("x" + i));
+        }
+    }
+
+    @Test
+    public void boxRedeliversMessagesNotReadBeforeCrash() throws Exception {
+        MessageBox box = box();
+        assertEquals(0, box.openJournal(directory));
+        box.writeMessage(message("m1"));
+        box.writeMessage(message("m2"));
+        box.writeMessage(message("m3"));
+        assertEquals("m1", box.readMessage().getContent());
+
+        MessageBox restarted = box();
+        assertEquals(2, restarted.openJournal(directory));
+        assertEquals("m2", restarted.readMessage().getContent());
+        assertEquals("m3", restarted.readMessage().getContent());
+        assertFalse(restarted.isThereMessage());
+    }
+
+    @Test
+    public void ownersDoNotShareJournal() throws Exception {
+        assertNotEquals(MessageJournal.escape("a b"), MessageJournal.escape("a_b"));
+        assertNotEquals(MessageJournal.escape("a@b") + "@" + MessageJournal.escape("c"),
+                MessageJournal.escape("a") + "@" + MessageJournal.escape("b@c"));
+
+        MessageJournal.open(directory, new PersonalAgentID("a@b", "c")).append(message("m1"));
+        assertTrue(MessageJournal.open(directory, new PersonalAgentID("a", "b@c")).recover().isEmpty());
+        assertContents(MessageJournal.open(directory, new PersonalAgentID("a@b", "c")).recover(), "m1");
+    }
+
+    private MessageBox box() throws IOException {
+        MessageBox box = new MessageBox(owner, 10);
+        boxes.add(box);
+        return box;
+    }
+
+    private Message message(String content) {
+        return new Message(sender, owner, Performative.INFORM, content);
+    }
+
+    private File journalFile() {
+        return new File(directory, "owner@test.journal");
+    }
+
+    private static int readLength(RandomAccessFile file, int record) throws IOException {
+        file.seek(record + 9);
+        return file.readInt();
+    }
+
+    private static void assertContents(Map<Long, Message> messages, String... contents) {
+        assertEquals(contents.length, messages.size());
+        Iterator<Message> iterator = messages.values().iterator();
+        for (String content : contents) {
+            assertEquals(content, iterator.next().getContent());
+        }
+    }
+}
@@ -0,0 +1,140 @@
+package it.francescosantagati.jam;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+/**
+ * Round trip of messages and agent ids through Java serialization, used by RMI, and through {@link WireFormat},
+ * used by the other transports and by the journal.
+ *
+ * @author Francesco Santagati
+ */
+public class MessageSerializationTest {
+
+    private final AgentID alice = new PersonalAgentID("alice", "bidders");
+    private final AgentID auctioneers = new CategoryAgentID("auctioneers");
+
+    @Test
+    public void messageSurvivesSerialization() throws Exception {
+        Message message = new Message(alice, auctioneers, Performative.PROPOSAL, "bid", new ArrayList<>(Arrays.asList("1", "2")));
+
+        assertSameMessage(message, copy(message));
+    }
+
+    @Test
+    public void messageWithoutOptionalFieldsSurvivesSerialization() throws Exception {
+        Message message = new Message(alice, auctioneers, Performative.INFORM, null);
+
+        Message copy = copy(message);
+        assertSameMessage(message, copy);
+        assertNull(copy.getContent());
+        assertNull(copy.getExtraArgument());
+    }
+
+    @Test
+    public void encodedMessageSurvivesSerialization() throws Exception {
+        Message message = new Message(alice, auctioneers, Performative.PROPOSAL, "bid", 42);
+        message.encodeOnce();
+
+        assertSameMessage(message, copy(message));
+        message.clearEncoded();
+    }
+
+    @Test
+    public void messagesSurviveWireFormat() throws Exception {
+        List<Message> messages = new ArrayList<>();
+        messages.add(new Message(alice, auctioneers, Performative.PROPOSAL, "bid 1"));
+        messages.add(new Message(alice, new GenericAgentID(), Performative.PROPOSAL, "bid 2", 42));
+        messages.add(new Message(auctioneers, alice, Performative.AGREE, "sold"));
+
+        byte[] frame = WireFormat.encodeMessages(messages);
+        List<Message> decoded = WireFormat.decodeMessages(frame, 0, frame.length);
+        assertEquals(messages.size(), decoded.size());
+        for (int i = 0; i < messages.size(); i++) {
+            assertSameMessage(messages.get(i), decoded.get(i));
+        }
+    }
+
+    @Test
+    public void subclassesKeepTheirFields() throws Exception {
+        TaggedMessage message = new TaggedMessage(new TaggedAgentID("alice", "bidders", 7), auctioneers, 3);
+
+        TaggedMessage copy = copy(message);
+        assertSameMessage(message, copy);
+        assertEquals(3, copy.priority);
+        assertEquals(7, ((TaggedAgentID) copy.getSender()).tag);
+
+        byte[] frame = WireFormat.encodeMessages(Arrays.<Message>asList(message));
+        TaggedMessage decoded = (TaggedMessage) WireFormat.decodeMessages(frame, 0, frame.length).get(0);
+        assertSameMessage(message, decoded);
+        assertEquals(3, decoded.priority);
+        assertEquals(7, ((TaggedAgentID) decoded.getSender()).tag);
+    }
+
+    @Test
+    public void agentIdsSurviveSerialization() throws Exception {
+        for (AgentID agentID : Arrays.asList(alice, auctioneers, new GenericAgentID())) {
+            assertSameAgent(agentID, copy(agentID));
+        }
+    }
+
+    private static void assertSameMessage(Message expected, Message actual) {
+        assertSame(expected.getClass(), actual.getClass());
+        assertSameAgent(expected.getSender(), actual.getSender());
+        assertSameAgent(expected.getReceiver(), actual.getReceiver());
+        assertEquals(expected.getPerformative(), actual.getPerformative());
+        assertEquals(expected.getContent(), actual.getContent());
+        assertEquals(expected.getExtraArgument(), actual.getExtraArgument());
+    }
+
+    private static void assertSameAgent(AgentID expected, AgentID actual) {
+        assertSame(expected.getClass(), actual.getClass());
+        assertEquals(expected.getName(), actual.getName());
+        assertEquals(expected.getCategory(), actual.getCategory());
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <T> T copy(T object) throws IOException, ClassNotFoundException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (ObjectOutputStream out = new ObjectOutputStream(bytes)) {
+            out.writeObject(object);
+        }
+        try (ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(bytes.toByteArray()))) {
+            return (T) in.readObject();
+        }
+    }
+
+    private static final class TaggedAgentID extends PersonalAgentID {
+        private static final long serialVersionUID = 1L;
+
+        private final int tag;
+
+        private TaggedAgentID(String name, String category, int tag) {
+            super(name, category);
+            this.tag = tag;
+        }
+    }
+
+    private static final class TaggedMessage extends Message {
+        private static final long serialVersionUID = 1L;
+
+        private final int priority;
+
+        private TaggedMessage(AgentID sender, AgentID receiver, int priority) {
+            super(sender, receiver, Performative.REQUEST, "tagged");
+            this.priority = priority;
+        }
+    }
+}
@@ -0,0 +1,121 @@
+package it.francescosantagati.jam;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * @author Francesco Santagati
+ */
+public class TimingWheelTest {
+
+    private final TimingWheel wheel = new TimingWheel(1, TimeUnit.MILLISECONDS);
+
+    @Test
+    public void timeoutExpiresAfterDelay() throws Exception {
+        CountDownLatch expired = new CountDownLatch(1);
+        long start = System.nanoTime();
+        wheel.schedule(countDown(expired), 20, TimeUnit.MILLISECONDS);
+
+        assertTrue(expired.await(5, TimeUnit.SECONDS));
+        assertTrue(System.nanoTime() - start >= TimeUnit.MILLISECONDS.toNanos(20));
+        assertEquals(0, wheel.size());
+    }
+
+    @Test
+    public void timeoutsExpireInDeadlineOrder() throws Exception {
+        final List<String> order = Collections.synchronizedList(new ArrayList<String>());
+        final CountDownLatch expired = new CountDownLatch(3);
+        wheel.schedule(append(order, "c", expired), 60, TimeUnit.MILLISECONDS);
+        wheel.schedule(append(order, "a", expired), 20, TimeUnit.MILLISECONDS);
+        wheel.schedule(append(order, "b", expired), 40, TimeUnit.MILLISECONDS);
+
+        assertTrue(expired.await(5, TimeUnit.SECONDS));
+        assertEquals("[a, b, c]", order.toString());
+    }
+
+    @Test
+    public void nonPositiveDelayExpiresAtNextTick() throws Exception {
+        CountDownLatch expired = new CountDownLatch(2);
+        wheel.schedule(countDown(expired), 0, TimeUnit.MILLISECONDS);
+        wheel.schedule(countDown(expired), -10, TimeUnit.MILLISECONDS);
+
+        assertTrue(expired.await(5, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void cancelledTimeoutDoesNotExpire() throws Exception {
+        CountDownLatch expired = new CountDownLatch(1);
+        TimingWheel.Timeout timeout = wheel.schedule(countDown(expired), 20, TimeUnit.MILLISECONDS);
+
+        assertTrue(timeout.cancel());
+        assertEquals(0, wheel.size());
+        assertFalse(expired.await(100, TimeUnit.MILLISECONDS));
+        assertFalse(timeout.cancel());
+    }
+
+    @Test
+    public void expiredTimeoutCanNotBeCancelled() throws Exception {
+        CountDownLatch expired = new CountDownLatch(1);
+        TimingWheel.Timeout timeout = wheel.schedule(countDown(expired), 1, TimeUnit.MILLISECONDS);
+
+        assertTrue(expired.await(5, TimeUnit.SECONDS));
+        assertFalse(timeout.cancel());
+    }
+
+    @Test
+    public void cancellingOneTimeoutKeepsTheOthers() throws Exception {
+        CountDownLatch cancelled = new CountDownLatch(1);
+        CountDownLatch kept = new CountDownLatch(1);
+        TimingWheel.Timeout timeout = wheel.schedule(countDown(cancelled), 30, TimeUnit.MILLISECONDS);
+        wheel.schedule(countDown(kept), 30, TimeUnit.MILLISECONDS);
+
+        assertTrue(timeout.cancel());
+        assertTrue(kept.await(5, TimeUnit.SECONDS));
+        assertEquals(1, cancelled.getCount());
+    }
+
+    @Test
+    public void farTimeoutsDoNotExpire() throws Exception {
+        CountDownLatch expired = new CountDownLatch(1);
+        List<TimingWheel.Timeout> timeouts = new ArrayList<>();
+        // Beyond the range of the wheel, and beyond the range of a long in nanoseconds
+        timeouts.add(wheel.schedule(countDown(expired), 60, TimeUnit.DAYS));
+        timeouts.add(wheel.schedule(countDown(expired), Long.MAX_VALUE, TimeUnit.NANOSECONDS));
+        timeouts.add(wheel.schedule(countDown(expired), Long.MAX_VALUE, TimeUnit.SECONDS));
+
+        assertFalse(expired.await(100, TimeUnit.MILLISECONDS));
+        assertEquals(3, wheel.size());
+        for (TimingWheel.Timeout timeout : timeouts) {
+            assertTrue(timeout.cancel());
+        }
+        assertEquals(0, wheel.size());
+    }
+
+    private static Runnable countDown(final CountDownLatch latch) {
+        return new Runnable() {
+            @Override
+            public void run() {
+                latch.countDown();
+            }
+        };
+    }
+
+    private static Runnable append(final List<String> order, final String name, final CountDownLatch latch) {
+        return new Runnable() {
+            @Override
+            public void run() {
+                order.add(name);
+                latch.countDown();
+            }
+        };
+    }
+}